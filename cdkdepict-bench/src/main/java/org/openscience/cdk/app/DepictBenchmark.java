@@ -0,0 +1,301 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openscience.cdk.depict.Depiction;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObject;
+import org.openscience.cdk.interfaces.IReaction;
+import org.openscience.cdk.interfaces.IReactionSet;
+import org.openscience.cdk.layout.StructureDiagramGenerator;
+import org.openscience.cdk.tools.manipulator.ReactionSetManipulator;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for each stage of the {@link DepictController#depict} pipeline
+ * over a fixed corpus of inputs. Run with:
+ * <pre>
+ * $ java -jar cdkdepict-bench/target/benchmarks.jar
+ * $ java -jar cdkdepict-bench/target/benchmarks.jar DepictBenchmark.layout -p corpus=macrocycles
+ * $ java -jar cdkdepict-bench/target/benchmarks.jar DepictBenchmark.parse -p corpus=molfiles
+ * $ java -jar cdkdepict-bench/target/benchmarks.jar DepictBenchmark.encode -p fmt=png -p pngEncoder=fast,imageio
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DepictBenchmark {
+
+  /**
+   * The controller and the raw inputs of a corpus.
+   */
+  @State(Scope.Benchmark)
+  public static class Corpus {
+
+    // molfiles are V2000 and V3000 records with coordinates
+    @Param({"drugs", "macrocycles", "organometallics", "reactions", "molfiles"})
+    public String corpus;
+
+    // PNG encoder, compare with -p pngEncoder=fast,imageio
+    @Param({"fast"})
+    public String pngEncoder;
+
+    DepictController controller;
+    List<String>     inputs;
+    boolean          isRxn;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      // no result caching, we want to measure the pipeline
+      Map<String, Object> props = new HashMap<>();
+      props.put("cdkdepict.cache.size", "0");
+      props.put("cdkdepict.png.encoder", pngEncoder);
+      StandardEnvironment env = new StandardEnvironment();
+      env.getPropertySources().addFirst(new MapPropertySource("bench", props));
+      controller = new DepictController(env);
+      inputs = load(corpus);
+      isRxn = "reactions".equals(corpus);
+    }
+
+    /**
+     * Load a corpus, either {name}.smi with an input per line or {name}.sdf
+     * with a molfile per record.
+     */
+    private static List<String> load(String name) throws IOException {
+      List<String> inputs = new ArrayList<>();
+      String path = "/org/openscience/cdk/app/bench/" + name + ".smi";
+      boolean sdf = DepictBenchmark.class.getResource(path) == null;
+      if (sdf)
+        path = "/org/openscience/cdk/app/bench/" + name + ".sdf";
+      try (InputStream in = DepictBenchmark.class.getResourceAsStream(path)) {
+        if (in == null)
+          throw new IOException("Corpus not found: " + name);
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        StringBuilder record = new StringBuilder();
+        String line;
+        while ((line = rdr.readLine()) != null) {
+          if (!sdf) {
+            if (!line.isEmpty())
+              inputs.add(line);
+          } else if (line.startsWith("$$$$")) {
+            inputs.add(record.toString());
+            record.setLength(0);
+          } else {
+            record.append(line).append('\n');
+          }
+        }
+      }
+      return inputs;
+    }
+  }
+
+  /**
+   * Freshly loaded inputs for stages that modify the structures, reloaded
+   * before every invocation so each sees the same starting point.
+   */
+  @State(Scope.Thread)
+  public static class Loaded {
+
+    List<IAtomContainer> mols = new ArrayList<>();
+    List<IReactionSet>   rxns = new ArrayList<>();
+    // every molecule or reaction component
+    List<IAtomContainer> parts = new ArrayList<>();
+
+    @Setup(Level.Invocation)
+    public void setup(Corpus corpus) throws CDKException {
+      mols.clear();
+      rxns.clear();
+      parts.clear();
+      for (String input : corpus.inputs) {
+        if (corpus.isRxn) {
+          IReactionSet rxnSet = corpus.controller.loadRxns(input);
+          rxns.add(rxnSet);
+          parts.addAll(ReactionSetManipulator.getAllAtomContainers(rxnSet));
+        } else {
+          IAtomContainer mol = corpus.controller.loadMol(input);
+          mols.add(mol);
+          parts.add(mol);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loaded and laid out inputs, as they would be before rendering.
+   */
+  @State(Scope.Thread)
+  public static class LaidOut extends Loaded {
+
+    @Setup(Level.Invocation)
+    public void layout() throws CDKException {
+      StructureDiagramGenerator sdg = new StructureDiagramGenerator();
+      for (IAtomContainer mol : mols)
+        sdg.generateCoordinates(mol);
+      for (IReactionSet rxnSet : rxns) {
+        for (IReaction rxn : rxnSet.reactions())
+          sdg.generateCoordinates(rxn);
+      }
+    }
+  }
+
+  /**
+   * The SMARTS query used to benchmark hit finding.
+   */
+  @State(Scope.Benchmark)
+  public static class Query {
+    @Param({"[#7,#8]", "c1ccccc1", "*~*~*~*~*~*"})
+    public String sma;
+  }
+
+  /**
+   * Depictions of the corpus ready to be encoded.
+   */
+  @State(Scope.Benchmark)
+  public static class Rendered {
+
+    @Param({"svg", "pdf", "png", "png8"})
+    public String fmt;
+
+    // PNG deflate level, compare with -p zlevel=1,4,9
+    @Param({"4"})
+    public String zlevel;
+
+    List<Depiction>     depictions = new ArrayList<>();
+    Map<String, String> options    = new HashMap<>();
+    DepictOptions       opts;
+
+    @Setup(Level.Trial)
+    public void setup(Corpus corpus) throws CDKException {
+      options.put("zlevel", zlevel);
+      opts = DepictOptions.of(options);
+      for (String input : corpus.inputs)
+        depictions.add(corpus.controller.createDepiction(input, "cow", opts,
+                                                         new DepictMetrics.Sample()));
+    }
+  }
+
+  @Benchmark
+  public void parse(Corpus corpus, Blackhole bh) throws CDKException {
+    for (String input : corpus.inputs) {
+      if (corpus.isRxn)
+        bh.consume(corpus.controller.loadRxns(input));
+      else
+        bh.consume(corpus.controller.loadMol(input));
+    }
+  }
+
+  @Benchmark
+  public void layout(Loaded loaded) throws CDKException {
+    StructureDiagramGenerator sdg = new StructureDiagramGenerator();
+    for (IAtomContainer mol : loaded.mols)
+      sdg.generateCoordinates(mol);
+    for (IReactionSet rxnSet : loaded.rxns) {
+      for (IReaction rxn : rxnSet.reactions())
+        sdg.generateCoordinates(rxn);
+    }
+  }
+
+  /**
+   * Abbreviation as done for abbr=on, the group dictionary for molecules and
+   * reactants/products and the agent dictionary for reaction agents.
+   */
+  @Benchmark
+  public void abbreviate(Corpus corpus, Loaded loaded) {
+    Set<IChemObject> highlight = Collections.emptySet();
+    for (IAtomContainer mol : loaded.mols)
+      corpus.controller.abbreviate(mol, "on", "none", highlight);
+    for (IReactionSet rxnSet : loaded.rxns) {
+      for (IReaction rxn : rxnSet.reactions())
+        corpus.controller.abbreviate(rxn, "on", highlight);
+    }
+  }
+
+  /**
+   * Abbreviation of every molecule/component with the (larger) agent
+   * dictionary.
+   */
+  @Benchmark
+  public void abbreviateAgents(Corpus corpus, Loaded loaded, Blackhole bh) {
+    Map<IAtom, Integer> atomSet = Collections.emptyMap();
+    for (IAtomContainer part : loaded.parts)
+      bh.consume(corpus.controller.agentAbbr.apply(part, atomSet));
+  }
+
+  @Benchmark
+  public void findHits(Corpus corpus, Query query, Loaded loaded, Blackhole bh) {
+    for (IAtomContainer mol : loaded.mols)
+      bh.consume(corpus.controller.findHits(query.sma, null, mol, 100));
+    for (IReactionSet rxnSet : loaded.rxns) {
+      for (IReaction rxn : rxnSet.reactions())
+        bh.consume(corpus.controller.findHits(query.sma, rxn, null, 100));
+    }
+  }
+
+  @Benchmark
+  public void annotateCip(Corpus corpus, LaidOut laidOut) {
+    for (IAtomContainer part : laidOut.parts)
+      corpus.controller.annotateCip(part);
+  }
+
+  @Benchmark
+  public void perceiveRadicals(Loaded loaded) {
+    for (IAtomContainer part : loaded.parts)
+      MolOp.perceiveRadicals(part);
+  }
+
+  @Benchmark
+  public void perceiveDativeBonds(Loaded loaded) {
+    for (IAtomContainer part : loaded.parts)
+      MolOp.perceiveDativeBonds(part, MolOp.DativeBond.Always);
+  }
+
+  @Benchmark
+  public void encode(Corpus corpus, Rendered rendered, Blackhole bh) throws IOException {
+    for (Depiction depiction : rendered.depictions)
+      bh.consume(corpus.controller.encode(depiction, rendered.fmt, rendered.opts));
+  }
+
+  /**
+   * The whole pipeline as served by the depict/{style}/{fmt} endpoint.
+   */
+  @Benchmark
+  public void depict(Corpus corpus, Rendered rendered, Blackhole bh) throws CDKException, IOException {
+    for (String input : corpus.inputs)
+      bh.consume(corpus.controller.depict(input, rendered.fmt, "cow", rendered.options));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the {@link MolOp} perception passes with molecule size, the
+ * time per atom should stay flat as the number of atoms grows. Run with:
+ * <pre>
+ * $ java -jar cdkdepict-bench/target/benchmarks.jar MolOpBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MolOpBenchmark {
+
+  @Param({"1000", "5000", "20000"})
+  public int numAtoms;
+
+  private String         smi;
+  private IAtomContainer mol;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    // a polymer with a radical and a charge separated N-oxide in every
+    // repeat unit
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numAtoms / 6; i++)
+      sb.append("[CH]C[N+]([O-])(C)C");
+    smi = sb.toString();
+  }
+
+  @Setup(Level.Invocation)
+  public void setupInvocation() throws InvalidSmilesException {
+    mol = new SmilesParser(SilentChemObjectBuilder.getInstance()).parseSmiles(smi);
+  }
+
+  @Benchmark
+  public IAtomContainer perceiveRadicals() {
+    MolOp.perceiveRadicals(mol);
+    return mol;
+  }
+
+  @Benchmark
+  public IAtomContainer perceiveDativeBonds() {
+    MolOp.perceiveDativeBonds(mol, MolOp.DativeBond.Always);
+    return mol;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openscience.cdk.depict.Abbreviations;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps an abbreviation dictionary ({@link Abbreviations}) with an index of
+ * cheap invariants of each entry: the element counts, heavy atom count and
+ * ring count (cycle rank). A molecule can only contain an entry if it has
+ * at least as many atoms of each element and at least as many rings, when no
+ * entry passes this test the (comparatively expensive) fragment enumeration
+ * and canonical SMILES lookup done by {@link Abbreviations#apply} is skipped.
+ */
+final class AbbreviationIndex {
+
+  private final Abbreviations abbreviations = new Abbreviations();
+
+  // distinct entry invariants, sorted by heavy atom count
+  private Invariants[] entries = new Invariants[0];
+
+  private final LongAdder applied = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+
+  /**
+   * Load abbreviations from a classpath resource or file, the format is the
+   * same as {@link Abbreviations#loadFromFile(String)}: a SMILES and a
+   * label per line. Entries loaded first take priority for contraction.
+   *
+   * @param path resource or file path
+   * @return number of entries loaded
+   * @throws IOException the dictionary could not be read
+   */
+  int loadFromFile(String path) throws IOException {
+    int count = abbreviations.loadFromFile(path);
+    SmilesParser smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    smipar.kekulise(false);
+    Set<Invariants> invariants = new HashSet<>(Arrays.asList(entries));
+    try (BufferedReader rdr = new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = rdr.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#')
+          continue;
+        String smi = line.split("\\s+", 2)[0];
+        try {
+          invariants.add(Invariants.of(smipar.parseSmiles(smi)));
+        } catch (InvalidSmilesException ignored) {
+          // also skipped by the abbreviations
+        }
+      }
+    }
+    Invariants[] sorted = invariants.toArray(new Invariants[0]);
+    Arrays.sort(sorted, (a, b) -> Integer.compare(a.numHeavy, b.numHeavy));
+    this.entries = sorted;
+    return count;
+  }
+
+  /**
+   * Enable an abbreviation option.
+   *
+   * @param option the option
+   * @return this index
+   */
+  AbbreviationIndex with(Abbreviations.Option option) {
+    abbreviations.with(option);
+    return this;
+  }
+
+  /**
+   * Determine if any dictionary entry could be contained in the molecule.
+   *
+   * @param mol the molecule
+   * @return the molecule may be abbreviated
+   */
+  boolean mayMatch(IAtomContainer mol) {
+    Invariants query = Invariants.of(mol);
+    for (Invariants entry : entries) {
+      if (entry.numHeavy > query.numHeavy)
+        break;
+      if (entry.isContainedIn(query))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Abbreviate a molecule, see {@link Abbreviations#apply(IAtomContainer, Map)},
+   * molecules that can not contain any of the entries are skipped.
+   *
+   * @param mol     the molecule
+   * @param atomSet atoms that may not be abbreviated
+   * @return number of abbreviations added
+   */
+  int apply(IAtomContainer mol, Map<IAtom, Integer> atomSet) {
+    if (!mayMatch(mol)) {
+      skipped.increment();
+      return 0;
+    }
+    applied.increment();
+    return abbreviations.apply(mol, atomSet);
+  }
+
+  /**
+   * Number of molecules that were checked against the dictionary.
+   *
+   * @return the count
+   */
+  long applied() {
+    return applied.sum();
+  }
+
+  /**
+   * Number of molecules that were skipped by the index.
+   *
+   * @return the count
+   */
+  long skipped() {
+    return skipped.sum();
+  }
+
+  private static InputStream open(String path) throws IOException {
+    InputStream in = AbbreviationIndex.class.getResourceAsStream(path);
+    if (in != null)
+      return in;
+    if (Files.isReadable(Paths.get(path)))
+      return Files.newInputStream(Paths.get(path));
+    throw new FileNotFoundException(path);
+  }
+
+  /**
+   * Element counts (sorted by atomic number), heavy atom count and cycle rank
+   * of a molecule. Hydrogens and attachment points (*) are not counted.
+   */
+  static final class Invariants {
+    private final int[] elements;
+    private final int[] counts;
+    private final int   numHeavy;
+    private final int   numRings;
+
+    private Invariants(int[] elements, int[] counts, int numHeavy, int numRings) {
+      this.elements = elements;
+      this.counts = counts;
+      this.numHeavy = numHeavy;
+      this.numRings = numRings;
+    }
+
+    static Invariants of(IAtomContainer mol) {
+      int[] elemCount = new int[128];
+      int numHeavy = 0;
+      int numElem = 0;
+      int[] parent = new int[mol.getAtomCount()];
+      for (int i = 0; i < parent.length; i++) {
+        parent[i] = i;
+        int elem = atomicNumber(mol.getAtom(i));
+        if (elem <= 1)
+          continue;
+        if (elemCount[elem]++ == 0)
+          numElem++;
+        numHeavy++;
+      }
+      int[] elements = new int[numElem];
+      int[] counts = new int[numElem];
+      for (int elem = 0, j = 0; j < numElem; elem++) {
+        if (elemCount[elem] > 0) {
+          elements[j] = elem;
+          counts[j++] = elemCount[elem];
+        }
+      }
+      // cycle rank = bonds - atoms + components, of the heavy atom graph
+      int numBonds = 0;
+      int numComponents = numHeavy;
+      for (IBond bond : mol.bonds()) {
+        if (atomicNumber(bond.getBegin()) <= 1 || atomicNumber(bond.getEnd()) <= 1)
+          continue;
+        numBonds++;
+        int u = find(parent, bond.getBegin().getIndex());
+        int v = find(parent, bond.getEnd().getIndex());
+        if (u != v) {
+          parent[u] = v;
+          numComponents--;
+        }
+      }
+      return new Invariants(elements, counts, numHeavy, numBonds - numHeavy + numComponents);
+    }
+
+    /**
+     * Could a molecule with these invariants be a substructure of a molecule
+     * with the other invariants.
+     */
+    boolean isContainedIn(Invariants other) {
+      // e.g. H2, only matches itself
+      if (numHeavy == 0)
+        return other.numHeavy == 0;
+      if (numHeavy > other.numHeavy || numRings > other.numRings)
+        return false;
+      int j = 0;
+      for (int i = 0; i < elements.length; i++) {
+        while (j < other.elements.length && other.elements[j] < elements[i])
+          j++;
+        if (j == other.elements.length || other.elements[j] != elements[i] || other.counts[j] < counts[i])
+          return false;
+      }
+      return true;
+    }
+
+    private static int atomicNumber(IAtom atom) {
+      Integer elem = atom.getAtomicNumber();
+      return elem != null && elem < 128 ? elem : 0;
+    }
+
+    private static int find(int[] parent, int u) {
+      while (parent[u] != u)
+        u = parent[u] = parent[parent[u]];
+      return u;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Invariants))
+        return false;
+      Invariants that = (Invariants) o;
+      return numHeavy == that.numHeavy && numRings == that.numRings &&
+             Arrays.equals(elements, that.elements) && Arrays.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Arrays.hashCode(elements);
+      result = 31 * result + Arrays.hashCode(counts);
+      result = 31 * result + numHeavy;
+      return 31 * result + numRings;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+/**
+ * Thrown when a depiction takes longer (wall-clock or CPU time) than the
+ * compute budget allowed for a request.
+ */
+final class BudgetExceededException extends RuntimeException {
+
+  BudgetExceededException(String message) {
+    super(message);
+  }
+}
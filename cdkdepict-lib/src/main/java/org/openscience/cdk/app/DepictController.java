@@ -7,8 +7,10 @@ package org.openscience.cdk.app;
 import com.simolecule.centres.BaseMol;
 import com.simolecule.centres.CdkLabeller;
 import com.simolecule.centres.Descriptor;
+import org.openscience.cdk.app.DepictOptions.Param;
 import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.Kekulization;
 import org.openscience.cdk.depict.Abbreviations;
 import org.openscience.cdk.depict.Depiction;
 import org.openscience.cdk.depict.DepictionGenerator;
@@ -24,8 +26,6 @@ import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IReaction;
 import org.openscience.cdk.interfaces.IReactionSet;
 import org.openscience.cdk.interfaces.IStereoElement;
-import org.openscience.cdk.io.MDLV2000Reader;
-import org.openscience.cdk.io.MDLV3000Reader;
 import org.openscience.cdk.layout.StructureDiagramGenerator;
 import org.openscience.cdk.renderer.RendererModel;
 import org.openscience.cdk.renderer.SymbolVisibility;
@@ -39,6 +39,8 @@ import org.openscience.cdk.sgroup.SgroupKey;
 import org.openscience.cdk.sgroup.SgroupType;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.smarts.SmartsPattern;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.smiles.SmilesParser;
 import org.openscience.cdk.stereo.ExtendedTetrahedral;
 import org.openscience.cdk.stereo.Octahedral;
@@ -51,27 +53,58 @@ import org.openscience.cdk.tools.manipulator.HydrogenState;
 import org.openscience.cdk.tools.manipulator.ReactionManipulator;
 import org.openscience.cdk.tools.manipulator.ReactionSetManipulator;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import javax.imageio.ImageIO;
 import javax.vecmath.Point2d;
 import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
@@ -80,17 +113,38 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Chemical structure depiction controller.
  */
 @CrossOrigin
 @Controller
-public class DepictController {
+public class DepictController implements DisposableBean {
 
   private final Object lock = new Object();
 
@@ -119,181 +173,1538 @@ public class DepictController {
           new Color(0x000000)
   };
 
-  private final ExecutorService smartsExecutor = Executors.newFixedThreadPool(4);
+  private static final Color DEFAULT_HIGHLIGHT = new Color(0xaaffaa);
+  // characters replaced in the names of ZIP entries
+  private static final Pattern UNSAFE_NAME_CHARS = Pattern.compile("[^A-Za-z0-9._-]");
+  // max length of the title part of the name of a ZIP entry
+  private static final int     MAX_NAME_TITLE    = 64;
+  private static final Color NOB_HIGHLIGHT     = new Color(0xffaaaa);
+  // bond length (px) of raster depictions before zooming
+  private static final double RASTER_BOND_LENGTH = 40;
+
+  // the CPU bound work (layout, rendering and encoding) of single depictions
+  // runs on this pool, bounded so overload is rejected rather than queued
+  private final ThreadPoolExecutor depictExecutor;
+  private final long               timeBudgetMillis;
+  private final long               cpuBudgetNanos;
+  // fails depictions that are still running at the end of the time budget
+  private final ScheduledThreadPoolExecutor timeoutExecutor;
+
+  // wall-clock (nanoTime) and CPU time at which the depiction on this thread
+  // is out of budget
+  private final ThreadLocal<Long> timeDeadline = new ThreadLocal<>();
+  private final ThreadLocal<Long> cpuDeadline  = new ThreadLocal<>();
+  private final ThreadMXBean      threadMx     = ManagementFactory.getThreadMXBean();
+
+  // structure diagram generation does not check for interrupts, depictions
+  // in budget lay out on this pool and wait for at most the budget
+  private final ExecutorService layoutExecutor;
+  private final int             layoutThreads;
+  // layouts that were abandoned (out of budget) but still hold a thread
+  private final AtomicInteger   abandonedLayouts = new AtomicInteger();
+
+  // states of a layout on the layout pool
+  private static final int LAYOUT_QUEUED    = 0;
+  private static final int LAYOUT_RUNNING   = 1;
+  private static final int LAYOUT_DONE      = 2;
+  private static final int LAYOUT_ABANDONED = 3;
+
+  // renders the entries of batch requests in parallel
+  private final ExecutorService renderExecutor;
+
+  // parallel work within a single depiction, deflating large PNGs
+  private final ForkJoinPool workPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
   // chem object builder to create objects with
   private final IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
 
   // we make are raster depictions slightly smalled by default (40px bond length)
   private final DepictionGenerator generator = new DepictionGenerator();
-  private SmilesParser smipar = new SmilesParser(builder);
-
-  private final Abbreviations groupAbbr = new Abbreviations();
-  private final Abbreviations agentAbbr = new Abbreviations();
-
-  private enum Param {
-    // match highlighting
-    SMARTSHITLIM("smalim", 100),
-    SMARTSQUERY("sma", ""),
-    // model options
-    HDISPLAY("hdisp", false),
-    ALIGNRXNMAP("alignrxnmap", true),
-    ANON("anon", false),
-    SUPRESSH("suppressh", true),
-    ANNOTATE("annotate", "none"),
-    ABBREVIATE("abbr", "reagents"),
-    // rendering param
-    BGCOLOR("bgcolor", "default"),
-    FGCOLOR("fgcolor", "default"),
-    SHOWTITLE("showtitle", false),
-    ARROW("arw", IReaction.Direction.FORWARD),
-    DATIVE("dat", MolOp.DativeBond.Metals),
-    DONUTS("dnt", false),
-    MULTICENTER("mc", MolOp.MulticenterStyle.Provided),
-    ZOOM("zoom", 1.3),
-    RATIO("ratio", 1.1),
-    ROTATE("r", 0),
-    FLIP("f", false),
-    WIDTH("w", -1),
-    HEIGHT("h", -1),
-    SVGUNITS("svgunits", "mm");
-    private final String name;
-    private final Object defaultValue;
-
-    Param(String name, Object defaultValue) {
-      this.name = name;
-      this.defaultValue = defaultValue;
-    }
-  }
+  // SmilesParser is not thread-safe so each thread has its own, these do not
+  // kekulise so the input is only parsed once, see kekulise()
+  private final ThreadLocal<SmilesParser> smipar = ThreadLocal.withInitial(() -> {
+    SmilesParser smipar = new SmilesParser(builder);
+    smipar.kekulise(false);
+    return smipar;
+  });
+
+  final AbbreviationIndex groupAbbr = new AbbreviationIndex();
+  final AbbreviationIndex agentAbbr = new AbbreviationIndex();
+
+  // rendered depictions keyed by input, style, format and options, null if disabled
+  private final LruCache<String, DepictResult> cache;
+
+  // maximum number of entries in a batch request
+  private final int maxBatchSize;
+  // maximum (estimated) number of pixels in a raster grid
+  private final long maxGridPixels;
+  // maximum size of a structure provided as the request body, or of an SD
+  // file record
+  private final long maxInputSize;
+
+  // runs depictions too large for a single request in the background
+  private final DepictJobs jobs;
+  // maximum number of molecules in a grid job, and in each page of its result
+  private final int        maxJobGridSize;
+  private final int        jobGridPageSize;
+
+  // depicts a corpus at startup, the controller is ready once this is done
+  private final DepictWarmup warmup;
+
+  // per-stage latency and size histograms
+  private final DepictMetrics metrics = new DepictMetrics();
+  // raster images are encoded into reusable per-thread buffers
+  private final RasterBuffers rasterBuffers;
+  private final PngEncoder    builtinPngEncoder;
+  private final RasterEncoder pngEncoder;
+  private final RasterEncoder imageIOEncoder = new ImageIOEncoder();
+
+  // configured generators keyed by the style options, see configureGenerator()
+  private final LruCache<String, DepictionGenerator> generators = new LruCache<>(256);
+
+  // 2D layouts of molecules keyed by canonical SMILES, null if disabled
+  private final LruCache<String, Layout> layoutCache;
+  private final SmilesGenerator          layoutSmigen = new SmilesGenerator(SmiFlavor.Absolute);
+
+  // compiled SMARTS patterns, empty if the pattern could not be compiled
+  private final LruCache<String, Optional<SmartsPattern>> smartsCache;
+  private final LongAdder smartsCompileNanos = new LongAdder();
 
   public DepictController() throws IOException {
+    this(new StandardEnvironment());
+  }
+
+  /**
+   * Create a new controller configured from the provided environment, the
+   * following properties are recognised:
+   * <ul>
+   *   <li>cdkdepict.cache.size - max size of the depiction cache (default: 64MB, 0 to disable)</li>
+   *   <li>cdkdepict.batch.max - max number of entries in a batch request (default: 10000)</li>
+   *   <li>cdkdepict.grid.raster.max - max (estimated) number of pixels in a raster grid (default: 64000000)</li>
+   *   <li>cdkdepict.input.max - max size of a structure provided as the request body, or an SD file record (default: 16MB)</li>
+   *   <li>cdkdepict.layout.cache.size - max size of the 2D layout cache (default: 16MB, 0 to disable)</li>
+   *   <li>cdkdepict.smarts.cache.size - max number of compiled SMARTS patterns to keep (default: 1024)</li>
+   *   <li>cdkdepict.budget.time - max wall-clock time to depict a structure, or an entry of a batch, grid or SD file (default: 10s, 0 for no limit)</li>
+   *   <li>cdkdepict.budget.cpu - max CPU time to depict a structure, or an entry of a batch, grid or SD file (default: 10s, 0 for no limit)</li>
+   *   <li>cdkdepict.budget.threads - number of threads depicting structures (default: number of cores)</li>
+   *   <li>cdkdepict.budget.queue - max number of requests waiting to be depicted (default: 64)</li>
+   *   <li>cdkdepict.budget.layout.threads - number of threads laying out structures in budget (default: budget threads + number of cores)</li>
+   *   <li>cdkdepict.raster.buffer.max - max size of a per-thread raster encoding buffer kept for reuse (default: 4MB)</li>
+   *   <li>cdkdepict.png.encoder - PNG encoder, 'fast' (built-in) or 'imageio' (default: fast)</li>
+   *   <li>cdkdepict.abbr.groups - comma separated files of extra group abbreviations, these take priority over the built-in ones</li>
+   *   <li>cdkdepict.abbr.agents - comma separated files of extra reagent abbreviations, these take priority over the built-in ones</li>
+   *   <li>cdkdepict.jobs.dir - directory the inputs and results of jobs are written to (default: cdkdepict-jobs in java.io.tmpdir)</li>
+   *   <li>cdkdepict.jobs.threads - number of jobs run at once (default: 1)</li>
+   *   <li>cdkdepict.jobs.queue - max number of jobs waiting to run (default: 16)</li>
+   *   <li>cdkdepict.jobs.input.max - max size of the input of a job (default: 1GB)</li>
+   *   <li>cdkdepict.jobs.grid.max - max number of molecules in a grid job (default: 100000)</li>
+   *   <li>cdkdepict.jobs.grid.page - number of molecules in each page of a grid job without nrow and ncol (default: 1000)</li>
+   *   <li>cdkdepict.jobs.ttl - how long a finished job is kept (default: 60m)</li>
+   *   <li>cdkdepict.warmup.rounds - number of times the warm-up corpus is depicted in every style and format at startup (default: 3, 0 to disable)</li>
+   *   <li>cdkdepict.warmup.corpus - SMILES file depicted to warm up (default: the bundled warmup.smi)</li>
+   *   <li>cdkdepict.warmup.time - max time to warm up for (default: 60s, 0 for no limit)</li>
+   * </ul>
+   *
+   * @param env the environment
+   * @throws IOException the abbreviations could not be loaded
+   */
+  @Autowired
+  public DepictController(Environment env) throws IOException {
+    long cacheSize = DataSize.parse(env.getProperty("cdkdepict.cache.size", "64MB")).toBytes();
+    this.cache = cacheSize > 0 ? new LruCache<>(cacheSize, DepictResult::size) : null;
+    this.maxBatchSize = env.getProperty("cdkdepict.batch.max", Integer.class, 10000);
+    this.maxGridPixels = env.getProperty("cdkdepict.grid.raster.max", Long.class, 64000000L);
+    this.maxInputSize = DataSize.parse(env.getProperty("cdkdepict.input.max", "16MB")).toBytes();
+    long layoutCacheSize = DataSize.parse(env.getProperty("cdkdepict.layout.cache.size", "16MB")).toBytes();
+    this.layoutCache = layoutCacheSize > 0 ? new LruCache<>(layoutCacheSize, Layout::size) : null;
+    this.smartsCache = new LruCache<>(env.getProperty("cdkdepict.smarts.cache.size", Integer.class, 1024));
+    this.builtinPngEncoder = new PngEncoder(workPool);
+    this.pngEncoder = "imageio".equalsIgnoreCase(env.getProperty("cdkdepict.png.encoder", "fast"))
+                      ? imageIOEncoder : builtinPngEncoder;
+    this.rasterBuffers = new RasterBuffers((int) DataSize.parse(env.getProperty("cdkdepict.raster.buffer.max", "4MB")).toBytes());
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cdkdepict-render-");
+    threadFactory.setDaemon(true);
+    this.renderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                       threadFactory);
+    this.timeBudgetMillis = parseDuration(env.getProperty("cdkdepict.budget.time", "10s")).toMillis();
+    long cpuBudget = parseDuration(env.getProperty("cdkdepict.budget.cpu", "10s")).toNanos();
+    this.cpuBudgetNanos = threadMx.isCurrentThreadCpuTimeSupported() ? cpuBudget : 0;
+    CustomizableThreadFactory timeoutThreadFactory = new CustomizableThreadFactory("cdkdepict-timeout-");
+    timeoutThreadFactory.setDaemon(true);
+    this.timeoutExecutor = new ScheduledThreadPoolExecutor(1, timeoutThreadFactory);
+    this.timeoutExecutor.setRemoveOnCancelPolicy(true);
+    int nThreads = env.getProperty("cdkdepict.budget.threads", Integer.class,
+                                   Runtime.getRuntime().availableProcessors());
+    CustomizableThreadFactory depictThreadFactory = new CustomizableThreadFactory("cdkdepict-depict-");
+    depictThreadFactory.setDaemon(true);
+    this.depictExecutor = new ThreadPoolExecutor(nThreads, nThreads,
+                                                 0L, TimeUnit.MILLISECONDS,
+                                                 new ArrayBlockingQueue<>(env.getProperty("cdkdepict.budget.queue",
+                                                                                          Integer.class, 64)),
+                                                 depictThreadFactory,
+                                                 new ThreadPoolExecutor.AbortPolicy());
+    CustomizableThreadFactory layoutThreadFactory = new CustomizableThreadFactory("cdkdepict-layout-");
+    layoutThreadFactory.setDaemon(true);
+    // a thread for every depict and render thread that may be waiting
+    this.layoutThreads = env.getProperty("cdkdepict.budget.layout.threads", Integer.class,
+                                         nThreads + Runtime.getRuntime().availableProcessors());
+    this.layoutExecutor = Executors.newFixedThreadPool(layoutThreads, layoutThreadFactory);
+    String jobDir = env.getProperty("cdkdepict.jobs.dir");
+    this.jobs = new DepictJobs(jobDir != null ? Paths.get(jobDir)
+                                              : Paths.get(System.getProperty("java.io.tmpdir"), "cdkdepict-jobs"),
+                               env.getProperty("cdkdepict.jobs.threads", Integer.class, 1),
+                               env.getProperty("cdkdepict.jobs.queue", Integer.class, 16),
+                               DataSize.parse(env.getProperty("cdkdepict.jobs.input.max", "1GB")).toBytes(),
+                               parseDuration(env.getProperty("cdkdepict.jobs.ttl", "60m")));
+    this.maxJobGridSize = env.getProperty("cdkdepict.jobs.grid.max", Integer.class, 100000);
+    this.jobGridPageSize = env.getProperty("cdkdepict.jobs.grid.page", Integer.class, 1000);
+    int warmupRounds = env.getProperty("cdkdepict.warmup.rounds", Integer.class, 3);
+    this.warmup = new DepictWarmup(this::warmupDepict,
+                                   warmupRounds > 0
+                                   ? DepictWarmup.loadCorpus(env.getProperty("cdkdepict.warmup.corpus",
+                                                                             DepictWarmup.DEFAULT_CORPUS))
+                                   : Collections.emptyList(),
+                                   warmupRounds,
+                                   parseDuration(env.getProperty("cdkdepict.warmup.time", "60s")));
+    String[] customGroups = StringUtils.tokenizeToStringArray(env.getProperty("cdkdepict.abbr.groups", ""), ",");
+    String[] customAgents = StringUtils.tokenizeToStringArray(env.getProperty("cdkdepict.abbr.agents", ""), ",");
+    for (String path : customAgents)
+      this.agentAbbr.loadFromFile(path);
     this.agentAbbr.loadFromFile("/org/openscience/cdk/app/reagent_abbr.smi");
+    for (String path : customGroups)
+      this.agentAbbr.loadFromFile(path);
     this.agentAbbr.loadFromFile("/org/openscience/cdk/app/group_abbr.smi");
     this.agentAbbr.with(Abbreviations.Option.ALLOW_SINGLETON);
+    for (String path : customGroups)
+      this.groupAbbr.loadFromFile(path);
     this.groupAbbr.loadFromFile("/org/openscience/cdk/app/group_abbr.smi");
   }
 
-  private <T> T getParam(Param param,
-                         Map<String, String> params,
-                         Function<String, T> converter) {
-    T value = (T) param.defaultValue;
-    String str = params.get(param.name);
-    if (str != null && !str.isEmpty())
-      value = converter.apply(str);
-    return value;
-  }
-
-  private String getString(Param param, Map<String, String> params) {
-    String value = params.get(param.name);
-    if (value != null)
-      return value;
-    return param.defaultValue != null ? param.defaultValue.toString() : "";
-  }
-
-  private double getDouble(Param param, Map<String, String> params) {
-    String value = getString(param, params);
-    if (value.isEmpty()) {
-      if (param.defaultValue != null)
-        return (double) param.defaultValue;
-      throw new IllegalArgumentException(param.name + " not provided and no default!");
-    }
-    return Double.parseDouble(value);
-  }
-
-  private int getInt(Param param, Map<String, String> params) {
-    String value = getString(param, params);
-    if (value.isEmpty()) {
-      if (param.defaultValue != null)
-        return (int) param.defaultValue;
-      throw new IllegalArgumentException(param.name + " not provided and no default!");
-    }
-    return Integer.parseInt(value);
-  }
-
-  private boolean getBoolean(Param param, Map<String, String> params) {
-    String value = params.get(param.name);
-    if (value != null) {
-      switch (value.toLowerCase(Locale.ROOT)) {
-        case "f":
-        case "false":
-        case "off":
-        case "0":
-          return false;
-        case "t":
-        case "true":
-        case "on":
-        case "1":
-          return true;
-        default:
-          throw new IllegalArgumentException("Can not interpret boolean string param: " + value);
+  /**
+   * Start warming up once the application has started, see
+   * {@link DepictWarmup}.
+   */
+  @EventListener(ContextRefreshedEvent.class)
+  public void startWarmup() {
+    warmup.start();
+  }
+
+  /**
+   * Stop the background jobs and the thread pools when the application
+   * context is closed, running jobs are cancelled.
+   */
+  @Override
+  public void destroy() {
+    jobs.shutdown();
+    depictExecutor.shutdownNow();
+    renderExecutor.shutdownNow();
+    layoutExecutor.shutdownNow();
+    timeoutExecutor.shutdownNow();
+    workPool.shutdownNow();
+  }
+
+  /**
+   * Depict a structure to warm up, the depiction cache is bypassed so every
+   * round does the work and the cache is not filled with the corpus.
+   */
+  private void warmupDepict(String smi, String fmt, String style, Map<String, String> extra) throws
+          CDKException,
+          IOException {
+    render(DepictInput.of(smi), fmt, style, DepictOptions.of(extra));
+  }
+
+  /**
+   * Readiness check, for a load balancer or orchestrator. Not ready (503)
+   * until the startup warm-up is done, the body is the warm-up status.
+   *
+   * @return the warm-up status, 200 if ready and 503 otherwise
+   */
+  @RequestMapping(value = "depict/ready", method = RequestMethod.GET)
+  public ResponseEntity<String> ready() {
+    return new ResponseEntity<>(warmup.toJson(), responseHeaders("application/json"),
+                                warmup.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  /**
+   * Parse a duration such as '10s', '500ms', '1m' or ISO-8601 'PT10S', a
+   * plain number is in milliseconds.
+   *
+   * @param str the duration string
+   * @return the duration
+   */
+  static Duration parseDuration(String str) {
+    str = str.trim().toLowerCase(Locale.ROOT);
+    if (str.startsWith("pt"))
+      return Duration.parse(str);
+    if (str.endsWith("ms"))
+      return Duration.ofMillis(Long.parseLong(str.substring(0, str.length() - 2).trim()));
+    if (str.endsWith("s"))
+      return Duration.ofSeconds(Long.parseLong(str.substring(0, str.length() - 1).trim()));
+    if (str.endsWith("m"))
+      return Duration.ofMinutes(Long.parseLong(str.substring(0, str.length() - 1).trim()));
+    return Duration.ofMillis(Long.parseLong(str));
+  }
+
+  static Color getColor(String color) {
+    int vals[] = new int[]{0, 0, 0, 255}; // r,g,b,a
+    int pos = 0;
+    int beg = 0;
+    if (color.startsWith("0x"))
+      beg = 2;
+    else if (color.startsWith("#"))
+      beg = 1;
+    for (; pos < 4 && beg + 1 < color.length(); beg += 2) {
+      vals[pos++] = Integer.parseInt(color.substring(beg, beg + 2), 16);
+    }
+    return new Color(vals[0], vals[1], vals[2], vals[3]);
+  }
+
+  private HydrogenDisplayType getHydrogenDisplay(DepictOptions opts) {
+    if (!opts.getBoolean(Param.SUPRESSH)) {
+      return HydrogenDisplayType.Provided;
+    } else {
+      return opts.getEnum(Param.HDISPLAY, HydrogenDisplayType.class);
+    }
+  }
+
+  /**
+   * Restful entry point. The request is handled asynchronously, the input is
+   * depicted on a pool sized to the available cores and the result is
+   * written to the response by the container's async executor. When the
+   * depiction cache is enabled the depiction is encoded on the depict pool
+   * and the cached bytes are sent with a Content-Length, otherwise it is
+   * encoded straight to the response by the async executor and sent chunked.
+   * SVG and PDF are sent gzip compressed if the client accepts it, cached
+   * results hold the compressed bytes so they are compressed once.
+   *
+   * @param smi            SMILES to depict
+   * @param fmt            output format
+   * @param style          preset style COW (Color-on-white), COB, BOW, COW
+   * @param acceptEncoding the Accept-Encoding request header
+   * @return the depicted structure, when it is ready
+   */
+  @RequestMapping("depict/{style}/{fmt}")
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> depictAsync(@RequestParam("smi") String smi,
+                                                                              @PathVariable("fmt") String fmt,
+                                                                              @PathVariable("style") String style,
+                                                                              @RequestParam Map<String, String> extra,
+                                                                              @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    return depictAsync(DepictInput.of(smi), fmtlc, style, DepictOptions.of(extra),
+                       new DepictMetrics.Sample(), acceptsGzip(acceptEncoding));
+  }
+
+  /**
+   * Restful entry point for a structure provided as the request body, e.g.
+   * a large V3000 molfile that would be awkward to URL encode. The body is
+   * read as a stream, the format (molfile or SMILES/CXSMILES) is determined
+   * from the first few lines and a molfile is read directly from the stream.
+   * Bodies larger than the configured maximum (cdkdepict.input.max) are
+   * rejected while reading.
+   *
+   * @param body           the request body, a molfile or SMILES to depict
+   * @param fmt            output format
+   * @param style          preset style COW (Color-on-white), COB, BOW, COW
+   * @param contentLength  the Content-Length request header
+   * @param acceptEncoding the Accept-Encoding request header
+   * @return the depicted structure, when it is ready
+   * @throws CDKException the molfile could not be read
+   * @throws IOException  the request body could not be read
+   * @see #depictAsync(String, String, String, Map, String)
+   */
+  @RequestMapping(value = "depict/{style}/{fmt}", method = RequestMethod.POST, params = "!smi")
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> depictBody(InputStream body,
+                                                                             @PathVariable("fmt") String fmt,
+                                                                             @PathVariable("style") String style,
+                                                                             @RequestParam Map<String, String> extra,
+                                                                             @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+                                                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws
+          CDKException,
+          IOException {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    final DepictOptions opts = DepictOptions.of(extra);
+    // reject up-front if we are told it is too big
+    if (contentLength != null && contentLength > maxInputSize)
+      throw new InputTooLargeException(maxInputSize);
+    DepictMetrics.Sample sample = new DepictMetrics.Sample();
+    long t0 = sample.start();
+    DepictInput input = DepictInput.read(body, maxInputSize);
+    sample.stop(DepictMetrics.Stage.PARSE, t0);
+    return depictAsync(input, fmtlc, style, opts, sample, acceptsGzip(acceptEncoding));
+  }
+
+  private CompletableFuture<ResponseEntity<StreamingResponseBody>> depictAsync(DepictInput input,
+                                                                               String fmtlc,
+                                                                               String style,
+                                                                               DepictOptions opts,
+                                                                               DepictMetrics.Sample sample,
+                                                                               boolean gzip) {
+    // layout and rendering are done in budget on the depict pool, without a
+    // cache there is nothing to keep so the depiction is encoded straight to
+    // the response as it is written (chunked)
+    if (cache == null) {
+      return submitDepiction(input, style, opts, sample)
+              .thenApply(depiction -> streamDepiction(depiction, fmtlc, opts, sample, style, gzip));
+    }
+
+    String key = cacheKey(input, fmtlc, style, opts);
+    DepictResult cached = cache.get(key);
+    if (cached != null)
+      return CompletableFuture.completedFuture(streamBytes(cached, gzip));
+    // encoded in the same task (and budget) as the depiction, so a request
+    // that was admitted is not rejected once it has been laid out
+    return submitInBudget(() -> {
+      Depiction depiction = createDepiction(input, style, opts, sample);
+      DepictResult result = encode(depiction, fmtlc, opts, sample, style).withGzip();
+      cache.put(key, result);
+      return result;
+    }).thenApply(result -> streamBytes(result, gzip));
+  }
+
+  /**
+   * Depict a structure.
+   *
+   * @param smi   SMILES to depict
+   * @param fmt   output format
+   * @param style preset style COW (Color-on-white), COB, BOW, COW
+   * @return the depicted structure
+   * @throws CDKException something not okay with input
+   * @throws IOException  problem reading/writing request
+   */
+  public HttpEntity<?> depict(String smi,
+                              String fmt,
+                              String style,
+                              Map<String, String> extra) throws
+          CDKException,
+          IOException {
+    DepictOptions opts = DepictOptions.of(extra);
+    DepictInput input = DepictInput.of(smi);
+    if (cache == null) {
+      DepictResult result = render(input, fmt, style, opts);
+      return makeResponse(result.bytes(), result.contentType());
+    }
+    String key = cacheKey(input, fmt, style, opts);
+    DepictResult result = cache.get(key);
+    if (result == null) {
+      result = render(input, fmt, style, opts).withGzip();
+      cache.put(key, result);
+    }
+    return makeResponse(result.bytes(), result.contentType());
+  }
+
+  private static ResponseEntity<StreamingResponseBody> streamBytes(DepictResult result, boolean gzip) {
+    HttpHeaders header = responseHeaders(result.contentType());
+    byte[] bytes = gzip && result.gzipped() != null ? result.gzipped() : result.bytes();
+    setContentEncoding(header, result.contentType(), bytes != result.bytes());
+    header.setContentLength(bytes.length);
+    return new ResponseEntity<>(out -> out.write(bytes), header, HttpStatus.OK);
+  }
+
+  /**
+   * Stream a depiction that is not cached, it is encoded directly to the
+   * response output (gzip compressed at the default level if accepted) so
+   * the encoded bytes are never held in full. The length is not known up
+   * front so the response is sent chunked.
+   */
+  private ResponseEntity<StreamingResponseBody> streamDepiction(Depiction depiction,
+                                                                String fmtlc,
+                                                                DepictOptions opts,
+                                                                DepictMetrics.Sample sample,
+                                                                String style,
+                                                                boolean gzip) {
+    final String contentType = contentType(fmtlc);
+    final boolean compress = gzip && DepictResult.isCompressible(contentType);
+    HttpHeaders header = responseHeaders(contentType);
+    setContentEncoding(header, contentType, compress);
+    return new ResponseEntity<>(out -> {
+      long t0 = sample.start();
+      GZIPOutputStream gzout = compress ? new GZIPOutputStream(out, 8192) : null;
+      // count the encoded (not compressed) bytes, as recorded for cached results
+      CountingOutputStream cout = new CountingOutputStream(gzout != null ? gzout : out);
+      writeTo(depiction, fmtlc, opts, cout);
+      if (gzout != null)
+        gzout.finish();
+      out.flush();
+      sample.stop(DepictMetrics.Stage.ENCODE, t0);
+      metrics.record(sample, fmtlc, style, cout.count);
+    }, header, HttpStatus.OK);
+  }
+
+  /**
+   * Set the headers for content negotiated on Accept-Encoding, the response
+   * for a compressible type varies on it even when sent uncompressed.
+   */
+  private static void setContentEncoding(HttpHeaders header, String contentType, boolean gzip) {
+    if (!DepictResult.isCompressible(contentType))
+      return;
+    header.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+    if (gzip)
+      header.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+  }
+
+  /**
+   * Check if an Accept-Encoding header accepts gzip, i.e. gzip (or *) is
+   * listed without q=0.
+   *
+   * @param acceptEncoding the header value (may be null)
+   * @return gzip is accepted
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null)
+      return false;
+    Boolean wildcard = null;
+    for (String coding : StringUtils.tokenizeToStringArray(acceptEncoding, ",")) {
+      String[] fields = StringUtils.tokenizeToStringArray(coding, ";");
+      if (fields.length == 0)
+        continue;
+      boolean accepted = true;
+      for (int i = 1; i < fields.length; i++) {
+        if (fields[i].startsWith("q=")) {
+          try {
+            accepted = Double.parseDouble(fields[i].substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            accepted = false;
+          }
+        }
       }
+      String name = fields[0].toLowerCase(Locale.ROOT);
+      if (name.equals("gzip") || name.equals("x-gzip"))
+        return accepted;
+      if (name.equals("*"))
+        wildcard = accepted;
+    }
+    return wildcard != null && wildcard;
+  }
+
+  /**
+   * Batch entry point, depicts many structures in one request. The request
+   * body is a newline separated list of SMILES/CXSMILES each optionally
+   * followed by a title. All entries share the same style, format and
+   * options and are rendered in parallel. An entry that can not be depicted
+   * produces an error for that entry rather than failing the batch.
+   *
+   * @param input newline separated SMILES to depict
+   * @param fmt   output format of each entry
+   * @param style preset style
+   * @param out   response type, 'zip' (default) or 'json'
+   * @param extra depiction options
+   * @return ZIP archive or JSON array of the depictions
+   * @throws IOException problem writing the response
+   */
+  @RequestMapping(value = "depict/{style}/{fmt}/batch", method = RequestMethod.POST)
+  public HttpEntity<?> depictBatch(@RequestBody String input,
+                                   @PathVariable("fmt") String fmt,
+                                   @PathVariable("style") String style,
+                                   @RequestParam(value = "out", defaultValue = "zip") String out,
+                                   @RequestParam Map<String, String> extra) throws IOException {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    if (!"zip".equals(out) && !"json".equals(out))
+      throw new IllegalArgumentException("Unsupported batch output: " + out);
+    final DepictOptions opts = DepictOptions.of(extra);
+
+    List<String> lines = new ArrayList<>();
+    for (String line : input.split("\r?\n")) {
+      if (!line.trim().isEmpty())
+        lines.add(line.trim());
+    }
+    if (lines.size() > maxBatchSize)
+      throw new IllegalArgumentException("Too many entries in batch, the maximum is " + maxBatchSize);
+
+    // check the shared options before rendering any entries
+    configureGenerator(style, opts, false);
+    List<CompletableFuture<DepictResult>> futures = new ArrayList<>();
+    for (String line : lines) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        // each entry has the budget of a single depiction
+        startBudget(System.nanoTime());
+        try {
+          DepictMetrics.Sample sample = new DepictMetrics.Sample();
+          Depiction depiction = createDepiction(line, style, opts, sample);
+          return encode(depiction, fmtlc, opts, sample, style);
+        } catch (CDKException | IOException e) {
+          throw new CompletionException(e);
+        } finally {
+          endBudget();
+        }
+      }, renderExecutor));
+    }
+
+    if ("json".equals(out)) {
+      StringBuilder sb = new StringBuilder();
+      sb.append('[');
+      for (int i = 0; i < lines.size(); i++) {
+        if (i > 0)
+          sb.append(',');
+        sb.append("{\"title\":");
+        Json.quote(sb, titleOf(lines.get(i)));
+        try {
+          DepictResult result = futures.get(i).join();
+          sb.append(",\"type\":");
+          Json.quote(sb, result.contentType());
+          if (Depiction.SVG_FMT.equals(fmtlc)) {
+            sb.append(",\"svg\":");
+            Json.quote(sb, new String(result.bytes(), StandardCharsets.UTF_8));
+          } else {
+            sb.append(",\"base64\":\"")
+              .append(Base64.getEncoder().encodeToString(result.bytes()))
+              .append('"');
+          }
+        } catch (CompletionException e) {
+          sb.append(",\"error\":");
+          Json.quote(sb, errorMessage(e.getCause()));
+        }
+        sb.append('}');
+      }
+      sb.append(']');
+      return makeResponse(sb.toString().getBytes(StandardCharsets.UTF_8), "application/json");
+    } else {
+      ByteArrayOutputStream bao = new ByteArrayOutputStream();
+      try (ZipOutputStream zout = new ZipOutputStream(bao)) {
+        for (int i = 0; i < lines.size(); i++)
+          writeZipEntry(zout, i + 1, titleOf(lines.get(i)), fmtlc, futures.get(i));
+      }
+      return makeResponse(bao.toByteArray(), "application/zip");
+    }
+  }
+
+  /**
+   * Bulk entry point, depicts every record of an SD file (optionally gzip
+   * compressed) into a ZIP archive. The file is read record by record as
+   * the response is written, the records are depicted in parallel and each
+   * depiction is written to the archive (in file order) as soon as it is
+   * ready. Only a few records per core are in flight at once so memory use
+   * does not depend on the size of the file. A record that can not be
+   * depicted, or is larger than cdkdepict.input.max, produces an error
+   * entry rather than failing the archive.
+   *
+   * @param body  the SD file
+   * @param fmt   output format of each entry
+   * @param style preset style
+   * @param title data field to name the entries by, the molfile title line
+   *              if not provided
+   * @param extra depiction options
+   * @return ZIP archive of the depictions, streamed
+   * @throws IOException the SD file could not be opened
+   */
+  @RequestMapping(value = "depict/{style}/{fmt}/sdf", method = RequestMethod.POST)
+  public ResponseEntity<StreamingResponseBody> depictSdf(InputStream body,
+                                                         @PathVariable("fmt") String fmt,
+                                                         @PathVariable("style") String style,
+                                                         @RequestParam(value = "title", required = false) String title,
+                                                         @RequestParam Map<String, String> extra) throws IOException {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    final DepictOptions opts = DepictOptions.of(extra);
+    // check the shared options before reading any records
+    configureGenerator(style, opts, false);
+
+    SdfRecordReader sdfr = new SdfRecordReader(openSdf(body), title, maxInputSize);
+    StreamingResponseBody stream = out -> writeSdfZip(sdfr, fmtlc, style, opts, out, null);
+    return new ResponseEntity<>(stream, responseHeaders("application/zip"), HttpStatus.OK);
+  }
+
+  /**
+   * Open an SD file for reading, decompressing it if gzipped.
+   */
+  private static Reader openSdf(InputStream in) throws IOException {
+    BufferedInputStream bin = new BufferedInputStream(in);
+    bin.mark(2);
+    boolean gzipped = bin.read() == 0x1f && bin.read() == 0x8b;
+    bin.reset();
+    return new InputStreamReader(gzipped ? new GZIPInputStream(bin) : bin, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Depict the records of an SD file into a ZIP archive written to the
+   * output, see {@link #depictSdf}.
+   *
+   * @param job if not null, progress is reported to this job
+   */
+  private void writeSdfZip(SdfRecordReader sdfr,
+                           String fmtlc,
+                           String style,
+                           DepictOptions opts,
+                           OutputStream out,
+                           DepictJobs.Job job) throws IOException {
+    // enough records in flight to keep the render threads busy while the
+    // oldest is written
+    final int window = 2 * Runtime.getRuntime().availableProcessors();
+    Deque<SdfRecordReader.Record> records = new ArrayDeque<>();
+    Deque<CompletableFuture<DepictResult>> futures = new ArrayDeque<>();
+    try (ZipOutputStream zout = new ZipOutputStream(out)) {
+      // raster formats are already compressed
+      if (!DepictResult.isCompressible(contentType(fmtlc)))
+        zout.setLevel(Deflater.NO_COMPRESSION);
+      SdfRecordReader.Record record;
+      while ((record = sdfr.next()) != null) {
+        if (Thread.currentThread().isInterrupted())
+          throw new BudgetExceededException("Depiction cancelled");
+        if (futures.size() == window)
+          writeZipEntry(zout, records.poll(), fmtlc, futures.poll(), job);
+        records.add(record);
+        futures.add(depictRecord(record, fmtlc, style, opts));
+      }
+      while (!futures.isEmpty())
+        writeZipEntry(zout, records.poll(), fmtlc, futures.poll(), job);
+    } finally {
+      // failed part way (e.g. the client went away), don't depict the rest
+      for (CompletableFuture<DepictResult> future : futures)
+        future.cancel(false);
+    }
+  }
+
+  private CompletableFuture<DepictResult> depictRecord(SdfRecordReader.Record record,
+                                                       String fmtlc,
+                                                       String style,
+                                                       DepictOptions opts) {
+    if (record.molfile() == null) {
+      CompletableFuture<DepictResult> result = new CompletableFuture<>();
+      result.completeExceptionally(new InputTooLargeException(maxInputSize));
+      return result;
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      // each record has the budget of a single depiction
+      startBudget(System.nanoTime());
+      try {
+        DepictMetrics.Sample sample = new DepictMetrics.Sample();
+        Depiction depiction = createDepiction(DepictInput.of(record.molfile()), style, opts, sample);
+        return encode(depiction, fmtlc, opts, sample, style);
+      } catch (CDKException | IOException e) {
+        throw new CompletionException(e);
+      } finally {
+        endBudget();
+      }
+    }, renderExecutor);
+  }
+
+  /**
+   * Write the result of a depiction to a ZIP archive, if the depiction failed
+   * an error entry is written instead. Entries are numbered and named by the
+   * title (if any), see {@link #entryName}.
+   *
+   * @return the depiction was written, false if an error entry was written
+   */
+  private static boolean writeZipEntry(ZipOutputStream zout,
+                                       int number,
+                                       String title,
+                                       String fmtlc,
+                                       CompletableFuture<DepictResult> future) throws IOException {
+    String name = entryName(number, title);
+    boolean ok;
+    try {
+      DepictResult result = future.join();
+      zout.putNextEntry(new ZipEntry(name + "." + fileExtension(fmtlc)));
+      zout.write(result.bytes());
+      ok = true;
+    } catch (CompletionException e) {
+      zout.putNextEntry(new ZipEntry(name + ".error.txt"));
+      zout.write(errorMessage(e.getCause()).getBytes(StandardCharsets.UTF_8));
+      ok = false;
+    }
+    zout.closeEntry();
+    return ok;
+  }
+
+  /**
+   * The name (without extension) of a ZIP entry, the number and the title
+   * with unsafe characters replaced, truncated to {@value #MAX_NAME_TITLE}
+   * characters as a ZIP entry name is limited to 64KB.
+   */
+  private static String entryName(int number, String title) {
+    String name = String.format("%05d", number);
+    if (title.isEmpty())
+      return name;
+    if (title.length() > MAX_NAME_TITLE)
+      title = title.substring(0, MAX_NAME_TITLE);
+    return name + "_" + UNSAFE_NAME_CHARS.matcher(title).replaceAll("_");
+  }
+
+  private static void writeZipEntry(ZipOutputStream zout,
+                                    SdfRecordReader.Record record,
+                                    String fmtlc,
+                                    CompletableFuture<DepictResult> future,
+                                    DepictJobs.Job job) throws IOException {
+    boolean ok = writeZipEntry(zout, record.number(), record.title(), fmtlc, future);
+    if (job != null)
+      job.completed(ok);
+  }
+
+  /**
+   * Grid entry point, depicts many molecules in a single image. The request
+   * body is a newline separated list of SMILES/CXSMILES each optionally
+   * followed by a title. All molecules share the same style and options,
+   * each is prepared and laid out in parallel and then rendered in one
+   * pass. Entries that can not be loaded are left as empty cells. Raster
+   * grids estimated to be larger than cdkdepict.grid.raster.max pixels are
+   * rejected (422).
+   *
+   * @param input newline separated SMILES to depict
+   * @param fmt   output format
+   * @param style preset style
+   * @param nrow  number of rows (optional)
+   * @param ncol  number of columns (optional)
+   * @param extra depiction options
+   * @return the depicted grid
+   * @throws CDKException the grid could not be depicted
+   * @throws IOException  problem writing the response
+   */
+  @RequestMapping(value = "depict/{style}/{fmt}/grid", method = RequestMethod.POST)
+  public HttpEntity<?> depictGrid(@RequestBody String input,
+                                  @PathVariable("fmt") String fmt,
+                                  @PathVariable("style") String style,
+                                  @RequestParam(value = "nrow", defaultValue = "0") int nrow,
+                                  @RequestParam(value = "ncol", defaultValue = "0") int ncol,
+                                  @RequestParam Map<String, String> extra) throws
+          CDKException,
+          IOException {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    final DepictOptions opts = DepictOptions.of(extra);
+    List<String> lines = readGridLines(new BufferedReader(new StringReader(input)), maxBatchSize);
+    DepictMetrics.Sample sample = new DepictMetrics.Sample();
+    Depiction depiction = createGrid(lines, fmtlc, style, opts, nrow, ncol, sample, null);
+    DepictResult result = encode(depiction, fmtlc, opts, sample, style);
+    return makeResponse(result.bytes(), result.contentType());
+  }
+
+  /**
+   * Read the entries of a grid, the non-blank lines of the input.
+   *
+   * @param rdr the input
+   * @param max max number of entries
+   * @return the entries
+   * @throws IOException the input could not be read
+   */
+  private static List<String> readGridLines(BufferedReader rdr, int max) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (String line; (line = rdr.readLine()) != null; ) {
+      line = line.trim();
+      if (line.isEmpty())
+        continue;
+      if (lines.size() == max)
+        throw new IllegalArgumentException("Too many molecules in grid, the maximum is " + max);
+      lines.add(line);
+    }
+    if (lines.isEmpty())
+      throw new IllegalArgumentException("No molecules provided.");
+    return lines;
+  }
+
+  /**
+   * Depict the entries of a grid, see {@link #depictGrid}.
+   *
+   * @param job if not null, progress is reported to this job
+   */
+  private Depiction createGrid(List<String> lines,
+                               String fmtlc,
+                               String style,
+                               DepictOptions opts,
+                               int nrow,
+                               int ncol,
+                               DepictMetrics.Sample sample,
+                               DepictJobs.Job job) throws CDKException {
+    if (nrow <= 0 && ncol <= 0)
+      ncol = (int) Math.ceil(Math.sqrt(lines.size()));
+    if (nrow <= 0)
+      nrow = (lines.size() + ncol - 1) / ncol;
+    else if (ncol <= 0)
+      ncol = (lines.size() + nrow - 1) / nrow;
+
+    List<CompletableFuture<IAtomContainer>> futures = new ArrayList<>();
+    List<Set<IChemObject>> highlights = new ArrayList<>();
+    List<DepictMetrics.Sample> samples = new ArrayList<>();
+    for (String line : lines) {
+      final Set<IChemObject> highlight = new HashSet<>();
+      final DepictMetrics.Sample entrySample = new DepictMetrics.Sample();
+      highlights.add(highlight);
+      samples.add(entrySample);
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        // each entry has the budget of a single depiction, an entry out of
+        // budget is left empty as if it could not be loaded
+        startBudget(System.nanoTime());
+        try {
+          DepictInput input = DepictInput.of(line);
+          if (input.format() == DepictInput.Format.REACTION_SMILES)
+            throw new InvalidSmilesException("Reactions can not be depicted in a grid");
+          IAtomContainer mol = prepareMolecule(input, opts, highlight, entrySample);
+          if (job != null)
+            job.completed(true);
+          return mol;
+        } catch (CDKException | BudgetExceededException e) {
+          if (job != null)
+            job.completed(false);
+          IAtomContainer empty = builder.newAtomContainer();
+          empty.setTitle(titleOf(line));
+          return empty;
+        } finally {
+          endBudget();
+        }
+      }, renderExecutor));
+    }
+
+    List<IAtomContainer> mols = new ArrayList<>();
+    Set<IChemObject> highlight = new HashSet<>();
+    // stage times are summed over the entries
+    for (int i = 0; i < futures.size(); i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        for (CompletableFuture<IAtomContainer> future : futures)
+          future.cancel(false);
+        throw new BudgetExceededException("Depiction cancelled");
+      }
+      mols.add(futures.get(i).join());
+      highlight.addAll(highlights.get(i));
+      sample.add(samples.get(i));
+    }
+
+    // the image is allocated in full before it is encoded
+    if (!Depiction.SVG_FMT.equals(fmtlc) && !Depiction.PDF_FMT.equals(fmtlc)) {
+      double pixels = estimateGridPixels(mols, nrow, ncol, opts);
+      if (pixels > maxGridPixels)
+        throw new BudgetExceededException(String.format("Grid of about %.0f pixels is larger than the max of %d, use SVG or fewer molecules",
+                                                        pixels, maxGridPixels));
+    }
+
+    DepictionGenerator myGenerator = configureGenerator(style, opts, false)
+            .withHighlight(highlight, highlightColor(style));
+    long t0 = sample.start();
+    Depiction depiction = myGenerator.depict(mols, nrow, ncol);
+    sample.stop(DepictMetrics.Stage.RENDER, t0);
+    return depiction;
+  }
+
+  /**
+   * Estimate the number of pixels of a raster grid. Each cell fits the
+   * largest molecule, its extent in bond lengths (plus a bond length of
+   * padding on each side) scaled to the raster bond length and zoom.
+   */
+  private static double estimateGridPixels(List<IAtomContainer> mols,
+                                           int nrow,
+                                           int ncol,
+                                           DepictOptions opts) {
+    double width  = opts.getDouble(Param.WIDTH);
+    double height = opts.getDouble(Param.HEIGHT);
+    if (width > 0 && height > 0)
+      return width * height;
+    double cellw = 0, cellh = 0;
+    for (IAtomContainer mol : mols) {
+      if (mol.getAtomCount() == 0 || !GeometryUtil.has2DCoordinates(mol))
+        continue;
+      double bondLength = mol.getBondCount() > 0 ? GeometryUtil.getBondLengthMedian(mol) : 0;
+      if (!(bondLength > 0))
+        bondLength = 1.5;
+      double[] minmax = GeometryUtil.getMinMax(mol);
+      cellw = Math.max(cellw, (minmax[2] - minmax[0]) / bondLength);
+      cellh = Math.max(cellh, (minmax[3] - minmax[1]) / bondLength);
+    }
+    double scale = RASTER_BOND_LENGTH * opts.getDouble(Param.ZOOM);
+    return (cellw + 2) * scale * ncol * (cellh + 2) * scale * nrow;
+  }
+
+  /**
+   * Job entry point, for workloads too large to depict within a request
+   * (e.g. an SD file of millions of records, or a grid of many thousands of
+   * molecules). The request body is spilled to disk and the job queued to
+   * run in the background, the response (202) is the status of the job.
+   * Progress is polled from depict/job/{id} and the result fetched from
+   * depict/job/{id}/result once done. The job types are:
+   * <ul>
+   *   <li>sdf - an SD file (optionally gzipped) depicted into a ZIP archive, see {@link #depictSdf}</li>
+   *   <li>grid - newline separated SMILES depicted into a ZIP archive of grid images, a page per
+   *       nrow x ncol molecules (or cdkdepict.jobs.grid.page if not given), see {@link #depictGrid}</li>
+   * </ul>
+   *
+   * @param body  the input of the job
+   * @param fmt   output format
+   * @param style preset style
+   * @param type  the type of job, 'sdf' (default) or 'grid'
+   * @param title sdf: data field to name the entries by
+   * @param nrow  grid: number of rows (optional)
+   * @param ncol  grid: number of columns (optional)
+   * @param extra depiction options
+   * @return the status of the job
+   * @throws IOException the input could not be spilled to disk
+   */
+  @RequestMapping(value = "depict/{style}/{fmt}/job", method = RequestMethod.POST)
+  public ResponseEntity<String> submitJob(InputStream body,
+                                          @PathVariable("fmt") String fmt,
+                                          @PathVariable("style") String style,
+                                          @RequestParam(value = "type", defaultValue = "sdf") String type,
+                                          @RequestParam(value = "title", required = false) String title,
+                                          @RequestParam(value = "nrow", defaultValue = "0") int nrow,
+                                          @RequestParam(value = "ncol", defaultValue = "0") int ncol,
+                                          @RequestParam Map<String, String> extra) throws IOException {
+    final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    if (!isSupportedFormat(fmtlc))
+      throw new IllegalArgumentException("Unsupported format.");
+    final DepictOptions opts = DepictOptions.of(extra);
+    // check the shared options before queueing the job
+    configureGenerator(style, opts, false);
+
+    DepictJobs.Job job;
+    DepictJobs.Task task;
+    switch (type.toLowerCase(Locale.ROOT)) {
+      case "sdf":
+        job = jobs.create(body, "application/zip", "zip");
+        task = (j, out) -> runSdfJob(j, out, fmtlc, style, opts, title);
+        break;
+      case "grid":
+        job = jobs.create(body, "application/zip", "zip");
+        task = (j, out) -> runGridJob(j, out, fmtlc, style, opts, nrow, ncol);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported job type: " + type);
+    }
+    jobs.submit(job, task);
+    return new ResponseEntity<>(job.toJson(), responseHeaders("application/json"), HttpStatus.ACCEPTED);
+  }
+
+  private void runSdfJob(DepictJobs.Job job,
+                         OutputStream out,
+                         String fmtlc,
+                         String style,
+                         DepictOptions opts,
+                         String title) throws IOException {
+    // count the records first so progress can be reported against the total
+    long total = 0;
+    try (InputStream in = Files.newInputStream(job.input());
+         Reader rdr = openSdf(in)) {
+      SdfRecordReader sdfr = new SdfRecordReader(rdr, null, maxInputSize);
+      while (sdfr.next() != null)
+        total++;
+    }
+    job.setTotal(total);
+    try (InputStream in = Files.newInputStream(job.input());
+         Reader rdr = openSdf(in)) {
+      writeSdfZip(new SdfRecordReader(rdr, title, maxInputSize), fmtlc, style, opts, out, job);
+    }
+  }
+
+  private void runGridJob(DepictJobs.Job job,
+                          OutputStream out,
+                          String fmtlc,
+                          String style,
+                          DepictOptions opts,
+                          int nrow,
+                          int ncol) throws IOException, CDKException {
+    // count the entries first so progress can be reported against the total
+    long total = 0;
+    try (BufferedReader rdr = Files.newBufferedReader(job.input(), StandardCharsets.UTF_8)) {
+      for (String line; (line = rdr.readLine()) != null; ) {
+        if (!line.trim().isEmpty() && ++total > maxJobGridSize)
+          throw new IllegalArgumentException("Too many molecules in grid, the maximum is " + maxJobGridSize);
+      }
+    }
+    if (total == 0)
+      throw new IllegalArgumentException("No molecules provided.");
+    job.setTotal(total);
+
+    // each page is depicted and written to the archive in turn, so only one
+    // page is held in memory
+    final int pageSize = nrow > 0 && ncol > 0 ? nrow * ncol : jobGridPageSize;
+    try (BufferedReader rdr = Files.newBufferedReader(job.input(), StandardCharsets.UTF_8);
+         ZipOutputStream zout = new ZipOutputStream(out)) {
+      if (!DepictResult.isCompressible(contentType(fmtlc)))
+        zout.setLevel(Deflater.NO_COMPRESSION);
+      List<String> page = new ArrayList<>();
+      int number = 0;
+      for (String line; (line = rdr.readLine()) != null; ) {
+        line = line.trim();
+        if (line.isEmpty())
+          continue;
+        page.add(line);
+        if (page.size() == pageSize) {
+          writeGridPage(zout, ++number, page, fmtlc, style, opts, nrow, ncol, job);
+          page.clear();
+        }
+      }
+      if (!page.isEmpty())
+        writeGridPage(zout, ++number, page, fmtlc, style, opts, nrow, ncol, job);
+    }
+  }
+
+  private void writeGridPage(ZipOutputStream zout,
+                             int number,
+                             List<String> lines,
+                             String fmtlc,
+                             String style,
+                             DepictOptions opts,
+                             int nrow,
+                             int ncol,
+                             DepictJobs.Job job) throws IOException, CDKException {
+    DepictMetrics.Sample sample = new DepictMetrics.Sample();
+    Depiction depiction = createGrid(lines, fmtlc, style, opts, nrow, ncol, sample, job);
+    // encoded straight into the archive, a page is not held in memory twice
+    long t0 = sample.start();
+    zout.putNextEntry(new ZipEntry(String.format("page-%05d.%s", number, fileExtension(fmtlc))));
+    CountingOutputStream cout = new CountingOutputStream(zout);
+    writeTo(depiction, fmtlc, opts, cout);
+    cout.flush();
+    zout.closeEntry();
+    sample.stop(DepictMetrics.Stage.ENCODE, t0);
+    metrics.record(sample, fmtlc, style, cout.count);
+  }
+
+  /**
+   * The status of a job: its state, the number of entries done (and
+   * failed), the total if known and an estimate of the time remaining.
+   *
+   * @param id the job id
+   * @return the status of the job, 404 if unknown or expired
+   */
+  @RequestMapping(value = "depict/job/{id}", method = RequestMethod.GET)
+  public ResponseEntity<String> jobStatus(@PathVariable("id") String id) {
+    DepictJobs.Job job = jobs.get(id);
+    if (job == null)
+      return jobNotFound(id);
+    return new ResponseEntity<>(job.toJson(), responseHeaders("application/json"), HttpStatus.OK);
+  }
+
+  /**
+   * The result of a job, read from disk.
+   *
+   * @param id the job id
+   * @return the result, 409 (with the status) if the job is not done or 404
+   *         if unknown or expired
+   */
+  @RequestMapping(value = "depict/job/{id}/result", method = RequestMethod.GET)
+  public ResponseEntity<?> jobResult(@PathVariable("id") String id) {
+    DepictJobs.Job job = jobs.get(id);
+    if (job == null)
+      return jobNotFound(id);
+    if (job.state() != DepictJobs.State.DONE)
+      return new ResponseEntity<>(job.toJson(), responseHeaders("application/json"), HttpStatus.CONFLICT);
+    HttpHeaders headers = responseHeaders(job.contentType());
+    headers.setContentDisposition(ContentDisposition.builder("attachment")
+                                                    .filename(job.fileName())
+                                                    .build());
+    return new ResponseEntity<>(new FileSystemResource(job.result()), headers, HttpStatus.OK);
+  }
+
+  /**
+   * Remove a job, cancelling it if it has not finished.
+   *
+   * @param id the job id
+   * @return 204, or 404 if unknown or expired
+   */
+  @RequestMapping(value = "depict/job/{id}", method = RequestMethod.DELETE)
+  public ResponseEntity<String> removeJob(@PathVariable("id") String id) {
+    if (!jobs.remove(id))
+      return jobNotFound(id);
+    return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+  }
+
+  private static ResponseEntity<String> jobNotFound(String id) {
+    StringBuilder sb = new StringBuilder("{\"error\":");
+    Json.quote(sb, "Unknown job: " + id);
+    sb.append('}');
+    return new ResponseEntity<>(sb.toString(), responseHeaders("application/json"), HttpStatus.NOT_FOUND);
+  }
+
+  private static boolean isSupportedFormat(String fmtlc) {
+    switch (fmtlc) {
+      case Depiction.SVG_FMT:
+      case Depiction.PDF_FMT:
+      case Depiction.PNG_FMT:
+      case PngEncoder.PNG8_FMT:
+      case Depiction.JPG_FMT:
+      case Depiction.GIF_FMT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Extract the title from a line of SMILES/CXSMILES input, this is the text
+   * following the SMILES (and CXSMILES layer) if present.
+   */
+  private static String titleOf(String line) {
+    int i = 0;
+    while (i < line.length() && !Character.isWhitespace(line.charAt(i)))
+      i++;
+    String rest = line.substring(i).trim();
+    if (rest.startsWith("|")) {
+      int j = rest.indexOf('|', 1);
+      rest = j < 0 ? "" : rest.substring(j + 1).trim();
+    }
+    return rest;
+  }
+
+  private static String errorMessage(Throwable ex) {
+    String mesg = ex.getMessage();
+    return mesg != null ? mesg : ex.getClass().getSimpleName();
+  }
+
+  /**
+   * Statistics on the depiction cache, useful for sizing it.
+   *
+   * @return cache statistics as JSON
+   */
+  @RequestMapping(value = "depict/stats", produces = "application/json")
+  @ResponseBody
+  public String stats() {
+    String smarts = "\"smarts\":{" +
+                    "\"hits\":" + smartsCache.hitCount() +
+                    ",\"misses\":" + smartsCache.missCount() +
+                    ",\"evictions\":" + smartsCache.evictionCount() +
+                    ",\"entries\":" + smartsCache.size() +
+                    ",\"compileMillis\":" + smartsCompileNanos.sum() / 1000000 +
+                    "}";
+    String raster = "\"raster\":{" +
+                    "\"buffers\":" + rasterBuffers.acquiredCount() +
+                    ",\"reusedBytes\":" + rasterBuffers.reusedBytes() +
+                    ",\"allocatedBytes\":" + rasterBuffers.allocatedBytes() +
+                    "}";
+    String abbr = "\"abbr\":{" +
+                  "\"applied\":" + (groupAbbr.applied() + agentAbbr.applied()) +
+                  ",\"skipped\":" + (groupAbbr.skipped() + agentAbbr.skipped()) +
+                  "}";
+    String warmupStats = "\"warmup\":" + warmup.toJson();
+    String jobStats = "\"jobs\":{" +
+                      "\"active\":" + jobs.activeCount() +
+                      "}";
+    return "{\"cache\":" + cacheStats(cache) +
+           ",\"layout\":" + cacheStats(layoutCache) +
+           "," + smarts +
+           "," + abbr +
+           "," + raster +
+           "," + jobStats +
+           "," + warmupStats + "}";
+  }
+
+  private static String cacheStats(LruCache<?, ?> cache) {
+    if (cache == null)
+      return "null";
+    return "{" +
+           "\"hits\":" + cache.hitCount() +
+           ",\"misses\":" + cache.missCount() +
+           ",\"evictions\":" + cache.evictionCount() +
+           ",\"entries\":" + cache.size() +
+           ",\"bytes\":" + cache.weight() +
+           ",\"maxBytes\":" + cache.maxWeight() +
+           "}";
+  }
+
+  /**
+   * Per-stage latency and input/output size histograms, and the depiction
+   * cache counters, in the Prometheus text format for scraping.
+   *
+   * @return the metrics
+   */
+  @RequestMapping(value = "depict/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+  @ResponseBody
+  public String metrics() {
+    StringBuilder sb = new StringBuilder();
+    metrics.write(sb);
+    if (cache != null) {
+      sb.append("# TYPE cdkdepict_cache_hits_total counter\n")
+        .append("cdkdepict_cache_hits_total ").append(cache.hitCount()).append('\n');
+      sb.append("# TYPE cdkdepict_cache_misses_total counter\n")
+        .append("cdkdepict_cache_misses_total ").append(cache.missCount()).append('\n');
+      sb.append("# TYPE cdkdepict_cache_evictions_total counter\n")
+        .append("cdkdepict_cache_evictions_total ").append(cache.evictionCount()).append('\n');
+      sb.append("# TYPE cdkdepict_cache_bytes gauge\n")
+        .append("cdkdepict_cache_bytes ").append(cache.weight()).append('\n');
+    }
+    if (layoutCache != null) {
+      sb.append("# TYPE cdkdepict_layout_cache_hits_total counter\n")
+        .append("cdkdepict_layout_cache_hits_total ").append(layoutCache.hitCount()).append('\n');
+      sb.append("# TYPE cdkdepict_layout_cache_misses_total counter\n")
+        .append("cdkdepict_layout_cache_misses_total ").append(layoutCache.missCount()).append('\n');
+    }
+    sb.append("# TYPE cdkdepict_smarts_cache_hits_total counter\n")
+      .append("cdkdepict_smarts_cache_hits_total ").append(smartsCache.hitCount()).append('\n');
+    sb.append("# TYPE cdkdepict_smarts_cache_misses_total counter\n")
+      .append("cdkdepict_smarts_cache_misses_total ").append(smartsCache.missCount()).append('\n');
+    sb.append("# TYPE cdkdepict_smarts_compile_seconds_total counter\n")
+      .append("cdkdepict_smarts_compile_seconds_total ").append(smartsCompileNanos.sum() / 1e9).append('\n');
+    sb.append("# TYPE cdkdepict_raster_buffers_acquired_total counter\n")
+      .append("cdkdepict_raster_buffers_acquired_total ").append(rasterBuffers.acquiredCount()).append('\n');
+    sb.append("# HELP cdkdepict_raster_buffer_reused_bytes_total Encoded raster bytes written into reused buffer capacity.\n")
+      .append("# TYPE cdkdepict_raster_buffer_reused_bytes_total counter\n")
+      .append("cdkdepict_raster_buffer_reused_bytes_total ").append(rasterBuffers.reusedBytes()).append('\n');
+    sb.append("# HELP cdkdepict_raster_buffer_allocated_bytes_total Raster buffer capacity that had to be allocated.\n")
+      .append("# TYPE cdkdepict_raster_buffer_allocated_bytes_total counter\n")
+      .append("cdkdepict_raster_buffer_allocated_bytes_total ").append(rasterBuffers.allocatedBytes()).append('\n');
+    sb.append("# TYPE cdkdepict_abbr_applied_total counter\n")
+      .append("cdkdepict_abbr_applied_total ").append(groupAbbr.applied() + agentAbbr.applied()).append('\n');
+    sb.append("# TYPE cdkdepict_abbr_skipped_total counter\n")
+      .append("cdkdepict_abbr_skipped_total ").append(groupAbbr.skipped() + agentAbbr.skipped()).append('\n');
+    return sb.toString();
+  }
+
+  /**
+   * Build the cache key for a depiction request. The options are in their
+   * canonical form (options set to their default value are dropped), and
+   * the input is included as a digest.
+   */
+  private static String cacheKey(DepictInput input, String fmt, String style, DepictOptions opts) {
+    StringBuilder sb = new StringBuilder();
+    DepictOptions.escape(sb, style);
+    return sb.append('/').append(fmt.toLowerCase(Locale.ROOT))
+             .append('?').append(opts.canonical())
+             .append('#').append(input.digest())
+             .toString();
+  }
+
+  private DepictResult render(DepictInput input,
+                              String fmt,
+                              String style,
+                              DepictOptions opts) throws CDKException, IOException {
+    DepictMetrics.Sample sample = new DepictMetrics.Sample();
+    Depiction depiction = createDepictionInBudget(input, style, opts, sample);
+    return encode(depiction, fmt, opts, sample, style);
+  }
+
+  /**
+   * Create a depiction on the depict executor, waiting for it to complete.
+   *
+   * @see #submitDepiction(DepictInput, String, DepictOptions, DepictMetrics.Sample)
+   */
+  private Depiction createDepictionInBudget(DepictInput input,
+                                            String style,
+                                            DepictOptions opts,
+                                            DepictMetrics.Sample sample) throws CDKException {
+    try {
+      return submitDepiction(input, style, opts, sample).join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CDKException)
+        throw (CDKException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Create a depiction on the depict executor.
+   *
+   * @see #submitInBudget(Callable)
+   * @see #createDepiction(DepictInput, String, DepictOptions, DepictMetrics.Sample)
+   */
+  private CompletableFuture<Depiction> submitDepiction(DepictInput input,
+                                                       String style,
+                                                       DepictOptions opts,
+                                                       DepictMetrics.Sample sample) {
+    return submitInBudget(() -> createDepiction(input, style, opts, sample));
+  }
+
+  /**
+   * Run the work of a depiction on the depict executor. If too many
+   * requests are already waiting the request is rejected
+   * (RejectedExecutionException), if the time or CPU budget is exceeded
+   * the future completes with a {@link BudgetExceededException}.
+   *
+   * @param work the depiction (and encoding)
+   * @return the result, when it is ready
+   */
+  private <T> CompletableFuture<T> submitInBudget(Callable<T> work) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    // time spent waiting in the queue counts towards the budget
+    final long submitted = System.nanoTime();
+    Future<?> task = depictExecutor.submit(() -> {
+      startBudget(submitted);
+      try {
+        result.complete(work.call());
+      } catch (Exception | Error e) {
+        result.completeExceptionally(e);
+      } finally {
+        endBudget();
+      }
+    });
+    if (timeBudgetMillis <= 0)
+      return result;
+    ScheduledFuture<?> timeout = timeoutExecutor.schedule(() -> {
+      BudgetExceededException ex = new BudgetExceededException("Depiction took longer than " + timeBudgetMillis + "ms");
+      // the depiction stops at the next budget check
+      if (result.completeExceptionally(ex))
+        task.cancel(true);
+    }, timeBudgetMillis, TimeUnit.MILLISECONDS);
+    result.whenComplete((value, ex) -> timeout.cancel(false));
+    return result;
+  }
+
+  /**
+   * Start the time and CPU budget of a depiction on this thread, this must
+   * be followed by {@link #endBudget()}.
+   *
+   * @param start the (nanoTime) time the depiction started
+   */
+  void startBudget(long start) {
+    if (timeBudgetMillis > 0)
+      timeDeadline.set(start + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis));
+    if (cpuBudgetNanos > 0)
+      cpuDeadline.set(threadMx.getCurrentThreadCpuTime() + cpuBudgetNanos);
+  }
+
+  void endBudget() {
+    timeDeadline.remove();
+    cpuDeadline.remove();
+  }
+
+  /**
+   * Check the depiction on this thread is still within budget, it may have
+   * been cancelled or used too much wall-clock or CPU time. This is checked
+   * between the stages of depiction and while matching SMARTS.
+   *
+   * @throws BudgetExceededException the depiction is out of budget
+   */
+  private void checkBudget() {
+    if (Thread.currentThread().isInterrupted())
+      throw new BudgetExceededException("Depiction cancelled");
+    Long deadline = timeDeadline.get();
+    if (deadline != null && System.nanoTime() - deadline > 0)
+      throw new BudgetExceededException("Depiction took longer than " + timeBudgetMillis + "ms");
+    deadline = cpuDeadline.get();
+    if (deadline != null && threadMx.getCurrentThreadCpuTime() > deadline)
+      throw new BudgetExceededException("Depiction used more than " + cpuBudgetNanos / 1000000 + "ms of CPU time");
+  }
+
+  /**
+   * Lay out a molecule or reaction within the budget of the depiction on
+   * this thread. Structure diagram generation can not be interrupted, so
+   * with a budget the layout runs on the layout pool and this thread waits
+   * for at most the remaining time (or CPU time, as an upper bound of the
+   * CPU the layout can use) before the depiction fails. A layout that is
+   * abandoned runs to completion on the pool but the result is discarded.
+   * If every thread of the pool is held by an abandoned layout, new layouts
+   * are rejected (RejectedExecutionException) rather than queued to wait
+   * out their budget.
+   *
+   * @param layout the layout to run
+   * @throws CDKException the layout failed
+   * @throws BudgetExceededException the depiction is out of budget
+   */
+  void layoutInBudget(LayoutTask layout) throws CDKException {
+    Long timeLimit = timeDeadline.get();
+    Long cpuLimit  = cpuDeadline.get();
+    if (timeLimit == null && cpuLimit == null) {
+      layout.run();
+      return;
+    }
+    checkBudget();
+    long remaining = Long.MAX_VALUE;
+    if (timeLimit != null)
+      remaining = timeLimit - System.nanoTime();
+    if (cpuLimit != null)
+      remaining = Math.min(remaining, cpuLimit - threadMx.getCurrentThreadCpuTime());
+    if (abandonedLayouts.get() >= layoutThreads)
+      throw new RejectedExecutionException("Too many layouts in progress");
+    AtomicInteger state = new AtomicInteger(LAYOUT_QUEUED);
+    Future<?> future = layoutExecutor.submit(() -> {
+      if (!state.compareAndSet(LAYOUT_QUEUED, LAYOUT_RUNNING))
+        return null;
+      try {
+        layout.run();
+      } finally {
+        if (!state.compareAndSet(LAYOUT_RUNNING, LAYOUT_DONE))
+          abandonedLayouts.decrementAndGet();
+      }
+      return null;
+    });
+    try {
+      future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      abandonLayout(future, state);
+      throw new BudgetExceededException("Layout did not complete within the budget of the depiction");
+    } catch (InterruptedException e) {
+      abandonLayout(future, state);
+      Thread.currentThread().interrupt();
+      throw new BudgetExceededException("Depiction cancelled");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CDKException)
+        throw (CDKException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
     }
-    return param.defaultValue != null && (boolean) param.defaultValue;
   }
 
-  static Color getColor(String color) {
-    int vals[] = new int[]{0, 0, 0, 255}; // r,g,b,a
-    int pos = 0;
-    int beg = 0;
-    if (color.startsWith("0x"))
-      beg = 2;
-    else if (color.startsWith("#"))
-      beg = 1;
-    for (; pos < 4 && beg + 1 < color.length(); beg += 2) {
-      vals[pos++] = Integer.parseInt(color.substring(beg, beg + 2), 16);
-    }
-    return new Color(vals[0], vals[1], vals[2], vals[3]);
+  /**
+   * Abandon a layout, a layout that has started keeps its thread until it
+   * completes and is counted until then.
+   */
+  private void abandonLayout(Future<?> future, AtomicInteger state) {
+    future.cancel(true);
+    if (state.getAndSet(LAYOUT_ABANDONED) == LAYOUT_RUNNING)
+      abandonedLayouts.incrementAndGet();
   }
 
-  private HydrogenDisplayType getHydrogenDisplay(Map<String, String> params) {
-    if (!getBoolean(Param.SUPRESSH, params)) {
-      return HydrogenDisplayType.Provided;
-    } else {
-      return HydrogenDisplayType.parse(getString(Param.HDISPLAY, params));
-    }
+  @FunctionalInterface
+  interface LayoutTask {
+    void run() throws CDKException;
   }
 
   /**
-   * Restful entry point.
+   * Get a depiction generator configured for the style preset, rendering
+   * and annotation options of a request, these settings do not depend on the
+   * input. Generators are immutable and kept for reuse, only the highlight
+   * needs to be added for each request.
    *
-   * @param smi   SMILES to depict
-   * @param fmt   output format
-   * @param style preset style COW (Color-on-white), COB, BOW, COW
-   * @return the depicted structure
-   * @throws CDKException something not okay with input
-   * @throws IOException  problem reading/writing request
+   * @param style preset style
+   * @param opts  request options
+   * @param isRxn depicting reaction(s)
+   * @return the configured generator
    */
-  @RequestMapping("depict/{style}/{fmt}")
-  public HttpEntity<?> depict(@RequestParam("smi") String smi,
-                              @PathVariable("fmt") String fmt,
-                              @PathVariable("style") String style,
-                              @RequestParam Map<String, String> extra) throws
-          CDKException,
-          IOException {
-
-    String abbr = getString(Param.ABBREVIATE, extra);
-    String annotate = getString(Param.ANNOTATE, extra);
-
-    HydrogenDisplayType hDisplayType = getHydrogenDisplay(extra);
+  DepictionGenerator configureGenerator(String style, DepictOptions opts, boolean isRxn) {
+    // the free text values are escaped so they can not run into the next
+    StringBuilder sb = new StringBuilder();
+    DepictOptions.escape(sb, style);
+    sb.append('|').append(opts.getDouble(Param.WIDTH))
+      .append('|').append(opts.getDouble(Param.HEIGHT))
+      .append('|').append(opts.getDouble(Param.ZOOM))
+      .append('|').append(opts.getDouble(Param.RATIO))
+      .append('|');
+    DepictOptions.escape(sb, opts.getString(Param.BGCOLOR)).append('|');
+    DepictOptions.escape(sb, opts.getString(Param.FGCOLOR)).append('|');
+    DepictOptions.escape(sb, opts.getString(Param.ANNOTATE));
+    String key = sb.toString() +
+                 '|' + opts.getBoolean(Param.ALIGNRXNMAP) +
+                 '|' + opts.getBoolean(Param.ANON) +
+                 '|' + opts.getBoolean(Param.DONUTS) +
+                 '|' + opts.getBoolean(Param.SHOWTITLE) +
+                 '|' + isRxn;
+    DepictionGenerator myGenerator = generators.get(key);
+    if (myGenerator == null) {
+      myGenerator = withDecorations(newGenerator(style, opts), style, opts, isRxn);
+      generators.put(key, myGenerator);
+    }
+    return myGenerator;
+  }
 
+  private DepictionGenerator newGenerator(String style, DepictOptions opts) {
     // Note: DepictionGenerator is immutable
-    DepictionGenerator myGenerator = generator.withSize(getDouble(Param.WIDTH, extra),
-                                                        getDouble(Param.HEIGHT, extra))
-                                              .withZoom(getDouble(Param.ZOOM, extra));
+    DepictionGenerator myGenerator = generator.withSize(opts.getDouble(Param.WIDTH),
+                                                        opts.getDouble(Param.HEIGHT))
+                                              .withZoom(opts.getDouble(Param.ZOOM));
 
     // Configure style preset
     myGenerator = withStyle(myGenerator, style);
-    myGenerator = withBgFgColors(extra, myGenerator);
+    myGenerator = withBgFgColors(opts, myGenerator);
     myGenerator = myGenerator.withAnnotationScale(0.7)
                              .withAnnotationColor(Color.RED);
-    myGenerator = myGenerator.withParam(StandardGenerator.StrokeRatio.class, getDouble(Param.RATIO, extra));
+    myGenerator = myGenerator.withParam(StandardGenerator.StrokeRatio.class, opts.getDouble(Param.RATIO));
 
 
     // align rxn maps
-    myGenerator = myGenerator.withMappedRxnAlign(getBoolean(Param.ALIGNRXNMAP, extra));
+    myGenerator = myGenerator.withMappedRxnAlign(opts.getBoolean(Param.ALIGNRXNMAP));
 
     // Improved depiction of anatomised graphs, e.g. ***1*****1**
-    if (getBoolean(Param.ANON, extra)) {
+    if (opts.getBoolean(Param.ANON)) {
       myGenerator = myGenerator.withParam(Visibility.class,
                                           new SymbolVisibility() {
                                             @Override
@@ -304,100 +1715,339 @@ public class DepictController {
                                           });
     }
 
-    boolean doAromaticity = false;
-    if (getBoolean(Param.DONUTS, extra)) {
-      doAromaticity = getString(Param.SMARTSQUERY, extra).isEmpty();
+    if (opts.getBoolean(Param.DONUTS))
       myGenerator = myGenerator.withAromaticDisplay();
-    }
 
-    final boolean isRxn = !smi.contains("V2000") && !smi.contains("V3000") && isRxnSmi(smi);
-    IReactionSet rxns = null;
-    IAtomContainer mol = null;
-    List<IAtomContainer> mols = null;
+    return myGenerator;
+  }
+
+  /**
+   * Load, prepare and lay out the input then create its depiction.
+   *
+   * @param smi    SMILES/CXSMILES or molfile to depict
+   * @param style  preset style
+   * @param opts   request options
+   * @param sample stage timings are recorded here
+   * @return the depiction
+   * @throws CDKException something not okay with input
+   */
+  Depiction createDepiction(String smi,
+                            String style,
+                            DepictOptions opts,
+                            DepictMetrics.Sample sample) throws CDKException {
+    return createDepiction(DepictInput.of(smi), style, opts, sample);
+  }
 
+  /**
+   * Load, prepare and lay out the input then create its depiction.
+   *
+   * @param input  structure to depict
+   * @param style  preset style
+   * @param opts   request options
+   * @param sample stage timings are recorded here
+   * @return the depiction
+   * @throws CDKException something not okay with input
+   */
+  Depiction createDepiction(DepictInput input,
+                            String style,
+                            DepictOptions opts,
+                            DepictMetrics.Sample sample) throws CDKException {
+    final boolean isRxn = input.format() == DepictInput.Format.REACTION_SMILES;
     Set<IChemObject> highlight = new HashSet<>();
+    Depiction depiction;
+    if (isRxn) {
+      IReactionSet rxns = prepareReactions(input.text(), opts, highlight, sample);
+      DepictionGenerator myGenerator = configureGenerator(style, opts, true)
+              .withHighlight(highlight, highlightColor(style));
+      long t0 = sample.start();
+      depiction = myGenerator.depict(rxns);
+      sample.stop(DepictMetrics.Stage.RENDER, t0);
+    } else {
+      IAtomContainer mol = prepareMolecule(input, opts, highlight, sample);
+      DepictionGenerator myGenerator = configureGenerator(style, opts, false)
+              .withHighlight(highlight, highlightColor(style));
+      long t0 = sample.start();
+      depiction = myGenerator.depict(mol);
+      sample.stop(DepictMetrics.Stage.RENDER, t0);
+    }
+    return depiction;
+  }
+
+  /**
+   * Load a reaction (set) and prepare it for depiction, this includes
+   * abbreviation, annotation, highlighting and layout.
+   *
+   * @param smi       reaction SMILES/CXSMILES
+   * @param opts      request options
+   * @param highlight atoms and bonds to highlight are added to this set
+   * @param sample    stage timings are recorded here
+   * @return the prepared reactions
+   * @throws CDKException something not okay with input
+   */
+  IReactionSet prepareReactions(String smi,
+                                DepictOptions opts,
+                                Set<IChemObject> highlight,
+                                DepictMetrics.Sample sample) throws CDKException {
+
+    long t0 = sample.start();
+    IReactionSet rxns = loadRxns(smi);
+    sample.stop(DepictMetrics.Stage.PARSE, t0);
+    return prepareReactions(rxns, opts, highlight, sample);
+  }
+
+  /**
+   * Prepare a loaded reaction (set) for depiction, see
+   * {@link #prepareReactions(String, DepictOptions, Set, DepictMetrics.Sample)}.
+   */
+  IReactionSet prepareReactions(IReactionSet rxns,
+                                DepictOptions opts,
+                                Set<IChemObject> highlight,
+                                DepictMetrics.Sample sample) throws CDKException {
+    checkBudget();
+    sample.kind = "rxn";
+    for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
+      sample.numAtoms += part.getAtomCount();
+
+    IReaction.Direction arrow = opts.getEnum(Param.ARROW, IReaction.Direction.class);
+    for (IReaction rxn : rxns.reactions()) {
+      if (rxn.getDirection() == IReaction.Direction.FORWARD)
+        rxn.setDirection(arrow);
+    }
+
+    String abbr = opts.getString(Param.ABBREVIATE);
+    String annotate = opts.getString(Param.ANNOTATE);
+
+    HydrogenDisplayType hDisplayType = getHydrogenDisplay(opts);
+
+    boolean doAromaticity = opts.getBoolean(Param.DONUTS) &&
+                            opts.getString(Param.SMARTSQUERY).isEmpty();
 
     StructureDiagramGenerator sdg = new StructureDiagramGenerator();
-    sdg.setAlignMappedReaction(getBoolean(Param.ALIGNRXNMAP, extra));
-    MolOp.DativeBond doDative = getParam(Param.DATIVE, extra, this::parseDativeParam);
+    sdg.setAlignMappedReaction(opts.getBoolean(Param.ALIGNRXNMAP));
+    MolOp.DativeBond doDative = opts.getEnum(Param.DATIVE, MolOp.DativeBond.class);
 
-    if (isRxn) {
-      try {
-        rxns = smipar.parseReactionSetSmiles(smi);
-      } catch (CDKException ex) {
-        SmilesParser smipar2 = new SmilesParser(builder);
-        smipar2.kekulise(false);
-        rxns = smipar2.parseReactionSetSmiles(smi);
+    // the steps of a multi-step reaction share the intermediates (and may
+    // share agents) which are modified here, so they are prepared in turn
+    long t0;
+    for (IReaction rxn : rxns.reactions()) {
+
+      checkBudget();
+      if (doAromaticity) {
+        t0 = sample.start();
+        for (IAtomContainer component : rxn) {
+            Cycles.markRingAtomsAndBonds(component);
+            Aromaticity.apply(Aromaticity.Model.Daylight, component);
+        }
+        sample.stop(DepictMetrics.Stage.AROMATICITY, t0);
       }
 
-      for (IReaction rxn : rxns.reactions()) {
-        if (rxn.getDirection() == IReaction.Direction.FORWARD)
-          rxn.setDirection(getParam(Param.ARROW, extra, this::parseArrowParam));
+      t0 = sample.start();
+      Set<IChemObject> hits = findHits(opts.getString(Param.SMARTSQUERY),
+                                       rxn,
+                                       null,
+                                       opts.getInt(Param.SMARTSHITLIM));
+      highlight.addAll(hits);
+      sample.stop(DepictMetrics.Stage.SMARTS, t0);
+      t0 = sample.start();
+      abbreviate(rxn, abbr, highlight);
+      sample.stop(DepictMetrics.Stage.ABBREVIATE, t0);
+      checkBudget();
+      for (IAtomContainer component : rxn.getReactants().atomContainers()) {
+        setHydrogenDisplay(component, hDisplayType);
+        MolOp.perceiveRadicals(component);
+        MolOp.perceiveDativeBonds(component, doDative);
+      }
+      for (IAtomContainer component : rxn.getProducts().atomContainers()) {
+        setHydrogenDisplay(component, hDisplayType);
+        MolOp.perceiveRadicals(component);
+        MolOp.perceiveDativeBonds(component, doDative);
       }
+      for (IAtomContainer component : rxn.getAgents().atomContainers()) {
+        setHydrogenDisplay(component, hDisplayType);
+        MolOp.perceiveRadicals(component);
+        MolOp.perceiveDativeBonds(component, doDative);
+      }
+      if (!GeometryUtil.has2DCoordinates(rxn)) {
+        t0 = sample.start();
+        layoutInBudget(() -> sdg.generateCoordinates(rxn));
+        sample.stop(DepictMetrics.Stage.LAYOUT, t0);
+      }
+    }
+    checkBudget();
 
-      highlight = new HashSet<>();
+    if ("cip".equals(annotate)) {
+      t0 = sample.start();
       for (IReaction rxn : rxns.reactions()) {
-
-        if (doAromaticity) {
-          for (IAtomContainer component : rxn) {
-              Cycles.markRingAtomsAndBonds(component);
-              Aromaticity.apply(Aromaticity.Model.Daylight, component);
-          }
+        for (IAtomContainer part : ReactionManipulator.getAllAtomContainers(rxn)) {
+          annotateCip(part);
         }
+      }
+      sample.stop(DepictMetrics.Stage.CIP, t0);
+    }
 
-        Set<IChemObject> hits = findHits(getString(Param.SMARTSQUERY, extra),
-                                         rxn,
-                                         null,
-                                         getInt(Param.SMARTSHITLIM, extra));
-        highlight.addAll(hits);
-        abbreviate(rxn, abbr, highlight);
-        for (IAtomContainer component : rxn.getReactants().atomContainers()) {
-          setHydrogenDisplay(component, hDisplayType);
-          MolOp.perceiveRadicals(component);
-          MolOp.perceiveDativeBonds(component, doDative);
-        }
-        for (IAtomContainer component : rxn.getProducts().atomContainers()) {
-          setHydrogenDisplay(component, hDisplayType);
-          MolOp.perceiveRadicals(component);
-          MolOp.perceiveDativeBonds(component, doDative);
-        }
-        for (IAtomContainer component : rxn.getAgents().atomContainers()) {
-          setHydrogenDisplay(component, hDisplayType);
-          MolOp.perceiveRadicals(component);
-          MolOp.perceiveDativeBonds(component, doDative);
+    // reactions are laid out in the main depiction gen
+    if (opts.getBoolean(Param.FLIP)) {
+      for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
+        flip(part);
+    }
+    int rotate = opts.getInt(Param.ROTATE);
+    if (rotate != 0) {
+      for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
+        rotate(part, rotate);
+    }
+
+    return rxns;
+  }
+
+  /**
+   * Load a molecule and prepare it for depiction, this includes
+   * abbreviation, annotation, highlighting and layout.
+   *
+   * @param input     SMILES/CXSMILES or molfile
+   * @param opts      request options
+   * @param highlight atoms and bonds to highlight are added to this set
+   * @param sample    stage timings are recorded here
+   * @return the prepared molecule
+   * @throws CDKException something not okay with input
+   */
+  IAtomContainer prepareMolecule(DepictInput input,
+                                 DepictOptions opts,
+                                 Set<IChemObject> highlight,
+                                 DepictMetrics.Sample sample) throws CDKException {
+
+    String abbr = opts.getString(Param.ABBREVIATE);
+    String annotate = opts.getString(Param.ANNOTATE);
+
+    HydrogenDisplayType hDisplayType = getHydrogenDisplay(opts);
+
+    boolean doAromaticity = opts.getBoolean(Param.DONUTS) &&
+                            opts.getString(Param.SMARTSQUERY).isEmpty();
+
+    StructureDiagramGenerator sdg = new StructureDiagramGenerator();
+    sdg.setAlignMappedReaction(opts.getBoolean(Param.ALIGNRXNMAP));
+    MolOp.DativeBond doDative = opts.getEnum(Param.DATIVE, MolOp.DativeBond.class);
+
+    long t0 = sample.start();
+    IAtomContainer mol = loadMol(input);
+    sample.stop(DepictMetrics.Stage.PARSE, t0);
+    checkBudget();
+    if (input.format() == DepictInput.Format.MDL_V2000)
+      sample.kind = "V2000";
+    else if (input.format() == DepictInput.Format.MDL_V3000)
+      sample.kind = "V3000";
+    sample.numAtoms += mol.getAtomCount();
+
+    if (doAromaticity) {
+      t0 = sample.start();
+      Cycles.markRingAtomsAndBonds(mol);
+      Aromaticity.apply(Aromaticity.Model.Daylight, mol);
+      sample.stop(DepictMetrics.Stage.AROMATICITY, t0);
+    }
+
+    setHydrogenDisplay(mol, hDisplayType);
+    t0 = sample.start();
+    highlight.addAll(findHits(opts.getString(Param.SMARTSQUERY),
+                              null,
+                              mol,
+                              opts.getInt(Param.SMARTSHITLIM)));
+    sample.stop(DepictMetrics.Stage.SMARTS, t0);
+    t0 = sample.start();
+    abbreviate(mol, abbr, annotate, highlight);
+    sample.stop(DepictMetrics.Stage.ABBREVIATE, t0);
+    checkBudget();
+    MolOp.perceiveRadicals(mol);
+    MolOp.perceiveDativeBonds(mol, doDative);
+    if (!GeometryUtil.has2DCoordinates(mol)) {
+      t0 = sample.start();
+      layoutInBudget(() -> generateCoordinates(sdg, mol));
+      sample.stop(DepictMetrics.Stage.LAYOUT, t0);
+    }
+    checkBudget();
+
+    switch (annotate) {
+      case "colmap":
+        for (IAtom atom : mol.atoms()) {
+          Integer mapidx = atom.getProperty(CDKConstants.ATOM_ATOM_MAPPING);
+          if (mapidx != null && mapidx < COLORS.length)
+            atom.setProperty(StandardGenerator.HIGHLIGHT_COLOR, COLORS[mapidx]);
         }
-        if (!GeometryUtil.has2DCoordinates(rxn))
-          sdg.generateCoordinates(rxn);
-      }
-    } else {
-      mol = loadMol(smi);
+        break;
+      case "cip":
+        t0 = sample.start();
+        annotateCip(mol);
+        sample.stop(DepictMetrics.Stage.CIP, t0);
+        break;
+    }
 
-      if (doAromaticity) {
-        Cycles.markRingAtomsAndBonds(mol);
-        Aromaticity.apply(Aromaticity.Model.Daylight, mol);
-      }
+    if (opts.getBoolean(Param.FLIP))
+      flip(mol);
+    int rotate = opts.getInt(Param.ROTATE);
+    if (rotate != 0)
+      rotate(mol, rotate);
+
+    MolOp.setMulticenterStyle(mol,
+                              opts.getEnum(Param.MULTICENTER, MolOp.MulticenterStyle.class));
+
+    return mol;
+  }
 
-      setHydrogenDisplay(mol, hDisplayType);
-      highlight = findHits(getString(Param.SMARTSQUERY, extra),
-                           null,
-                           mol,
-                           getInt(Param.SMARTSHITLIM, extra));
-      abbreviate(mol, abbr, annotate, highlight);
-      MolOp.perceiveRadicals(mol);
-      MolOp.perceiveDativeBonds(mol, doDative);
-      if (!GeometryUtil.has2DCoordinates(mol))
-        sdg.generateCoordinates(mol);
+  /**
+   * Generate 2D coordinates for a molecule, or reuse the layout of the same
+   * molecule from the cache. The layout is keyed by the canonical SMILES
+   * (with stereo and explicit hydrogens) and stored in canonical order.
+   * Molecules with Sgroups are always laid out as the brackets are placed
+   * during layout.
+   *
+   * @param sdg the structure diagram generator
+   * @param mol the molecule
+   * @throws CDKException the molecule could not be laid out
+   */
+  private void generateCoordinates(StructureDiagramGenerator sdg,
+                                   IAtomContainer mol) throws CDKException {
+    List<Sgroup> sgroups = mol.getProperty(CDKConstants.CTAB_SGROUPS);
+    if (layoutCache == null || (sgroups != null && !sgroups.isEmpty())) {
+      sdg.generateCoordinates(mol);
+      return;
+    }
+    int[] order = new int[mol.getAtomCount()];
+    String key;
+    try {
+      key = layoutSmigen.create(mol, order);
+    } catch (CDKException e) {
+      // e.g. unkekulisable input
+      sdg.generateCoordinates(mol);
+      return;
+    }
+    Layout layout = layoutCache.get(key);
+    if (layout != null) {
+      layout.apply(mol, order);
+    } else {
+      sdg.generateCoordinates(mol);
+      layoutCache.put(key, Layout.of(mol, order));
     }
+  }
 
+  /**
+   * Add the annotation, highlight colour and title options to a generator,
+   * these depend on whether we are depicting reactions or molecules.
+   *
+   * @param myGenerator the generator
+   * @param style       preset style
+   * @param opts        request options
+   * @param isRxn       depicting reaction(s)
+   * @return the generator with the decorations
+   */
+  private DepictionGenerator withDecorations(DepictionGenerator myGenerator,
+                                             String style,
+                                             DepictOptions opts,
+                                             boolean isRxn) {
     // Add annotations
-    switch (annotate) {
+    switch (opts.getString(Param.ANNOTATE)) {
       case "number":
         myGenerator = myGenerator.withAtomNumbers();
-        abbr = "false";
         break;
       case "bondnumber":
         myGenerator = myGenerator.withBondNumbers();
-        abbr = "false";
         break;
       case "mapidx":
         myGenerator = myGenerator.withAtomMapNumbers();
@@ -420,144 +2070,212 @@ public class DepictController {
           myGenerator = myGenerator.withOuterGlowHighlight();
           myGenerator = myGenerator.withParam(StandardGenerator.Visibility.class,
                                               SymbolVisibility.iupacRecommendationsWithoutTerminalCarbon());
-          for (IAtom atom : mol.atoms()) {
-            Integer mapidx = atom.getProperty(CDKConstants.ATOM_ATOM_MAPPING);
-            if (mapidx != null && mapidx < COLORS.length)
-              atom.setProperty(StandardGenerator.HIGHLIGHT_COLOR, COLORS[mapidx]);
-          }
-        }
-        break;
-      case "cip":
-        if (isRxn) {
-          for (IReaction rxn : rxns.reactions()) {
-            for (IAtomContainer part : ReactionManipulator.getAllAtomContainers(rxn)) {
-              annotateCip(part);
-            }
-          }
-        } else {
-          annotateCip(mol);
         }
         break;
     }
 
-    // add highlight from atom/bonds hit by the provided SMARTS or
-    // the MDL HILITE or CXSMILES ha/hb: fields
-    Color hgCol = new Color(0xaaffaa);
-    switch (style) {
-      case "nob":
-        hgCol = new Color(0xffaaaa);
-        break;
-      case "bow":
-      case "wob":
-      case "bot":
-        hgCol = Color.RED;
-        break;
-    }
-
-    myGenerator = myGenerator.withParam(RendererModel.SelectionColor.class, hgCol)
-                             .withHighlight(highlight, hgCol);
+    myGenerator = myGenerator.withParam(RendererModel.SelectionColor.class, highlightColor(style));
 
-    if (getBoolean(Param.SHOWTITLE, extra)) {
+    if (opts.getBoolean(Param.SHOWTITLE)) {
       if (isRxn)
         myGenerator = myGenerator.withRxnTitle();
       else
         myGenerator = myGenerator.withMolTitle();
     }
 
-    // reactions are laid out in the main depiction gen
-    if (getBoolean(Param.FLIP, extra)) {
-      if (isRxn) {
-        for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
-          flip(part);
-      } else
-        flip(mol);
-    }
-    int rotate = getInt(Param.ROTATE, extra);
-    if (rotate != 0) {
-      if (isRxn) {
-        for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
-          rotate(part, rotate);
-      } else {
-        rotate(mol, rotate);
-      }
+    return myGenerator;
+  }
+
+  /**
+   * The colour used to highlight atom/bonds hit by the provided SMARTS or
+   * the MDL HILITE or CXSMILES ha/hb: fields.
+   *
+   * @param style preset style
+   * @return the highlight colour
+   */
+  private static Color highlightColor(String style) {
+    switch (style) {
+      case "nob":
+        return NOB_HIGHLIGHT;
+      case "bow":
+      case "wob":
+      case "bot":
+        return Color.RED;
+      default:
+        return DEFAULT_HIGHLIGHT;
     }
+  }
 
-    // and reaction?
-    MolOp.setMulticenterStyle(mol,
-                              getParam(Param.MULTICENTER, extra, this::parseMulticenter));
+  /**
+   * Encode a depiction in the requested format and record the sample of
+   * stage timings.
+   *
+   * @param depiction the depiction
+   * @param fmt       output format
+   * @param opts      request options
+   * @param sample    stage timings of the depiction
+   * @param style     preset style
+   * @return the encoded depiction
+   * @throws IOException the depiction could not be encoded
+   */
+  private DepictResult encode(Depiction depiction,
+                              String fmt,
+                              DepictOptions opts,
+                              DepictMetrics.Sample sample,
+                              String style) throws IOException {
+    long t0 = sample.start();
+    DepictResult result = encode(depiction, fmt, opts);
+    sample.stop(DepictMetrics.Stage.ENCODE, t0);
+    metrics.record(sample, fmt, style, result.bytes().length);
+    return result;
+  }
 
+  /**
+   * Encode a depiction in the requested format.
+   *
+   * @param depiction the depiction
+   * @param fmt       output format
+   * @param opts      request options
+   * @return the encoded depiction
+   * @throws IOException the depiction could not be encoded
+   */
+  DepictResult encode(Depiction depiction,
+                      String fmt,
+                      DepictOptions opts) throws IOException {
     final String fmtlc = fmt.toLowerCase(Locale.ROOT);
+    switch (fmtlc) {
+      case Depiction.SVG_FMT:
+        return new DepictResult(toSvg(depiction, opts).getBytes(StandardCharsets.UTF_8), contentType(fmtlc));
+      case Depiction.PDF_FMT:
+        return new DepictResult(depiction.toPdfStr().getBytes(StandardCharsets.UTF_8), contentType(fmtlc));
+      case Depiction.PNG_FMT:
+      case PngEncoder.PNG8_FMT:
+      case Depiction.JPG_FMT:
+      case Depiction.GIF_FMT:
+        RasterBuffers.Buffer buf = rasterBuffers.acquire();
+        try {
+          writeRaster(depiction, fmtlc, opts, buf);
+          return new DepictResult(buf.toByteArray(), contentType(fmtlc));
+        } finally {
+          rasterBuffers.release(buf);
+        }
+    }
 
-    // pre-render the depiction
-    final Depiction depiction = isRxn ? myGenerator.depict(rxns) : myGenerator.depict(mol);
+    throw new IllegalArgumentException("Unsupported format.");
+  }
 
+  /**
+   * Encode a depiction in the requested format writing it directly to an
+   * output stream, text formats are written as UTF-8.
+   *
+   * @param depiction the depiction
+   * @param fmtlc     output format (lower case)
+   * @param opts      request options
+   * @param out       the output stream
+   * @throws IOException the depiction could not be encoded
+   */
+  private void writeTo(Depiction depiction,
+                       String fmtlc,
+                       DepictOptions opts,
+                       OutputStream out) throws IOException {
     switch (fmtlc) {
       case Depiction.SVG_FMT:
-        return makeResponse(depiction.toSvgStr(getString(Param.SVGUNITS, extra))
-                                     .getBytes(), "image/svg+xml");
       case Depiction.PDF_FMT:
-        return makeResponse(depiction.toPdfStr().getBytes(), "application/pdf");
+        Writer wtr = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        if (Depiction.SVG_FMT.equals(fmtlc))
+          wtr.write(toSvg(depiction, opts));
+        else
+          wtr.write(depiction.toPdfStr());
+        wtr.flush();
+        return;
       case Depiction.PNG_FMT:
+      case PngEncoder.PNG8_FMT:
       case Depiction.JPG_FMT:
       case Depiction.GIF_FMT:
-        ByteArrayOutputStream bao = new ByteArrayOutputStream();
-        ImageIO.write(depiction.toImg(), fmtlc, bao);
-        return makeResponse(bao.toByteArray(), "image/" + fmtlc);
+        writeRaster(depiction, fmtlc, opts, out);
+        return;
     }
 
     throw new IllegalArgumentException("Unsupported format.");
   }
 
-  private MolOp.DativeBond parseDativeParam(String s) {
-    if (s == null || s.isEmpty())
-      return null;
-    switch (s.toLowerCase(Locale.ROOT)) {
-      case "y":
-        return MolOp.DativeBond.Always;
-      case "m":
-        return MolOp.DativeBond.Metals;
-      case "n":
-        return MolOp.DativeBond.Never;
+  /**
+   * Render a depiction to SVG, optionally compacted (svgcompact=true) with
+   * coordinates rounded to 'svgprec' decimal places.
+   *
+   * @param depiction the depiction
+   * @param opts      request options
+   * @return the SVG
+   */
+  private String toSvg(Depiction depiction, DepictOptions opts) {
+    String svg = depiction.toSvgStr(opts.getString(Param.SVGUNITS));
+    if (opts.getBoolean(Param.SVGCOMPACT))
+      svg = new SvgCompactor(opts.getInt(Param.SVGPRECISION)).compact(svg);
+    return svg;
+  }
+
+  /**
+   * Render a depiction to a raster image and encode it, PNG with the
+   * configured PNG encoder, palette PNG (png8) with the built-in encoder and
+   * JPG/GIF with (per-thread) ImageIO writers.
+   *
+   * @param depiction the depiction
+   * @param fmtlc     output format (lower case)
+   * @param opts      request options
+   * @param out       the output stream
+   * @throws IOException the depiction could not be encoded
+   */
+  private void writeRaster(Depiction depiction,
+                           String fmtlc,
+                           DepictOptions opts,
+                           OutputStream out) throws IOException {
+    RasterEncoder encoder;
+    if (Depiction.PNG_FMT.equals(fmtlc))
+      encoder = pngEncoder;
+    else if (PngEncoder.PNG8_FMT.equals(fmtlc))
+      encoder = builtinPngEncoder;
+    else
+      encoder = imageIOEncoder;
+    encoder.write(depiction.toImg(), fmtlc, opts.getInt(Param.ZLEVEL), out);
+  }
+
+  private static String fileExtension(String fmtlc) {
+    return PngEncoder.PNG8_FMT.equals(fmtlc) ? Depiction.PNG_FMT : fmtlc;
+  }
+
+  private static String contentType(String fmtlc) {
+    switch (fmtlc) {
+      case Depiction.SVG_FMT:
+        return "image/svg+xml";
+      case Depiction.PDF_FMT:
+        return "application/pdf";
+      case PngEncoder.PNG8_FMT:
+        return "image/png";
       default:
-        return null;
+        return "image/" + fmtlc;
     }
   }
 
-    private MolOp.MulticenterStyle parseMulticenter(String s) {
-        if (s == null || s.isEmpty())
-            return null;
-        switch (s.toLowerCase(Locale.ROOT)) {
-            case "p":
-                return MolOp.MulticenterStyle.Provided;
-            case "d":
-                return MolOp.MulticenterStyle.Dative;
-            case "a":
-                return MolOp.MulticenterStyle.Dashed;
-            case "an":
-                return MolOp.MulticenterStyle.DashedNeutral;
-            case "h":
-                return MolOp.MulticenterStyle.Hidden;
-            case "hn":
-                return MolOp.MulticenterStyle.HiddenNeutral;
-            default:
-                return null;
-        }
+  /**
+   * Counts the bytes written to the underlying stream.
+   */
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
     }
 
-  private IReaction.Direction parseArrowParam(String s) {
-    if (s == null || s.isEmpty())
-      return null;
-    switch (s.toLowerCase(Locale.ROOT)) {
-      case "equ":
-        return IReaction.Direction.BIDIRECTIONAL;
-      case "ngo":
-        return IReaction.Direction.NO_GO;
-      case "ret":
-        return IReaction.Direction.RETRO_SYNTHETIC;
-      case "res":
-        return IReaction.Direction.RESONANCE;
-      default:
-        return null;
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
     }
   }
 
@@ -610,9 +2328,9 @@ public class DepictController {
   }
 
   private DepictionGenerator withBgFgColors(
-          @RequestParam Map<String, String> extra,
+          DepictOptions opts,
           DepictionGenerator myGenerator) {
-    final String bgcolor = getString(Param.BGCOLOR, extra);
+    final String bgcolor = opts.getString(Param.BGCOLOR);
     switch (bgcolor) {
       case "clear":
       case "transparent":
@@ -627,7 +2345,7 @@ public class DepictController {
         break;
     }
 
-    final String fgcolor = getString(Param.FGCOLOR, extra);
+    final String fgcolor = opts.getString(Param.FGCOLOR);
     switch (fgcolor) {
       case "cpk":
       case "cdk":
@@ -643,7 +2361,7 @@ public class DepictController {
     return myGenerator;
   }
 
-  private void annotateCip(IAtomContainer part) {
+  void annotateCip(IAtomContainer part) {
     Stereocenters stereocenters = Stereocenters.of(part);
     for (IAtom atom : part.atoms()) {
       if (stereocenters.isStereocenter(atom.getIndex()) &&
@@ -792,9 +2510,9 @@ public class DepictController {
     }
   }
 
-  private void abbreviate(IReaction rxn,
-                          String mode,
-                          Set<IChemObject> highlight) {
+  void abbreviate(IReaction rxn,
+                  String mode,
+                  Set<IChemObject> highlight) {
 
     Map<IAtom, Integer> atomSet = new HashMap<>();
     for (IChemObject obj : highlight) {
@@ -838,10 +2556,10 @@ public class DepictController {
     }
   }
 
-  private void abbreviate(IAtomContainer mol,
-                          String mode,
-                          String annotate,
-                          Set<IChemObject> highlight) {
+  void abbreviate(IAtomContainer mol,
+                  String mode,
+                  String annotate,
+                  Set<IChemObject> highlight) {
 
     Map<IAtom, Integer> atomSet = new HashMap<>();
     for (IChemObject obj : highlight) {
@@ -868,43 +2586,61 @@ public class DepictController {
     }
   }
 
-  private boolean isRxnSmi(String smi) {
-    return smi.split(" ")[0].contains(">");
+  IReactionSet loadRxns(String str) throws CDKException {
+    IReactionSet rxns = smipar.get().parseReactionSetSmiles(str);
+    for (IAtomContainer part : ReactionSetManipulator.getAllAtomContainers(rxns))
+      kekulise(part);
+    return rxns;
   }
 
-  private IAtomContainer loadMol(String str) throws CDKException {
-    if (str.contains("V2000")) {
-      try (MDLV2000Reader mdlr = new MDLV2000Reader(new StringReader(str))) {
-        return mdlr.read(SilentChemObjectBuilder.getInstance().newAtomContainer());
-      } catch (CDKException | IOException e3) {
-        throw new CDKException("Could not parse input");
-      }
-    } else if (str.contains("V3000")) {
-      try (MDLV3000Reader mdlr = new MDLV3000Reader(new StringReader(str))) {
-        return mdlr.read(SilentChemObjectBuilder.getInstance().newAtomContainer());
-      } catch (CDKException | IOException e3) {
-        throw new CDKException("Could not parse input");
-      }
-    } else {
-      try {
-        return smipar.parseSmiles(str);
-      } catch (CDKException ex) {
-        SmilesParser smipar2 = new SmilesParser(builder);
-        smipar2.kekulise(false);
-        return smipar2.parseSmiles(str);
-      }
+  IAtomContainer loadMol(String str) throws CDKException {
+    return loadMol(DepictInput.of(str));
+  }
+
+  IAtomContainer loadMol(DepictInput input) throws CDKException {
+    switch (input.format()) {
+      case MDL_V2000:
+      case MDL_V3000:
+        // already read if the input was streamed
+        if (input.molecule() != null)
+          return input.molecule();
+        return DepictInput.readMolfile(input.format(), new StringReader(input.text()));
+      default:
+        IAtomContainer mol = smipar.get().parseSmiles(input.text());
+        kekulise(mol);
+        return mol;
+    }
+  }
+
+  /**
+   * Assign a Kekulé structure to the aromatic bonds of a parsed SMILES, if
+   * there is none (e.g. c1cccc1) the aromatic bonds are left as they were
+   * parsed and are depicted as such.
+   *
+   * @param mol molecule parsed without kekulisation
+   */
+  private static void kekulise(IAtomContainer mol) {
+    try {
+      Kekulization.kekulize(mol);
+    } catch (CDKException ignored) {
+      // leave as aromatic
     }
   }
 
   private HttpEntity<byte[]> makeResponse(byte[] bytes, String contentType) {
+    HttpHeaders header = responseHeaders(contentType);
+    header.setContentLength(bytes.length);
+    return new HttpEntity<>(bytes, header);
+  }
+
+  private static HttpHeaders responseHeaders(String contentType) {
     HttpHeaders header = new HttpHeaders();
     String type = contentType.substring(0, contentType.indexOf('/'));
     String subtype = contentType.substring(contentType.indexOf('/') + 1, contentType.length());
     header.setContentType(new MediaType(type, subtype));
     header.add("Access-Control-Allow-Origin", "*");
     // header.set(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000");
-    header.setContentLength(bytes.length);
-    return new HttpEntity<>(bytes, header);
+    return header;
   }
 
   /**
@@ -1016,24 +2752,22 @@ public class DepictController {
    * @param mol molecule
    * @return set of matched atoms and bonds
    */
-  private Set<IChemObject> findHits(final String sma,
-                                    final IReaction rxn,
-                                    final IAtomContainer mol,
-                                    final int limit) {
+  Set<IChemObject> findHits(final String sma,
+                            final IReaction rxn,
+                            final IAtomContainer mol,
+                            final int limit) {
 
     Set<IChemObject> highlight = new HashSet<>();
     if (!sma.isEmpty()) {
-      SmartsPattern smartsPattern;
-      try {
-        smartsPattern = SmartsPattern.create(sma, null);
-      } catch (Exception | Error e) {
+      SmartsPattern smartsPattern = compileSmarts(sma);
+      if (smartsPattern == null)
         return Collections.emptySet();
-      }
       if (mol != null) {
         for (Map<IChemObject, IChemObject> m : smartsPattern.matchAll(mol)
                                                             .limit(limit)
                                                             .exclusiveAtoms()
                                                             .toAtomBondMap()) {
+          checkBudget();
           for (Map.Entry<IChemObject, IChemObject> e : m.entrySet()) {
             highlight.add(e.getValue());
           }
@@ -1043,6 +2777,7 @@ public class DepictController {
                                                             .limit(limit)
                                                             .exclusiveAtoms()
                                                             .toAtomBondMap()) {
+          checkBudget();
           for (Map.Entry<IChemObject, IChemObject> e : m.entrySet()) {
             highlight.add(e.getValue());
           }
@@ -1052,9 +2787,63 @@ public class DepictController {
     return highlight;
   }
 
+  /**
+   * Compile a SMARTS pattern or get it from the cache, patterns that could
+   * not be compiled are also remembered.
+   *
+   * @param sma SMARTS pattern
+   * @return the compiled pattern, or null if it is invalid
+   */
+  SmartsPattern compileSmarts(String sma) {
+    Optional<SmartsPattern> pattern = smartsCache.get(sma);
+    if (pattern == null) {
+      long t0 = System.nanoTime();
+      try {
+        pattern = Optional.of(SmartsPattern.create(sma, null));
+      } catch (Exception | Error e) {
+        pattern = Optional.empty();
+      }
+      smartsCompileNanos.add(System.nanoTime() - t0);
+      smartsCache.put(sma, pattern);
+    }
+    return pattern.orElse(null);
+  }
+
   @ExceptionHandler({Exception.class, InvalidSmilesException.class})
   public static ResponseEntity<Object> handleException(Exception ex, WebRequest request) {
-    if (ex instanceof InvalidSmilesException) {
+    if (ex instanceof BudgetExceededException) {
+      return new ResponseEntity<>("<!DOCTYPE html><html>" +
+                                          "<title>422 - Too Complex</title>" +
+                                          "<body><div>" +
+                                          "<h1>Too Complex</h1>" +
+                                          ex.getMessage() +
+                                          "</div></body>" +
+                                          "</html>",
+                                  new HttpHeaders(),
+                                  HttpStatus.UNPROCESSABLE_ENTITY);
+    } else if (ex instanceof InputTooLargeException) {
+      return new ResponseEntity<>("<!DOCTYPE html><html>" +
+                                          "<title>413 - Input Too Large</title>" +
+                                          "<body><div>" +
+                                          "<h1>Input Too Large</h1>" +
+                                          ex.getMessage() +
+                                          "</div></body>" +
+                                          "</html>",
+                                  new HttpHeaders(),
+                                  HttpStatus.PAYLOAD_TOO_LARGE);
+    } else if (ex instanceof RejectedExecutionException) {
+      HttpHeaders headers = new HttpHeaders();
+      headers.set(HttpHeaders.RETRY_AFTER, "1");
+      return new ResponseEntity<>("<!DOCTYPE html><html>" +
+                                          "<title>503 - Service Unavailable</title>" +
+                                          "<body><div>" +
+                                          "<h1>Service Unavailable</h1>" +
+                                          "Too many depictions in progress, try again later." +
+                                          "</div></body>" +
+                                          "</html>",
+                                  headers,
+                                  HttpStatus.SERVICE_UNAVAILABLE);
+    } else if (ex instanceof InvalidSmilesException) {
       InvalidSmilesException ise = (InvalidSmilesException) ex;
       String mesg = ise.getMessage();
       String disp = "";
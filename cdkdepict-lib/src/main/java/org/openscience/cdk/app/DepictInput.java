@@ -0,0 +1,337 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.MDLV2000Reader;
+import org.openscience.cdk.io.MDLV3000Reader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The structure input of a request, SMILES/CXSMILES or a molfile. The
+ * format is determined once from the first few lines of the input. An input
+ * read from a stream (e.g. a request body) that is a molfile is read
+ * directly from the stream, the text is never held in full. A molecule that
+ * was read from a stream is prepared in place so the input may only be
+ * depicted once.
+ */
+final class DepictInput {
+
+  /**
+   * The format of an input.
+   */
+  enum Format {
+    SMILES,
+    REACTION_SMILES,
+    MDL_V2000,
+    MDL_V3000
+  }
+
+  // bytes of a streamed input examined to determine the format, ample for
+  // the header block and counts line of a molfile
+  static final int SNIFF_LIMIT = 4096;
+
+  private final Format         format;
+  private final String         text;
+  private final IAtomContainer mol;
+  private       String         digest;
+
+  private DepictInput(Format format, String text, IAtomContainer mol, String digest) {
+    this.format = format;
+    this.text = text;
+    this.mol = mol;
+    this.digest = digest;
+  }
+
+  /**
+   * Create an input from a string.
+   *
+   * @param str SMILES/CXSMILES or a molfile
+   * @return the input
+   */
+  static DepictInput of(String str) {
+    return new DepictInput(sniff(str), str, null, null);
+  }
+
+  /**
+   * Read an input from a stream. The format is determined from the first
+   * bytes, a molfile is then read directly from the stream and SMILES is read
+   * as a string. At most maxBytes are read, a larger input is rejected as
+   * soon as the limit is passed.
+   *
+   * @param in       the input stream
+   * @param maxBytes the maximum size of the input
+   * @return the input
+   * @throws IOException            the stream could not be read
+   * @throws CDKException           the molfile could not be read
+   * @throws InputTooLargeException the input is larger than maxBytes
+   */
+  static DepictInput read(InputStream in, long maxBytes) throws IOException, CDKException {
+    LimitedInputStream limited = new LimitedInputStream(in, maxBytes);
+    MessageDigest digest = sha256();
+    BufferedInputStream bin = new BufferedInputStream(new DigestInputStream(limited, digest));
+    try {
+      Format format = sniff(bin);
+      if (format == Format.MDL_V2000 || format == Format.MDL_V3000) {
+        IAtomContainer mol = readMolfile(format, new InputStreamReader(bin, StandardCharsets.UTF_8));
+        // anything after the molfile (e.g. SD data) is not needed, it is read
+        // so the digest is of the whole input
+        byte[] buf = new byte[8192];
+        while (bin.read(buf) >= 0) ;
+        // the reader may have treated the failed read as the end of the input
+        if (limited.exceeded())
+          throw new InputTooLargeException(maxBytes);
+        return new DepictInput(format, null, mol, Base64.getEncoder().encodeToString(digest.digest()));
+      }
+      // SMILES is parsed from a string anyway, the digest matches the same
+      // SMILES provided as a query parameter
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      for (int n; (n = bin.read(buf)) >= 0; )
+        bout.write(buf, 0, n);
+      return of(new String(bout.toByteArray(), StandardCharsets.UTF_8).trim());
+    } catch (IOException | CDKException e) {
+      if (limited.exceeded())
+        throw new InputTooLargeException(maxBytes);
+      throw e;
+    }
+  }
+
+  /**
+   * Determine the format of an input. A molfile has V2000 or V3000 on the
+   * counts line (the fourth) but this is allowed on the second and third in
+   * case the header has lost lines. Blank lines before the input (e.g. from
+   * pasting a molfile) are skipped. Otherwise it is SMILES, a reaction if
+   * the first token has a '&gt;'.
+   *
+   * @param str the input (or the start of it)
+   * @return the format
+   */
+  static Format sniff(CharSequence str) {
+    int version = findVersion(str);
+    if (version >= 0)
+      return str.charAt(version + 1) == '2' ? Format.MDL_V2000 : Format.MDL_V3000;
+    for (int i = skipBlankLines(str); i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '>')
+        return Format.REACTION_SMILES;
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+        break;
+    }
+    return Format.SMILES;
+  }
+
+  /**
+   * Find the V2000/V3000 of a molfile counts line within the first four
+   * lines after any leading blank lines.
+   *
+   * @param str the input (or the start of it)
+   * @return index of the version, -1 if not found
+   */
+  private static int findVersion(CharSequence str) {
+    int line = 1;
+    for (int i = skipBlankLines(str); i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '\n') {
+        if (++line > 4)
+          break;
+      } else if (c == 'V' && line > 1 &&
+                 (regionMatches(str, i, "V2000") || regionMatches(str, i, "V3000"))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Index of the start of the first line that is not blank.
+   */
+  private static int skipBlankLines(CharSequence str) {
+    int beg = 0;
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '\n')
+        beg = i + 1;
+      else if (c != ' ' && c != '\t' && c != '\r')
+        break;
+    }
+    return beg;
+  }
+
+  private static Format sniff(BufferedInputStream in) throws IOException {
+    byte[] buf = new byte[SNIFF_LIMIT];
+    int len = 0;
+    in.mark(SNIFF_LIMIT);
+    for (int n; len < buf.length && (n = in.read(buf, len, buf.length - len)) >= 0; )
+      len += n;
+    in.reset();
+    // only ASCII is significant
+    return sniff(new String(buf, 0, len, StandardCharsets.ISO_8859_1));
+  }
+
+  private static boolean regionMatches(CharSequence str, int beg, String sub) {
+    if (beg + sub.length() > str.length())
+      return false;
+    for (int i = 0; i < sub.length(); i++) {
+      if (str.charAt(beg + i) != sub.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Read a molfile. Blank lines before the header that put the counts line
+   * after the fourth line are skipped.
+   *
+   * @param format the molfile version
+   * @param rdr    the molfile
+   * @return the molecule
+   * @throws CDKException the molfile could not be read
+   */
+  static IAtomContainer readMolfile(Format format, Reader rdr) throws CDKException {
+    IAtomContainer mol = SilentChemObjectBuilder.getInstance().newAtomContainer();
+    try {
+      rdr = skipExtraLines(new BufferedReader(rdr));
+      if (format == Format.MDL_V3000)
+        return new MDLV3000Reader(rdr).read(mol);
+      return new MDLV2000Reader(rdr).read(mol);
+    } catch (CDKException | IOException e) {
+      throw new CDKException("Could not parse input");
+    }
+  }
+
+  private static BufferedReader skipExtraLines(BufferedReader rdr) throws IOException {
+    char[] buf = new char[SNIFF_LIMIT];
+    int len = 0;
+    rdr.mark(SNIFF_LIMIT);
+    for (int n; len < buf.length && (n = rdr.read(buf, len, buf.length - len)) >= 0; )
+      len += n;
+    rdr.reset();
+    CharSequence str = CharBuffer.wrap(buf, 0, len);
+    int version = findVersion(str);
+    // the counts line is the fourth
+    int line = 1;
+    for (int i = 0; i < version; i++) {
+      if (str.charAt(i) == '\n')
+        line++;
+    }
+    for (; line > 4; line--)
+      rdr.readLine();
+    return rdr;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // required of every Java platform
+      throw new IllegalStateException(e);
+    }
+  }
+
+  Format format() {
+    return format;
+  }
+
+  /**
+   * The input as a string, null if a molfile was read from a stream.
+   *
+   * @return the text
+   */
+  String text() {
+    return text;
+  }
+
+  /**
+   * The molecule read from a stream, null if the input is a string.
+   *
+   * @return the molecule
+   */
+  IAtomContainer molecule() {
+    return mol;
+  }
+
+  /**
+   * A SHA-256 digest of the input (Base64), suitable to key the depiction of
+   * a large input.
+   *
+   * @return the digest
+   */
+  String digest() {
+    if (digest == null)
+      digest = Base64.getEncoder().encodeToString(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    return digest;
+  }
+
+  /**
+   * Fails reads once more than a number of bytes have been read.
+   */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private       long count;
+
+    LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    boolean exceeded() {
+      return count > limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0)
+        count(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0)
+        count(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long n) throws IOException {
+      count += n;
+      if (count > limit)
+        throw new IOException("Input is larger than " + limit + " bytes");
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,439 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs depiction jobs too large for a single request (e.g. a whole SD file
+ * or a grid of many thousands of molecules) in the background. A job is
+ * submitted, its progress polled and the result fetched when done. Jobs
+ * wait on a bounded queue, the input and result of a job are spilled to a
+ * directory on disk rather than held in memory, and finished jobs are
+ * removed once they are older than the TTL. A job holds a slot from when it
+ * is created until it finishes, so a job is rejected before its input is
+ * read if too many are already waiting.
+ */
+final class DepictJobs {
+
+  enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED
+  }
+
+  /**
+   * The work of a job, the result is written to the output and progress is
+   * reported to the job.
+   */
+  interface Task {
+    void run(Job job, OutputStream out) throws Exception;
+  }
+
+  /**
+   * A depiction job.
+   */
+  static final class Job {
+
+    private final String        id;
+    private final Path          dir;
+    private final String        contentType;
+    private final String        fileName;
+    private final AtomicLong    done   = new AtomicLong();
+    private final AtomicLong    errors = new AtomicLong();
+    // the job holds a slot until it finishes or is removed
+    private final AtomicBoolean slot   = new AtomicBoolean(true);
+    private volatile long       total  = -1;
+    private volatile State      state  = State.QUEUED;
+    private volatile long       started, finished;
+    private volatile String     error;
+    private volatile Runnable   runnable;
+    // the thread running the job and whether it was removed, guarded by this
+    private Thread              thread;
+    private boolean             cancelled;
+
+    private Job(String id, Path dir, String contentType, String fileName) {
+      this.id = id;
+      this.dir = dir;
+      this.contentType = contentType;
+      this.fileName = fileName;
+    }
+
+    String id() {
+      return id;
+    }
+
+    State state() {
+      return state;
+    }
+
+    String contentType() {
+      return contentType;
+    }
+
+    String fileName() {
+      return fileName;
+    }
+
+    /**
+     * The input of the job, spilled to disk when it was created.
+     *
+     * @return the input file
+     */
+    Path input() {
+      return dir.resolve("input");
+    }
+
+    /**
+     * The result of the job, this exists once the job is done.
+     *
+     * @return the result file
+     */
+    Path result() {
+      return dir.resolve("result");
+    }
+
+    /**
+     * Set the number of entries (e.g. records or molecules) to depict, if
+     * known progress is reported against this.
+     *
+     * @param total the number of entries
+     */
+    void setTotal(long total) {
+      this.total = total;
+    }
+
+    /**
+     * Record that an entry has been depicted.
+     *
+     * @param ok the entry was depicted successfully
+     */
+    void completed(boolean ok) {
+      done.incrementAndGet();
+      if (!ok)
+        errors.incrementAndGet();
+    }
+
+    /**
+     * The status of the job as JSON, the state, progress and (if running)
+     * the estimated time remaining.
+     *
+     * @return the status
+     */
+    String toJson() {
+      long now = System.currentTimeMillis();
+      long numDone = done.get();
+      long numTotal = total;
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"id\":");
+      Json.quote(sb, id);
+      sb.append(",\"state\":");
+      Json.quote(sb, state.name().toLowerCase(Locale.ROOT));
+      sb.append(",\"done\":").append(numDone);
+      sb.append(",\"errors\":").append(errors.get());
+      sb.append(",\"total\":").append(numTotal >= 0 ? Long.toString(numTotal) : "null");
+      long elapsed = started == 0 ? 0 : (finished != 0 ? finished : now) - started;
+      sb.append(",\"elapsedMillis\":").append(elapsed);
+      // assumes the remaining entries take as long as those done so far
+      if (state == State.RUNNING && numDone > 0 && numTotal >= numDone)
+        sb.append(",\"etaMillis\":").append(elapsed * (numTotal - numDone) / numDone);
+      else
+        sb.append(",\"etaMillis\":null");
+      if (error != null) {
+        sb.append(",\"error\":");
+        Json.quote(sb, error);
+      }
+      return sb.append('}').toString();
+    }
+  }
+
+  private final Path               dir;
+  private final long               maxInputSize;
+  private final long               ttlMillis;
+  private final ThreadPoolExecutor       executor;
+  private final ScheduledExecutorService sweeper;
+  private final Semaphore                slots;
+  private final Map<String, Job>         jobs = new ConcurrentHashMap<>();
+
+  /**
+   * Create a job runner. Job directories left behind (e.g. by a restart)
+   * that have not been modified for longer than the TTL are removed.
+   *
+   * @param dir          directory the job inputs and results are written to
+   * @param nThreads     number of jobs run at once
+   * @param queueSize    max number of jobs waiting to run
+   * @param maxInputSize max size of the input of a job
+   * @param ttl          how long a finished job is kept
+   */
+  DepictJobs(Path dir, int nThreads, int queueSize, long maxInputSize, Duration ttl) {
+    this.dir = dir;
+    this.maxInputSize = maxInputSize;
+    this.ttlMillis = ttl.toMillis();
+    this.slots = new Semaphore(nThreads + queueSize);
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cdkdepict-job-");
+    threadFactory.setDaemon(true);
+    this.executor = new ThreadPoolExecutor(nThreads, nThreads,
+                                           0L, TimeUnit.MILLISECONDS,
+                                           new ArrayBlockingQueue<>(queueSize),
+                                           threadFactory,
+                                           new ThreadPoolExecutor.AbortPolicy());
+    CustomizableThreadFactory sweepThreadFactory = new CustomizableThreadFactory("cdkdepict-job-sweep-");
+    sweepThreadFactory.setDaemon(true);
+    this.sweeper = Executors.newSingleThreadScheduledExecutor(sweepThreadFactory);
+    long period = Math.max(1000, Math.min(ttlMillis, 60000));
+    sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    removeOrphans();
+  }
+
+  /**
+   * Remove the job directories not known to this runner that have not been
+   * modified for longer than the TTL. Another runner may share the
+   * directory so recently modified jobs are kept.
+   */
+  private void removeOrphans() {
+    if (!Files.isDirectory(dir))
+      return;
+    long now = System.currentTimeMillis();
+    try (Stream<Path> paths = Files.list(dir)) {
+      paths.filter(path -> !jobs.containsKey(path.getFileName().toString()))
+           .filter(path -> now - lastModified(path) > ttlMillis)
+           .forEach(DepictJobs::deleteQuietly);
+    } catch (IOException ignored) {
+      // best effort
+    }
+  }
+
+  private static long lastModified(Path path) {
+    try (Stream<Path> paths = Files.walk(path)) {
+      return paths.mapToLong(p -> {
+        try {
+          return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+          return 0;
+        }
+      }).max().orElse(0);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Create a job, the input is read from the stream and spilled to disk.
+   * The job is not run until it is submitted.
+   *
+   * @param input       the input of the job
+   * @param contentType content type of the result
+   * @param extension   file extension of the result
+   * @return the job
+   * @throws IOException                the input could not be spilled to disk
+   * @throws InputTooLargeException     the input is larger than the maximum
+   * @throws RejectedExecutionException too many jobs are waiting to run
+   */
+  Job create(InputStream input, String contentType, String extension) throws IOException {
+    if (!slots.tryAcquire())
+      throw new RejectedExecutionException("Too many jobs are waiting to run");
+    String id = UUID.randomUUID().toString();
+    Job job = new Job(id, dir.resolve(id), contentType, id + "." + extension);
+    jobs.put(id, job);
+    try {
+      Files.createDirectories(job.dir);
+      byte[] buf = new byte[8192];
+      long count = 0;
+      try (OutputStream out = Files.newOutputStream(job.input())) {
+        for (int n; (n = input.read(buf)) >= 0; ) {
+          count += n;
+          if (count > maxInputSize)
+            throw new InputTooLargeException(maxInputSize);
+          out.write(buf, 0, n);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      remove(id);
+      throw e;
+    }
+    return job;
+  }
+
+  /**
+   * Queue a job to run.
+   *
+   * @param job  the job
+   * @param task the work of the job
+   * @throws RejectedExecutionException too many jobs are waiting to run
+   */
+  void submit(Job job, Task task) {
+    // not submitted as a future so an Error (e.g. out of memory) is not
+    // swallowed but reaches the thread's uncaught exception handler
+    job.runnable = () -> run(job, task);
+    try {
+      executor.execute(job.runnable);
+    } catch (RejectedExecutionException e) {
+      remove(job.id);
+      throw e;
+    }
+  }
+
+  private void run(Job job, Task task) {
+    synchronized (job) {
+      if (job.cancelled)
+        return;
+      job.thread = Thread.currentThread();
+    }
+    job.started = System.currentTimeMillis();
+    job.state = State.RUNNING;
+    // written to one side so a partial result is never fetched
+    Path part = job.dir.resolve("result.part");
+    State state = State.FAILED;
+    String error = "Job did not complete";
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+        task.run(job, out);
+      }
+      Files.move(part, job.result(), StandardCopyOption.ATOMIC_MOVE);
+      Files.deleteIfExists(job.input());
+      state = State.DONE;
+      error = null;
+    } catch (Exception e) {
+      String mesg = e.getMessage();
+      error = mesg != null ? mesg : e.getClass().getSimpleName();
+    } finally {
+      boolean cancelled;
+      synchronized (job) {
+        job.thread = null;
+        // clear an interrupt from remove() that arrived as the task ended
+        Thread.interrupted();
+        cancelled = job.cancelled;
+      }
+      // the files of a removed job are deleted once nothing is writing them
+      if (cancelled)
+        deleteQuietly(job.dir);
+      else if (state != State.DONE)
+        deleteQuietly(part);
+      release(job);
+      job.error = error;
+      job.finished = System.currentTimeMillis();
+      job.state = state;
+    }
+  }
+
+  private void release(Job job) {
+    if (job.slot.compareAndSet(true, false))
+      slots.release();
+  }
+
+  /**
+   * Get a job.
+   *
+   * @param id the job id
+   * @return the job, null if unknown or expired
+   */
+  Job get(String id) {
+    return jobs.get(id);
+  }
+
+  /**
+   * Remove a job, if it is running it is interrupted. The input and result
+   * of the job are deleted, if it is running once the task has stopped.
+   *
+   * @param id the job id
+   * @return the job was removed, false if unknown or expired
+   */
+  boolean remove(String id) {
+    Job job = jobs.remove(id);
+    if (job == null)
+      return false;
+    boolean running;
+    synchronized (job) {
+      job.cancelled = true;
+      running = job.thread != null;
+      if (running)
+        job.thread.interrupt();
+    }
+    if (!running) {
+      if (job.runnable != null)
+        executor.remove(job.runnable);
+      deleteQuietly(job.dir);
+      release(job);
+    }
+    return true;
+  }
+
+  /**
+   * Remove the finished jobs older than the TTL.
+   */
+  void sweep() {
+    long now = System.currentTimeMillis();
+    for (Job job : jobs.values()) {
+      if (job.finished != 0 && now - job.finished > ttlMillis)
+        remove(job.id);
+    }
+  }
+
+  /**
+   * The number of jobs that are waiting or running.
+   *
+   * @return the number of jobs
+   */
+  int activeCount() {
+    int count = 0;
+    for (Job job : jobs.values()) {
+      if (job.finished == 0)
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * Stop running jobs and the sweeper, the files of unfinished jobs are
+   * left to be removed as orphans on the next start.
+   */
+  void shutdown() {
+    sweeper.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private static void deleteQuietly(Path path) {
+    if (!Files.exists(path))
+      return;
+    try (Stream<Path> paths = Files.walk(path)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+        try {
+          Files.deleteIfExists(p);
+        } catch (IOException ignored) {
+          // best effort, e.g. the file is still open
+        }
+      });
+    } catch (IOException ignored) {
+      // best effort
+    }
+  }
+}
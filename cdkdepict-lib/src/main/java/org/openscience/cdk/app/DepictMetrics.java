@@ -0,0 +1,186 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms for each stage of the depiction pipeline, and input/output
+ * size histograms, tagged by format, style and input kind. The metrics are
+ * written in the Prometheus text exposition format.
+ */
+final class DepictMetrics {
+
+  /**
+   * The stages of the depiction pipeline that are timed.
+   */
+  enum Stage {
+    PARSE,
+    LAYOUT,
+    AROMATICITY,
+    SMARTS,
+    ABBREVIATE,
+    CIP,
+    RENDER,
+    ENCODE;
+
+    final String label = name().toLowerCase(Locale.ROOT);
+  }
+
+  // latency buckets in seconds
+  private static final double[] SECONDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+                                           0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+  private static final double[] ATOMS   = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000};
+  private static final double[] BYTES   = {1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216};
+
+  // keyed by the label string, e.g. stage="parse",fmt="svg",style="cow",kind="mol"
+  private final ConcurrentMap<String, Histogram> stages = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> atoms  = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> bytes  = new ConcurrentHashMap<>();
+
+  /**
+   * The stage timings of a single depiction, not thread-safe. The kind of
+   * input and its size are set as the input is loaded.
+   */
+  static final class Sample {
+    private final long[] nanos = new long[Stage.values().length];
+    private final boolean[] seen = new boolean[Stage.values().length];
+    String kind = "mol";
+    int numAtoms;
+
+    long start() {
+      return System.nanoTime();
+    }
+
+    void stop(Stage stage, long t0) {
+      nanos[stage.ordinal()] += System.nanoTime() - t0;
+      seen[stage.ordinal()] = true;
+    }
+
+    /**
+     * Add the timings and size of another sample to this one.
+     *
+     * @param other the other sample
+     */
+    void add(Sample other) {
+      for (int i = 0; i < nanos.length; i++) {
+        nanos[i] += other.nanos[i];
+        seen[i] |= other.seen[i];
+      }
+      numAtoms += other.numAtoms;
+    }
+  }
+
+  /**
+   * Record a completed depiction.
+   *
+   * @param sample   stage timings
+   * @param fmt      output format
+   * @param style    preset style
+   * @param numBytes size of the encoded output
+   */
+  void record(Sample sample, String fmt, String style, long numBytes) {
+    String tags = "fmt=\"" + fmt.toLowerCase(Locale.ROOT) + "\"" +
+                  ",style=\"" + knownStyle(style) + "\"" +
+                  ",kind=\"" + sample.kind + "\"";
+    for (Stage stage : Stage.values()) {
+      if (sample.seen[stage.ordinal()])
+        stages.computeIfAbsent("stage=\"" + stage.label + "\"," + tags, k -> new Histogram(SECONDS))
+              .observe(sample.nanos[stage.ordinal()] / 1e9);
+    }
+    atoms.computeIfAbsent(tags, k -> new Histogram(ATOMS)).observe(sample.numAtoms);
+    bytes.computeIfAbsent(tags, k -> new Histogram(BYTES)).observe(numBytes);
+  }
+
+  /**
+   * Write the metrics in the Prometheus text format.
+   *
+   * @param sb string builder to append to
+   * @return the string builder
+   */
+  StringBuilder write(StringBuilder sb) {
+    write(sb, "cdkdepict_stage_seconds", "Time spent in each stage of the depiction pipeline.", stages);
+    write(sb, "cdkdepict_input_atoms", "Number of atoms in the depicted input.", atoms);
+    write(sb, "cdkdepict_output_bytes", "Size of the encoded depiction.", bytes);
+    return sb;
+  }
+
+  private static void write(StringBuilder sb, String name, String help,
+                            Map<String, Histogram> histograms) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(" histogram\n");
+    for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet())
+      e.getValue().write(sb, name, e.getKey());
+  }
+
+  /**
+   * Unknown styles are tagged as 'other' to bound the number of series.
+   */
+  private static String knownStyle(String style) {
+    switch (style) {
+      case "cow":
+      case "cot":
+      case "bow":
+      case "bot":
+      case "wob":
+      case "wot":
+      case "cob":
+      case "nob":
+        return style;
+      default:
+        return "other";
+    }
+  }
+
+  /**
+   * A histogram with fixed bucket bounds.
+   */
+  private static final class Histogram {
+    private final double[]    bounds;
+    private final LongAdder[] counts;
+    private final LongAdder   count = new LongAdder();
+    private final DoubleAdder sum   = new DoubleAdder();
+
+    Histogram(double[] bounds) {
+      this.bounds = bounds;
+      this.counts = new LongAdder[bounds.length];
+      for (int i = 0; i < counts.length; i++)
+        counts[i] = new LongAdder();
+    }
+
+    void observe(double value) {
+      for (int i = 0; i < bounds.length; i++) {
+        if (value <= bounds[i]) {
+          counts[i].increment();
+          break;
+        }
+      }
+      count.increment();
+      sum.add(value);
+    }
+
+    void write(StringBuilder sb, String name, String tags) {
+      long cumulative = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        cumulative += counts[i].sum();
+        sb.append(name).append("_bucket{").append(tags)
+          .append(",le=\"").append(bounds[i]).append("\"} ")
+          .append(cumulative).append('\n');
+      }
+      long n = count.sum();
+      sb.append(name).append("_bucket{").append(tags).append(",le=\"+Inf\"} ").append(n).append('\n');
+      sb.append(name).append("_sum{").append(tags).append("} ").append(sum.sum()).append('\n');
+      sb.append(name).append("_count{").append(tags).append("} ").append(n).append('\n');
+    }
+  }
+}
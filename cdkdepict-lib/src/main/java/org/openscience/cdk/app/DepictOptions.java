@@ -0,0 +1,314 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openscience.cdk.interfaces.IReaction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The depiction options of a request. The request parameters are parsed
+ * (and validated) once into typed values, rather than parsing the strings
+ * at each stage of depiction. Values are canonical, '1.30' and '1.3' or
+ * 'true' and 'on' are the same option, so two requests with equivalent
+ * options are equal and have the same {@link #canonical()} form and 64-bit
+ * {@link #hash()}. Unrecognised parameters are ignored and empty values are
+ * the same as the default.
+ */
+final class DepictOptions {
+
+  enum Param {
+    // match highlighting
+    SMARTSHITLIM("smalim", 100),
+    SMARTSQUERY("sma", ""),
+    // model options
+    HDISPLAY("hdisp", HydrogenDisplayType.Smart, HydrogenDisplayType::parse),
+    ALIGNRXNMAP("alignrxnmap", true),
+    ANON("anon", false),
+    SUPRESSH("suppressh", true),
+    ANNOTATE("annotate", "none"),
+    ABBREVIATE("abbr", "reagents"),
+    // rendering param
+    BGCOLOR("bgcolor", "default"),
+    FGCOLOR("fgcolor", "default"),
+    SHOWTITLE("showtitle", false),
+    ARROW("arw", IReaction.Direction.FORWARD, DepictOptions::parseArrow),
+    DATIVE("dat", MolOp.DativeBond.Metals, DepictOptions::parseDative),
+    DONUTS("dnt", false),
+    MULTICENTER("mc", MolOp.MulticenterStyle.Provided, DepictOptions::parseMulticenter),
+    ZOOM("zoom", 1.3),
+    RATIO("ratio", 1.1),
+    ROTATE("r", 0),
+    FLIP("f", false),
+    WIDTH("w", -1.0),
+    HEIGHT("h", -1.0),
+    SVGUNITS("svgunits", "mm"),
+    // compact SVG output, and the number of decimal places of coordinates
+    SVGCOMPACT("svgcompact", false),
+    SVGPRECISION("svgprec", SvgCompactor.DEFAULT_PRECISION),
+    // deflate level of PNG output, 0 (fastest) to 9 (smallest)
+    ZLEVEL("zlevel", PngEncoder.DEFAULT_LEVEL);
+
+    private final String                   name;
+    private final Object                   defaultValue;
+    private final Function<String, Object> parser;
+
+    Param(String name, Object defaultValue) {
+      this(name, defaultValue, null);
+    }
+
+    Param(String name, Object defaultValue, Function<String, Object> parser) {
+      this.name = name;
+      this.defaultValue = defaultValue;
+      this.parser = parser;
+    }
+
+    /**
+     * The name of the request parameter.
+     *
+     * @return the parameter name
+     */
+    String paramName() {
+      return name;
+    }
+
+    private Object parse(String value) {
+      if (parser != null)
+        return parser.apply(value);
+      if (defaultValue instanceof Boolean)
+        return parseBoolean(value);
+      if (defaultValue instanceof Integer)
+        return Integer.parseInt(value.trim());
+      if (defaultValue instanceof Double)
+        return Double.parseDouble(value.trim());
+      return value;
+    }
+  }
+
+  private static final Param[] PARAMS = Param.values();
+
+  static final DepictOptions DEFAULTS = of(Collections.emptyMap());
+
+  private final Object[] values;
+  private final String   canonical;
+  private final long     hash;
+
+  private DepictOptions(Object[] values) {
+    this.values = values;
+    StringBuilder sb = new StringBuilder();
+    for (Param param : PARAMS) {
+      Object value = values[param.ordinal()];
+      if (value == null ? param.defaultValue == null : value.equals(param.defaultValue))
+        continue;
+      if (sb.length() > 0)
+        sb.append('&');
+      sb.append(param.name).append('=');
+      escape(sb, String.valueOf(value));
+    }
+    this.canonical = sb.toString();
+    this.hash = fnv1a64(canonical);
+  }
+
+  /**
+   * Parse the depiction options from the request parameters.
+   *
+   * @param params the request parameters
+   * @return the options
+   * @throws IllegalArgumentException an option value could not be parsed
+   */
+  static DepictOptions of(Map<String, String> params) {
+    Object[] values = new Object[PARAMS.length];
+    for (Param param : PARAMS) {
+      String str = params.get(param.name);
+      if (str == null || str.isEmpty()) {
+        values[param.ordinal()] = param.defaultValue;
+      } else {
+        try {
+          values[param.ordinal()] = param.parse(str);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Can not interpret number param " + param.name + ": " + str);
+        }
+      }
+    }
+    return new DepictOptions(values);
+  }
+
+  String getString(Param param) {
+    return String.valueOf(values[param.ordinal()]);
+  }
+
+  boolean getBoolean(Param param) {
+    return (Boolean) values[param.ordinal()];
+  }
+
+  int getInt(Param param) {
+    return (Integer) values[param.ordinal()];
+  }
+
+  double getDouble(Param param) {
+    return (Double) values[param.ordinal()];
+  }
+
+  /**
+   * Get the value of a parameter parsed to an enum, these may be null if
+   * the value was not recognised.
+   *
+   * @param param the parameter
+   * @param type  the enum type
+   * @param <T>   the enum type
+   * @return the value
+   */
+  <T extends Enum<T>> T getEnum(Param param, Class<T> type) {
+    return type.cast(values[param.ordinal()]);
+  }
+
+  /**
+   * The options that differ from the default in a canonical form, e.g.
+   * 'zoom=2.0&amp;abbr=off'.
+   *
+   * @return the canonical options
+   */
+  String canonical() {
+    return canonical;
+  }
+
+  /**
+   * A 64-bit hash of the canonical options, suitable to key memoized
+   * results.
+   *
+   * @return the hash
+   */
+  long hash() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (!(o instanceof DepictOptions))
+      return false;
+    DepictOptions that = (DepictOptions) o;
+    return hash == that.hash && Arrays.equals(values, that.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(hash);
+  }
+
+  @Override
+  public String toString() {
+    return canonical;
+  }
+
+  /**
+   * Append a value to a key, the separators of the keys ('&amp;', '=', '?',
+   * '/', '#', '|') and '%' are percent-encoded so a value can not be mistaken
+   * for another option, e.g. 'sma=x&amp;abbr=off'.
+   *
+   * @param sb  the key
+   * @param str the value
+   * @return the key
+   */
+  static StringBuilder escape(StringBuilder sb, String str) {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+        case '%':
+        case '&':
+        case '=':
+        case '?':
+        case '/':
+        case '#':
+        case '|':
+          sb.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+    return sb;
+  }
+
+  private static long fnv1a64(String str) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < str.length(); i++) {
+      hash ^= str.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static boolean parseBoolean(String value) {
+    switch (value.toLowerCase(Locale.ROOT)) {
+      case "f":
+      case "false":
+      case "off":
+      case "0":
+        return false;
+      case "t":
+      case "true":
+      case "on":
+      case "1":
+        return true;
+      default:
+        throw new IllegalArgumentException("Can not interpret boolean string param: " + value);
+    }
+  }
+
+  private static MolOp.DativeBond parseDative(String s) {
+    switch (s.toLowerCase(Locale.ROOT)) {
+      case "y":
+        return MolOp.DativeBond.Always;
+      case "m":
+        return MolOp.DativeBond.Metals;
+      case "n":
+        return MolOp.DativeBond.Never;
+      default:
+        return null;
+    }
+  }
+
+  private static MolOp.MulticenterStyle parseMulticenter(String s) {
+    switch (s.toLowerCase(Locale.ROOT)) {
+      case "p":
+        return MolOp.MulticenterStyle.Provided;
+      case "d":
+        return MolOp.MulticenterStyle.Dative;
+      case "a":
+        return MolOp.MulticenterStyle.Dashed;
+      case "an":
+        return MolOp.MulticenterStyle.DashedNeutral;
+      case "h":
+        return MolOp.MulticenterStyle.Hidden;
+      case "hn":
+        return MolOp.MulticenterStyle.HiddenNeutral;
+      default:
+        return null;
+    }
+  }
+
+  private static IReaction.Direction parseArrow(String s) {
+    switch (s.toLowerCase(Locale.ROOT)) {
+      case "equ":
+        return IReaction.Direction.BIDIRECTIONAL;
+      case "ngo":
+        return IReaction.Direction.NO_GO;
+      case "ret":
+        return IReaction.Direction.RETRO_SYNTHETIC;
+      case "res":
+        return IReaction.Direction.RESONANCE;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The encoded output of a depiction, the bytes and the content type they
+ * should be served with. Text formats (SVG/PDF) may also hold a gzip
+ * compressed copy of the bytes, this is computed once when the result is
+ * cached so repeat requests can be served compressed without the cost of
+ * compressing each time.
+ */
+final class DepictResult {
+
+  private final byte[] bytes;
+  private final String contentType;
+  private final byte[] gzipped;
+
+  DepictResult(byte[] bytes, String contentType) {
+    this(bytes, contentType, null);
+  }
+
+  private DepictResult(byte[] bytes, String contentType, byte[] gzipped) {
+    this.bytes = bytes;
+    this.contentType = contentType;
+    this.gzipped = gzipped;
+  }
+
+  byte[] bytes() {
+    return bytes;
+  }
+
+  String contentType() {
+    return contentType;
+  }
+
+  /**
+   * The gzip compressed bytes, if a compressed variant was created.
+   *
+   * @return the compressed bytes, or null
+   * @see #withGzip()
+   */
+  byte[] gzipped() {
+    return gzipped;
+  }
+
+  /**
+   * Whether a content type is worth compressing, the raster formats are
+   * already compressed.
+   *
+   * @param contentType the content type
+   * @return the content type compresses
+   */
+  static boolean isCompressible(String contentType) {
+    return "image/svg+xml".equals(contentType) || "application/pdf".equals(contentType);
+  }
+
+  /**
+   * Create a copy of this result that also holds the gzip compressed bytes.
+   * If the content type does not compress, or the compressed bytes would
+   * be no smaller, this result is returned.
+   *
+   * @return the result with a gzip variant
+   */
+  DepictResult withGzip() {
+    if (gzipped != null || !isCompressible(contentType))
+      return this;
+    byte[] compressed = gzip(bytes);
+    if (compressed.length >= bytes.length)
+      return this;
+    return new DepictResult(bytes, contentType, compressed);
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    // compressed once and served many times, so use the best compression
+    try (GZIPOutputStream gzout = new GZIPOutputStream(bout) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      gzout.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bout.toByteArray();
+  }
+
+  /**
+   * Approximate number of bytes held by this result.
+   *
+   * @return the size in bytes
+   */
+  long size() {
+    return bytes.length + (gzipped != null ? gzipped.length : 0) + 2L * contentType.length() + 64;
+  }
+}
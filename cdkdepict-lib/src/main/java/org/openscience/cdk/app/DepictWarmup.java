@@ -0,0 +1,186 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openscience.cdk.depict.Depiction;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Warms up the depiction pipeline at startup. The first depictions after a
+ * deploy are slow: they initialise AWT and the fonts, scan the ImageIO
+ * plugins, load the CDK classes and tables (atom types, abbreviations) and
+ * run in the interpreter until the JIT has compiled the hot paths. A small
+ * corpus is depicted in every style and format, for a number of rounds, on
+ * a background thread and the controller only reports it is ready once
+ * this is done, so a load balancer does not send traffic to a cold
+ * instance.
+ */
+final class DepictWarmup {
+
+  /**
+   * Depicts a structure, the result is discarded.
+   */
+  interface Renderer {
+    void depict(String smi, String fmt, String style, Map<String, String> extra) throws Exception;
+  }
+
+  static final String DEFAULT_CORPUS = "/org/openscience/cdk/app/warmup.smi";
+
+  private static final String[] STYLES  = {"cow", "cob", "bow", "wob", "bot", "nob"};
+  private static final String[] FORMATS = {Depiction.SVG_FMT, Depiction.PDF_FMT,
+                                           Depiction.PNG_FMT, PngEncoder.PNG8_FMT,
+                                           Depiction.JPG_FMT, Depiction.GIF_FMT};
+
+  // cycled over the corpus so the optional stages are also warmed up
+  private static final List<Map<String, String>> OPTIONS = new ArrayList<>();
+
+  static {
+    OPTIONS.add(Collections.emptyMap());
+    OPTIONS.add(Collections.singletonMap("annotate", "cip"));
+    OPTIONS.add(Collections.singletonMap("abbr", "on"));
+    OPTIONS.add(Collections.singletonMap("annotate", "number"));
+    Map<String, String> svgcompact = new HashMap<>();
+    svgcompact.put("svgcompact", "true");
+    svgcompact.put("zoom", "2");
+    OPTIONS.add(svgcompact);
+  }
+
+  private final Renderer      renderer;
+  private final List<String>  corpus;
+  private final int           rounds;
+  private final long          maxNanos;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private volatile boolean    ready;
+  private volatile long       count, errors, millis;
+
+  /**
+   * Create a warm-up.
+   *
+   * @param renderer depicts the corpus
+   * @param corpus   the SMILES to depict
+   * @param rounds   number of times the corpus is depicted in every style and
+   *                 format, 0 to not warm up
+   * @param maxTime  max time to warm up for, the warm-up stops early (and
+   *                 is ready) after this, 0 for no limit
+   */
+  DepictWarmup(Renderer renderer, List<String> corpus, int rounds, Duration maxTime) {
+    this.renderer = renderer;
+    this.corpus = corpus;
+    this.rounds = corpus.isEmpty() ? 0 : rounds;
+    this.maxNanos = maxTime.toNanos();
+    this.ready = this.rounds <= 0;
+  }
+
+  /**
+   * Load a warm-up corpus, a SMILES (and optional title) per line, blank
+   * lines and lines starting with '#' are skipped.
+   *
+   * @param path resource or file path
+   * @return the corpus
+   * @throws IOException the corpus could not be read
+   */
+  static List<String> loadCorpus(String path) throws IOException {
+    List<String> corpus = new ArrayList<>();
+    try (BufferedReader rdr = new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8))) {
+      for (String line; (line = rdr.readLine()) != null; ) {
+        line = line.trim();
+        if (!line.isEmpty() && line.charAt(0) != '#')
+          corpus.add(line);
+      }
+    }
+    return corpus;
+  }
+
+  private static InputStream open(String path) throws IOException {
+    InputStream in = DepictWarmup.class.getResourceAsStream(path);
+    if (in != null)
+      return in;
+    if (Files.isReadable(Paths.get(path)))
+      return Files.newInputStream(Paths.get(path));
+    throw new FileNotFoundException(path);
+  }
+
+  /**
+   * Start warming up in the background, only the first call has an effect.
+   */
+  void start() {
+    if (ready || !started.compareAndSet(false, true))
+      return;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cdkdepict-warmup-");
+    threadFactory.setDaemon(true);
+    threadFactory.newThread(this::run).start();
+  }
+
+  /**
+   * Depict the corpus, on the calling thread.
+   */
+  void run() {
+    long t0 = System.nanoTime();
+    try {
+      for (int round = 0; round < rounds; round++) {
+        for (String style : STYLES) {
+          for (String fmt : FORMATS) {
+            for (int i = 0; i < corpus.size(); i++) {
+              if (maxNanos > 0 && System.nanoTime() - t0 > maxNanos)
+                return;
+              try {
+                renderer.depict(corpus.get(i), fmt, style, OPTIONS.get(i % OPTIONS.size()));
+              } catch (Exception e) {
+                errors++;
+              }
+              count++;
+            }
+          }
+        }
+      }
+    } finally {
+      millis = (System.nanoTime() - t0) / 1000000;
+      ready = true;
+      LoggerFactory.getLogger(DepictWarmup.class)
+                   .info("Warm-up done, {} depictions ({} errors) in {}ms", count, errors, millis);
+    }
+  }
+
+  /**
+   * The warm-up is done (or disabled).
+   *
+   * @return ready to serve requests
+   */
+  boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * The status of the warm-up as JSON.
+   *
+   * @return the status
+   */
+  String toJson() {
+    return "{\"ready\":" + ready +
+           ",\"depictions\":" + count +
+           ",\"errors\":" + errors +
+           ",\"millis\":" + millis +
+           "}";
+  }
+}
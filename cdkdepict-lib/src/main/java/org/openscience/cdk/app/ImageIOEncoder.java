@@ -0,0 +1,73 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Encodes images with the Java ImageIO writers. Looking up a writer (service
+ * provider iteration) and creating it is relatively expensive, so one writer
+ * per format is created and reused on each thread. The image is written via
+ * an in-memory stream rather than ImageIO's default disk cache.
+ */
+final class ImageIOEncoder implements RasterEncoder {
+
+  private final ThreadLocal<Map<String, ImageWriter>> writers = ThreadLocal.withInitial(HashMap::new);
+
+  @Override
+  public void write(BufferedImage img, String fmt, int level, OutputStream out) throws IOException {
+    ImageWriter writer = writers.get().computeIfAbsent(fmt, ImageIOEncoder::newWriter);
+    if (writer == null)
+      throw new IOException("No image writer for format: " + fmt);
+    // e.g. JPEG can not store an alpha channel
+    if (!writer.getOriginatingProvider().canEncodeImage(img))
+      img = opaque(img);
+    ImageWriteParam param = null;
+    if ("png".equals(fmt) && level >= 0) {
+      param = writer.getDefaultWriteParam();
+      if (param.canWriteCompressed()) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(1f - Math.min(level, 9) / 9f);
+      }
+    }
+    try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+      writer.setOutput(ios);
+      writer.write(null, new IIOImage(img, null, null), param);
+    } finally {
+      writer.reset();
+    }
+  }
+
+  private static ImageWriter newWriter(String fmt) {
+    Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName(fmt);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  private static BufferedImage opaque(BufferedImage img) {
+    BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g2 = rgb.createGraphics();
+    try {
+      g2.drawImage(img, 0, 0, Color.WHITE, null);
+    } finally {
+      g2.dispose();
+    }
+    return rgb;
+  }
+}
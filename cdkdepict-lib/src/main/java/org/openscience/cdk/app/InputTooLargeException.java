@@ -0,0 +1,18 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+/**
+ * Thrown when the input of a request is larger than the maximum allowed,
+ * this is detected while reading so the input is never held in full.
+ */
+final class InputTooLargeException extends RuntimeException {
+
+  InputTooLargeException(long maxBytes) {
+    super("Input is larger than the maximum of " + maxBytes + " bytes");
+  }
+}
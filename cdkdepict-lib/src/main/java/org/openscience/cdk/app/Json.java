@@ -0,0 +1,63 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+/**
+ * Minimal helpers for writing JSON responses by hand.
+ */
+final class Json {
+
+  private Json() {
+  }
+
+  /**
+   * Append a string as a quoted and escaped JSON string.
+   *
+   * @param sb  string builder
+   * @param str the string
+   * @return the string builder
+   */
+  static StringBuilder quote(StringBuilder sb, String str) {
+    sb.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20)
+            sb.append(String.format("\\u%04x", (int) c));
+          else
+            sb.append(c);
+      }
+    }
+    return sb.append('"');
+  }
+
+  /**
+   * Quote and escape a string as a JSON string.
+   *
+   * @param str the string
+   * @return the JSON string
+   */
+  static String quote(String str) {
+    return quote(new StringBuilder(str.length() + 2), str).toString();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+import javax.vecmath.Point2d;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The 2D coordinates and bond display (wedges) of a laid out molecule,
+ * stored in canonical atom order so they can be applied to another instance
+ * of the same molecule. Only the stereo displays assigned by layout are
+ * stored, others (e.g. dative arrows) depend on the depiction options and
+ * are left as they are.
+ */
+final class Layout {
+
+  // x,y of each atom in canonical order
+  private final double[] coords;
+  // display of each bond keyed by the canonical atom indices, the display is
+  // relative to the atom with the lower index being the begin atom
+  private final Map<Long, IBond.Display> displays;
+
+  private Layout(double[] coords, Map<Long, IBond.Display> displays) {
+    this.coords = coords;
+    this.displays = displays;
+  }
+
+  /**
+   * Store the layout of a molecule.
+   *
+   * @param mol   laid out molecule
+   * @param order canonical order, order[i] is the canonical index of atom i
+   * @return the layout
+   */
+  static Layout of(IAtomContainer mol, int[] order) {
+    int n = mol.getAtomCount();
+    double[] coords = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      Point2d p = mol.getAtom(i).getPoint2d();
+      coords[2 * order[i]] = p.x;
+      coords[2 * order[i] + 1] = p.y;
+    }
+    Map<Long, IBond.Display> displays = new HashMap<>(2 * mol.getBondCount());
+    for (IBond bond : mol.bonds()) {
+      int beg = order[bond.getBegin().getIndex()];
+      int end = order[bond.getEnd().getIndex()];
+      IBond.Display display = bond.getDisplay();
+      if (!isStereoDisplay(display))
+        continue;
+      displays.put(key(n, beg, end), beg < end ? display : reverse(display));
+    }
+    return new Layout(coords, displays);
+  }
+
+  /**
+   * Apply this layout to another instance of the molecule.
+   *
+   * @param mol   the molecule
+   * @param order canonical order, order[i] is the canonical index of atom i
+   */
+  void apply(IAtomContainer mol, int[] order) {
+    int n = mol.getAtomCount();
+    for (int i = 0; i < n; i++) {
+      IAtom atom = mol.getAtom(i);
+      atom.setPoint2d(new Point2d(coords[2 * order[i]], coords[2 * order[i] + 1]));
+    }
+    for (IBond bond : mol.bonds()) {
+      int beg = order[bond.getBegin().getIndex()];
+      int end = order[bond.getEnd().getIndex()];
+      IBond.Display display = displays.get(key(n, beg, end));
+      if (display != null)
+        bond.setDisplay(beg < end ? display : reverse(display));
+    }
+  }
+
+  /**
+   * Approximate number of bytes held by this layout.
+   *
+   * @return the size in bytes
+   */
+  long size() {
+    return 8L * coords.length + 64L * displays.size() + 64;
+  }
+
+  private static boolean isStereoDisplay(IBond.Display display) {
+    if (display == null)
+      return false;
+    switch (display) {
+      case WedgeBegin:
+      case WedgeEnd:
+      case WedgedHashBegin:
+      case WedgedHashEnd:
+      case Wavy:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static long key(int n, int u, int v) {
+    return u < v ? (long) u * n + v : (long) v * n + u;
+  }
+
+  private static IBond.Display reverse(IBond.Display display) {
+    switch (display) {
+      case WedgeBegin:
+        return IBond.Display.WedgeEnd;
+      case WedgeEnd:
+        return IBond.Display.WedgeBegin;
+      case WedgedHashBegin:
+        return IBond.Display.WedgedHashEnd;
+      case WedgedHashEnd:
+        return IBond.Display.WedgedHashBegin;
+      default:
+        return display;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A simple thread-safe least-recently-used cache bounded by the total
+ * "weight" of the values it holds (e.g. number of bytes). Hit, miss and
+ * eviction counts are tracked so the cache can be sized appropriately.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class LruCache<K, V> {
+
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<>(64, 0.75f, true);
+  private final ToLongFunction<V>   weigher;
+  private final long                maxWeight;
+  private       long                weight;
+
+  private final LongAdder hits      = new LongAdder();
+  private final LongAdder misses    = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Create a new cache.
+   *
+   * @param maxWeight maximum total weight of the values held
+   * @param weigher   function to measure the weight of a value
+   */
+  LruCache(long maxWeight, ToLongFunction<V> weigher) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Create a new cache that holds at most the specified number of entries.
+   *
+   * @param maxSize maximum number of entries
+   */
+  LruCache(long maxSize) {
+    this(maxSize, v -> 1);
+  }
+
+  /**
+   * Get a value from the cache, marking it as recently used.
+   *
+   * @param key the key
+   * @return the value, or null if not present
+   */
+  V get(K key) {
+    V value;
+    synchronized (map) {
+      value = map.get(key);
+    }
+    if (value != null)
+      hits.increment();
+    else
+      misses.increment();
+    return value;
+  }
+
+  /**
+   * Put a value in the cache, evicting the least recently used entries
+   * until the cache fits. Values heavier than the cache itself are not
+   * stored.
+   *
+   * @param key   the key
+   * @param value the value
+   */
+  void put(K key, V value) {
+    long w = weigher.applyAsLong(value);
+    if (w > maxWeight)
+      return;
+    synchronized (map) {
+      V prev = map.put(key, value);
+      if (prev != null)
+        weight -= weigher.applyAsLong(prev);
+      weight += w;
+      Iterator<Map.Entry<K, V>> iter = map.entrySet().iterator();
+      while (weight > maxWeight && iter.hasNext()) {
+        Map.Entry<K, V> e = iter.next();
+        if (e.getKey().equals(key))
+          continue;
+        weight -= weigher.applyAsLong(e.getValue());
+        iter.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  long hitCount() {
+    return hits.sum();
+  }
+
+  long missCount() {
+    return misses.sum();
+  }
+
+  long evictionCount() {
+    return evictions.sum();
+  }
+
+  long size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  long weight() {
+    synchronized (map) {
+      return weight;
+    }
+  }
+
+  long maxWeight() {
+    return maxWeight;
+  }
+}
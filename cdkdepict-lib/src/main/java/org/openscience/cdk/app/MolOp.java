@@ -21,104 +21,119 @@ import java.util.Set;
 
 public class MolOp {
 
-    private static int calcValence(IAtom atom) {
-        int v = atom.getImplicitHydrogenCount();
-        for (IBond bond : atom.bonds()) {
+    /**
+     * Compute the valence (sum of bond orders and implicit hydrogens) of every
+     * atom in a single pass over the atoms and bonds.
+     *
+     * @param mol the molecule
+     * @return valence of each atom, indexed by atom index
+     */
+    static int[] calcValences(IAtomContainer mol) {
+        int[] valences = new int[mol.getAtomCount()];
+        for (int i = 0; i < valences.length; i++) {
+            Integer hcnt = mol.getAtom(i).getImplicitHydrogenCount();
+            if (hcnt != null)
+                valences[i] = hcnt;
+        }
+        for (IBond bond : mol.bonds()) {
             IBond.Order order = bond.getOrder();
-            if (order != null && order != IBond.Order.UNSET)
-                v += order.numeric();
+            if (order == null || order == IBond.Order.UNSET)
+                continue;
+            valences[bond.getBegin().getIndex()] += order.numeric();
+            valences[bond.getEnd().getIndex()] += order.numeric();
         }
-        return v;
+        return valences;
+    }
+
+    private static int atomicNumber(IAtom atom) {
+        Integer elem = atom.getAtomicNumber();
+        return elem != null ? elem : 0;
     }
 
-    private static boolean isDativeDonor(IAtom a, DativeBond opt) {
-        switch (a.getAtomicNumber()) {
+    private static int formalCharge(IAtom atom) {
+        Integer q = atom.getFormalCharge();
+        return q != null ? q : 0;
+    }
+
+    private static boolean isDativeDonor(int elem, int q, int v) {
+        switch (elem) {
             case IAtom.N:
             case IAtom.P:
-                return a.getFormalCharge() == 0 && calcValence(a) == 4;
+                return q == 0 && v == 4;
             case IAtom.O:
-                return a.getFormalCharge() == 0 && calcValence(a) == 3;
+                return q == 0 && v == 3;
             default:
                 return false;
         }
     }
 
-    private static boolean isDativeAcceptor(IAtom a, DativeBond opt) {
-        if (Elements.isMetal(a))
+    private static boolean isDativeAcceptor(int elem, boolean metal, int q, int v, DativeBond opt) {
+        if (metal)
             return true;
         if (opt == DativeBond.Metals)
             return false;
-        switch (a.getAtomicNumber()) {
+        switch (elem) {
             case IAtom.B:
-                return a.getFormalCharge() == 0 && calcValence(a) == 4;
+                return q == 0 && v == 4;
             case IAtom.O:
-                return a.getFormalCharge() == 0 && calcValence(a) == 1;
+                return q == 0 && v == 1;
             default:
                 return false;
         }
     }
 
-    private static boolean isPosDativeDonor(IAtom a, DativeBond opt) {
-        switch (a.getAtomicNumber()) {
+    private static boolean isPosDativeDonor(int elem, int q, int v) {
+        switch (elem) {
             case IAtom.N:
             case IAtom.P:
-                return a.getFormalCharge() == +1 && calcValence(a) == 4;
+                return q == +1 && v == 4;
             case IAtom.O:
-                return a.getFormalCharge() == +1 && calcValence(a) == 3;
+                return q == +1 && v == 3;
             default:
                 return false;
         }
     }
 
-    private static boolean isNegDativeAcceptor(IAtom a, DativeBond opt) {
-        if (a.getFormalCharge() != -1)
+    private static boolean isNegDativeAcceptor(int elem, boolean metal, int q, int v, DativeBond opt) {
+        if (q != -1)
             return false;
-        if (Elements.isMetal(a))
+        if (metal)
             return true;
         if (opt == DativeBond.Metals)
             return false;
-        switch (a.getAtomicNumber()) {
+        switch (elem) {
             case IAtom.B:
-                return calcValence(a) == 4;
+                return v == 4;
             case IAtom.O:
-                return calcValence(a) == 1;
+                return v == 1;
             default:
                 return false;
         }
     }
 
     public static void perceiveRadicals(IAtomContainer mol) {
-        for (IAtom atom : mol.atoms()) {
-            int v;
-            Integer q = atom.getFormalCharge();
-            if (q == null) q = 0;
-            if (atom.isAromatic())
+        int[] valences = calcValences(mol);
+        for (int i = 0; i < valences.length; i++) {
+            IAtom atom = mol.getAtom(i);
+            if (atom.isAromatic() || formalCharge(atom) != 0)
                 continue;
-            switch (atom.getAtomicNumber()) {
+            int v = valences[i];
+            switch (atomicNumber(atom)) {
                 case 6:
-                    if (q == 0) {
-                        v = calcValence(atom);
-                        if (v == 2)
-                            mol.addSingleElectron(mol.indexOf(atom));
-                        if (v < 4)
-                            mol.addSingleElectron(mol.indexOf(atom));
-                    }
+                    if (v == 2)
+                        mol.addSingleElectron(i);
+                    if (v < 4)
+                        mol.addSingleElectron(i);
                     break;
                 case 7:
-                    if (q == 0) {
-                        v = calcValence(atom);
-                        if (v < 3)
-                            mol.addSingleElectron(mol.indexOf(atom));
-                    }
+                    if (v < 3)
+                        mol.addSingleElectron(i);
                     break;
                 case 8:
-                    if (q == 0) {
-                        v = calcValence(atom);
-                        if (v < 2)
-                            mol.addSingleElectron(mol.indexOf(atom));
-                        if (v < 1)
-                            mol.addSingleElectron(mol.indexOf(atom));
-                    }
+                    if (v < 2)
+                        mol.addSingleElectron(i);
+                    if (v < 1)
+                        mol.addSingleElectron(i);
                     break;
             }
         }
@@ -133,36 +148,57 @@ public class MolOp {
     public static void perceiveDativeBonds(IAtomContainer mol, DativeBond opt) {
         if (opt == DativeBond.Never)
             return;
+        int numAtoms = mol.getAtomCount();
+        int[] valences = calcValences(mol);
+        int[] elems = new int[numAtoms];
+        int[] charges = new int[numAtoms];
+        boolean[] metals = new boolean[numAtoms];
+        for (int i = 0; i < numAtoms; i++) {
+            IAtom atom = mol.getAtom(i);
+            elems[i] = atomicNumber(atom);
+            charges[i] = formalCharge(atom);
+            metals[i] = Elements.isMetal(atom);
+        }
+        // bond orders are not changed so the valences stay valid, only the
+        // charges are updated as charge separated bonds are converted
         for (IBond bond : mol.bonds()) {
-            IAtom beg = bond.getBegin();
-            IAtom end = bond.getEnd();
-            if (bond.getDisplay().equals(IBond.Display.ArrowBeg) ||
-                bond.getDisplay().equals(IBond.Display.ArrowEnd))
+            if (isArrow(bond))
                 continue;
-            if (isPosDativeDonor(end, opt) && isNegDativeAcceptor(beg, opt)) {
+            int beg = bond.getBegin().getIndex();
+            int end = bond.getEnd().getIndex();
+            if (isPosDativeDonor(elems[end], charges[end], valences[end]) &&
+                isNegDativeAcceptor(elems[beg], metals[beg], charges[beg], valences[beg], opt)) {
                 bond.setDisplay(IBond.Display.ArrowBeg);
-                beg.setFormalCharge(beg.getFormalCharge() + 1);
-                end.setFormalCharge(end.getFormalCharge() - 1);
-            } else if (isPosDativeDonor(beg, opt) && isNegDativeAcceptor(end, opt)) {
+                bond.getBegin().setFormalCharge(++charges[beg]);
+                bond.getEnd().setFormalCharge(--charges[end]);
+            } else if (isPosDativeDonor(elems[beg], charges[beg], valences[beg]) &&
+                       isNegDativeAcceptor(elems[end], metals[end], charges[end], valences[end], opt)) {
                 bond.setDisplay(IBond.Display.ArrowEnd);
-                beg.setFormalCharge(beg.getFormalCharge() - 1);
-                end.setFormalCharge(end.getFormalCharge() + 1);
+                bond.getBegin().setFormalCharge(--charges[beg]);
+                bond.getEnd().setFormalCharge(++charges[end]);
             }
         }
         for (IBond bond : mol.bonds()) {
-            IAtom beg = bond.getBegin();
-            IAtom end = bond.getEnd();
-            if (bond.getDisplay().equals(IBond.Display.ArrowBeg) ||
-                bond.getDisplay().equals(IBond.Display.ArrowEnd))
+            if (isArrow(bond))
                 continue;
-            if (isDativeDonor(end, opt) && isDativeAcceptor(beg, opt)) {
+            int beg = bond.getBegin().getIndex();
+            int end = bond.getEnd().getIndex();
+            if (isDativeDonor(elems[end], charges[end], valences[end]) &&
+                isDativeAcceptor(elems[beg], metals[beg], charges[beg], valences[beg], opt)) {
                 bond.setDisplay(IBond.Display.ArrowBeg);
-            } else if (isDativeDonor(beg, opt) && isDativeAcceptor(end, opt)) {
+            } else if (isDativeDonor(elems[beg], charges[beg], valences[beg]) &&
+                       isDativeAcceptor(elems[end], metals[end], charges[end], valences[end], opt)) {
                 bond.setDisplay(IBond.Display.ArrowEnd);
             }
         }
     }
 
+    private static boolean isArrow(IBond bond) {
+        IBond.Display display = bond.getDisplay();
+        return display == IBond.Display.ArrowBeg ||
+               display == IBond.Display.ArrowEnd;
+    }
+
     enum MulticenterStyle {
         Provided,
         Hidden,
@@ -0,0 +1,762 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder for depictions, 8-bit RGB or RGBA (only if the image is not
+ * opaque) with a configurable deflate level and adaptive per-row filtering.
+ * <p>
+ * Depictions are line drawings with few distinct colours, if there are at
+ * most 256 (including the anti-aliased edges) the image is written losslessly
+ * as an indexed-colour (palette) PNG of 1, 2, 4 or 8 bits per pixel. The
+ * 'png8' format always writes a palette PNG, quantizing the colours if there
+ * are more than 256.
+ * <p>
+ * Large images are split into bands of rows that are filtered and deflated
+ * in parallel. Each band is a run of raw deflate blocks ending on a byte
+ * boundary (sync flush), so the bands concatenate into a single zlib
+ * stream, the Adler-32 checksums of the bands are combined at the end.
+ */
+final class PngEncoder implements RasterEncoder {
+
+  static final int    DEFAULT_LEVEL = 4;
+  static final String PNG8_FMT      = "png8";
+
+  private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+  // images with more raw bytes than this are deflated in parallel bands
+  private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+  // approx. raw bytes in each band
+  private static final int BAND_SIZE = 256 * 1024;
+
+  private static final int ADLER_BASE = 65521;
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Create a new encoder.
+   *
+   * @param pool pool to deflate large images on, null to always deflate on
+   *             the calling thread
+   */
+  PngEncoder(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public void write(BufferedImage img, String fmt, int level, OutputStream out) throws IOException {
+    if (level < 0)
+      level = DEFAULT_LEVEL;
+    else if (level > 9)
+      level = 9;
+    final int width = img.getWidth();
+    final int height = img.getHeight();
+
+    Palette palette = Palette.of(img, PNG8_FMT.equals(fmt));
+    final int bitDepth;
+    final int bpp;
+    final int stride;
+    final Rows rows;
+    if (palette != null) {
+      bitDepth = palette.bitDepth();
+      bpp = 1;
+      stride = (width * bitDepth + 7) / 8;
+      rows = (y, dst, argb) -> palette.readRow(img, y, bitDepth, dst, argb);
+    } else {
+      final int channels = isOpaque(img) ? 3 : 4;
+      bitDepth = 8;
+      bpp = channels;
+      stride = channels * width;
+      rows = (y, dst, argb) -> readRow(img, y, channels, dst, argb);
+    }
+
+    out.write(SIGNATURE);
+    Bytes ihdr = new Bytes(13);
+    writeInt(ihdr, width);
+    writeInt(ihdr, height);
+    ihdr.write(bitDepth);
+    ihdr.write(palette != null ? 3 : bpp == 4 ? 6 : 2);   // colour type indexed, RGBA or RGB
+    ihdr.write(0);                                         // deflate
+    ihdr.write(0);                                         // adaptive filtering
+    ihdr.write(0);                                         // no interlace
+    writeChunk(out, "IHDR", ihdr);
+    if (palette != null) {
+      writeChunk(out, "PLTE", palette.plte());
+      if (palette.numTransparent > 0)
+        writeChunk(out, "tRNS", palette.trns());
+    }
+
+    int rowsPerBand = Math.max(1, BAND_SIZE / Math.max(1, stride));
+    int numBands = (height + rowsPerBand - 1) / rowsPerBand;
+    if (pool == null || (long) stride * height < PARALLEL_THRESHOLD || numBands < 2) {
+      rowsPerBand = Math.max(1, height);
+      numBands = 1;
+    }
+
+    // palette images are not filtered (as recommended by the PNG spec)
+    final boolean filter = level > 0 && palette == null;
+    final int fLevel = level;
+    List<ForkJoinTask<Band>> tasks = new ArrayList<>(numBands);
+    for (int i = 0; i < numBands; i++) {
+      final int beg = i * rowsPerBand;
+      final int end = Math.min(height, beg + rowsPerBand);
+      final boolean last = i == numBands - 1;
+      Callable<Band> band = () -> deflate(rows, width, stride, bpp, filter, beg, end, fLevel, last);
+      if (numBands == 1)
+        tasks.add(ForkJoinTask.adapt(band));
+      else
+        tasks.add(pool.submit(band));
+    }
+
+    long adler = 1;
+    try {
+      for (int i = 0; i < tasks.size(); i++) {
+        ForkJoinTask<Band> task = tasks.get(i);
+        Band band = numBands == 1 ? task.invoke() : task.join();
+        adler = adler32Combine(adler, band.adler, band.length);
+        Bytes data = band.data;
+        if (i == 0) {
+          // zlib header goes in front of the first band
+          Bytes head = new Bytes(2 + data.size());
+          head.write(0x78);
+          head.write(zlibFlags(level));
+          data.writeTo(head);
+          data = head;
+        }
+        if (i == tasks.size() - 1)
+          writeInt(data, (int) adler);
+        writeChunk(out, "IDAT", data);
+      }
+    } finally {
+      for (ForkJoinTask<Band> task : tasks)
+        task.cancel(false);
+    }
+    writeChunk(out, "IEND", new Bytes(0));
+  }
+
+  /**
+   * Reads rows of the image in the output pixel format.
+   */
+  private interface Rows {
+    void read(int y, byte[] dst, int[] argb);
+  }
+
+  /**
+   * Filter and deflate a band of rows.
+   */
+  private static Band deflate(Rows rows, int width, int stride, int bpp, boolean filter,
+                              int beg, int end, int level, boolean last) {
+    byte[] prev = new byte[stride];
+    byte[] curr = new byte[stride];
+    byte[][] filtered = new byte[filter ? 5 : 1][1 + stride];
+    int[] argb = new int[width];
+    if (filter && beg > 0)
+      rows.read(beg - 1, prev, argb);
+
+    Deflater deflater = new Deflater(level, true);
+    Adler32 adler = new Adler32();
+    Bytes data = new Bytes(Math.max(64, (end - beg) * stride / 4));
+    byte[] buf = new byte[16 * 1024];
+    try {
+      for (int y = beg; y < end; y++) {
+        rows.read(y, curr, argb);
+        byte[] row = filter ? filter(curr, prev, bpp, filtered) : filterNone(curr, filtered[0]);
+        adler.update(row, 0, row.length);
+        deflater.setInput(row, 0, row.length);
+        while (!deflater.needsInput())
+          data.write(buf, 0, deflater.deflate(buf, 0, buf.length, Deflater.NO_FLUSH));
+        byte[] tmp = prev;
+        prev = curr;
+        curr = tmp;
+      }
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished())
+          data.write(buf, 0, deflater.deflate(buf));
+      } else {
+        int n;
+        do {
+          n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+          data.write(buf, 0, n);
+        } while (n == buf.length);
+      }
+    } finally {
+      deflater.end();
+    }
+    return new Band(data, adler.getValue(), (long) (end - beg) * (stride + 1));
+  }
+
+  private static byte[] filterNone(byte[] curr, byte[] dst) {
+    dst[0] = 0;
+    System.arraycopy(curr, 0, dst, 1, curr.length);
+    return dst;
+  }
+
+  /**
+   * Choose a filter for a row, the first byte of the returned row is the
+   * filter type. Rows that are mostly runs of the same colour (background
+   * and line art, most of a depiction) are not filtered, deflate finds the
+   * repeats between rows and this is smaller than the filtered residuals.
+   * Otherwise the five PNG filters are applied and the one with the minimum
+   * sum of absolute (signed) differences is used.
+   */
+  private static byte[] filter(byte[] curr, byte[] prev, int bpp, byte[][] dst) {
+    int same = 0;
+    for (int i = bpp; i < curr.length; i++) {
+      if (curr[i] == curr[i - bpp])
+        same++;
+    }
+    if (4 * same >= 3 * curr.length)
+      return filterNone(curr, dst[0]);
+
+    byte[] none = dst[0], sub = dst[1], up = dst[2], avg = dst[3], paeth = dst[4];
+    none[0] = 0;
+    sub[0] = 1;
+    up[0] = 2;
+    avg[0] = 3;
+    paeth[0] = 4;
+    long sumNone = 0, sumSub = 0, sumUp = 0, sumAvg = 0, sumPaeth = 0;
+    for (int i = 0; i < curr.length; i++) {
+      int x = curr[i] & 0xff;
+      int a = i >= bpp ? curr[i - bpp] & 0xff : 0;
+      int b = prev[i] & 0xff;
+      int c = i >= bpp ? prev[i - bpp] & 0xff : 0;
+      byte v;
+      v = (byte) x;
+      none[i + 1] = v;
+      sumNone += Math.abs(v);
+      v = (byte) (x - a);
+      sub[i + 1] = v;
+      sumSub += Math.abs(v);
+      v = (byte) (x - b);
+      up[i + 1] = v;
+      sumUp += Math.abs(v);
+      v = (byte) (x - ((a + b) >> 1));
+      avg[i + 1] = v;
+      sumAvg += Math.abs(v);
+      v = (byte) (x - paethPredictor(a, b, c));
+      paeth[i + 1] = v;
+      sumPaeth += Math.abs(v);
+    }
+    byte[] best = none;
+    long min = sumNone;
+    if (sumSub < min) {
+      best = sub;
+      min = sumSub;
+    }
+    if (sumUp < min) {
+      best = up;
+      min = sumUp;
+    }
+    if (sumAvg < min) {
+      best = avg;
+      min = sumAvg;
+    }
+    if (sumPaeth < min)
+      best = paeth;
+    return best;
+  }
+
+  private static int paethPredictor(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc)
+      return a;
+    if (pb <= pc)
+      return b;
+    return c;
+  }
+
+  /**
+   * Can the pixels be read directly from the raster, true for the standard
+   * (non-premultiplied) interleaved byte images.
+   */
+  private static boolean isDirect(BufferedImage img) {
+    int type = img.getType();
+    if (type != BufferedImage.TYPE_4BYTE_ABGR && type != BufferedImage.TYPE_3BYTE_BGR)
+      return false;
+    Raster raster = img.getRaster();
+    return raster.getDataBuffer() instanceof DataBufferByte &&
+           raster.getSampleModel() instanceof ComponentSampleModel &&
+           raster.getSampleModelTranslateX() == 0 &&
+           raster.getSampleModelTranslateY() == 0;
+  }
+
+  /**
+   * Read a row of the image as RGB or RGBA bytes.
+   */
+  private static void readRow(BufferedImage img, int y, int channels, byte[] dst, int[] argb) {
+    int width = img.getWidth();
+    if (isDirect(img)) {
+      Raster raster = img.getRaster();
+      ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int[] offsets = sm.getBandOffsets();
+      int pixelStride = sm.getPixelStride();
+      int src = y * sm.getScanlineStride();
+      boolean hasAlpha = offsets.length == 4;
+      for (int x = 0, j = 0; x < width; x++, src += pixelStride) {
+        dst[j++] = data[src + offsets[0]];
+        dst[j++] = data[src + offsets[1]];
+        dst[j++] = data[src + offsets[2]];
+        if (channels == 4)
+          dst[j++] = hasAlpha ? data[src + offsets[3]] : (byte) 0xff;
+      }
+    } else {
+      img.getRGB(0, y, width, 1, argb, 0, width);
+      for (int x = 0, j = 0; x < width; x++) {
+        int p = argb[x];
+        dst[j++] = (byte) (p >>> 16);
+        dst[j++] = (byte) (p >>> 8);
+        dst[j++] = (byte) p;
+        if (channels == 4)
+          dst[j++] = (byte) (p >>> 24);
+      }
+    }
+  }
+
+  /**
+   * Read a row of the image as ARGB ints, fully transparent pixels are all
+   * set to 0 as their colour does not matter.
+   */
+  private static void readArgb(BufferedImage img, int y, int[] argb) {
+    int width = img.getWidth();
+    if (isDirect(img)) {
+      Raster raster = img.getRaster();
+      ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int[] offsets = sm.getBandOffsets();
+      int pixelStride = sm.getPixelStride();
+      int src = y * sm.getScanlineStride();
+      boolean hasAlpha = offsets.length == 4;
+      for (int x = 0; x < width; x++, src += pixelStride) {
+        int a = hasAlpha ? data[src + offsets[3]] & 0xff : 0xff;
+        argb[x] = a == 0 ? 0 : a << 24 |
+                               (data[src + offsets[0]] & 0xff) << 16 |
+                               (data[src + offsets[1]] & 0xff) << 8 |
+                               (data[src + offsets[2]] & 0xff);
+      }
+    } else {
+      img.getRGB(0, y, width, 1, argb, 0, width);
+      for (int x = 0; x < width; x++) {
+        if ((argb[x] >>> 24) == 0)
+          argb[x] = 0;
+      }
+    }
+  }
+
+  /**
+   * The colour palette of an image, and the palette index of each colour.
+   */
+  static final class Palette {
+
+    private static final int MAX_COLORS = 256;
+
+    // ARGB colour of each palette entry, the transparent ones first
+    private final int[]    colors;
+    private final int      numTransparent;
+    // palette index of each colour in the image
+    private final IntTable index;
+
+    private Palette(int[] colors, int numTransparent, IntTable index) {
+      this.colors = colors;
+      this.numTransparent = numTransparent;
+      this.index = index;
+    }
+
+    /**
+     * Build the palette of an image.
+     *
+     * @param img      the image
+     * @param quantize reduce the colours if there are more than 256
+     * @return the palette, or null if there are too many colours and
+     *         quantize was not requested
+     */
+    static Palette of(BufferedImage img, boolean quantize) {
+      int width = img.getWidth();
+      int[] argb = new int[width];
+      IntTable counts = new IntTable(MAX_COLORS);
+      for (int y = 0; y < img.getHeight(); y++) {
+        readArgb(img, y, argb);
+        // count runs of the same colour with one lookup
+        int run = 1;
+        for (int x = 1; x < width; x++) {
+          if (argb[x] == argb[x - 1]) {
+            run++;
+          } else {
+            counts.add(argb[x - 1], run);
+            run = 1;
+          }
+        }
+        counts.add(argb[width - 1], run);
+        if (!quantize && counts.size() > MAX_COLORS)
+          return null;
+      }
+      if (counts.size() <= MAX_COLORS)
+        return exact(counts);
+      return reduced(counts);
+    }
+
+    private static Palette exact(IntTable counts) {
+      int[] keys = counts.keys();
+      int[] colors = new int[keys.length];
+      int numTransparent = 0;
+      for (int key : keys) {
+        if ((key >>> 24) != 0xff)
+          numTransparent++;
+      }
+      int t = 0, o = numTransparent;
+      IntTable index = new IntTable(keys.length);
+      for (int key : keys) {
+        int i = (key >>> 24) != 0xff ? t++ : o++;
+        colors[i] = key;
+        index.put(key, i);
+      }
+      return new Palette(colors, numTransparent, index);
+    }
+
+    /**
+     * Reduce the number of colours by dropping low bits of each channel
+     * until there are at most 256 groups, the palette entry of each group is
+     * the (pixel count weighted) mean of its colours.
+     */
+    private static Palette reduced(IntTable counts) {
+      int[] keys = counts.keys();
+      for (int shift = 1; shift < 8; shift++) {
+        IntTable groups = new IntTable(MAX_COLORS);
+        for (int key : keys)
+          groups.increment(reduce(key, shift));
+        if (groups.size() > MAX_COLORS)
+          continue;
+        int[] groupKeys = groups.keys();
+        IntTable groupIdx = new IntTable(groupKeys.length);
+        for (int i = 0; i < groupKeys.length; i++)
+          groupIdx.put(groupKeys[i], i);
+        long[][] sums = new long[groupKeys.length][5];
+        for (int key : keys) {
+          long[] sum = sums[groupIdx.get(reduce(key, shift))];
+          long n = counts.get(key);
+          sum[0] += n * (key >>> 24);
+          sum[1] += n * ((key >> 16) & 0xff);
+          sum[2] += n * ((key >> 8) & 0xff);
+          sum[3] += n * (key & 0xff);
+          sum[4] += n;
+        }
+        int[] mean = new int[groupKeys.length];
+        int numTransparent = 0;
+        for (int i = 0; i < mean.length; i++) {
+          long[] sum = sums[i];
+          long n = sum[4];
+          int a = (int) ((sum[0] + n / 2) / n);
+          mean[i] = a == 0 ? 0 : a << 24 |
+                                 (int) ((sum[1] + n / 2) / n) << 16 |
+                                 (int) ((sum[2] + n / 2) / n) << 8 |
+                                 (int) ((sum[3] + n / 2) / n);
+          if (a != 0xff)
+            numTransparent++;
+        }
+        // transparent entries first so the tRNS chunk is short
+        int[] order = new int[mean.length];
+        int[] colors = new int[mean.length];
+        int t = 0, o = numTransparent;
+        for (int i = 0; i < mean.length; i++) {
+          order[i] = (mean[i] >>> 24) != 0xff ? t++ : o++;
+          colors[order[i]] = mean[i];
+        }
+        IntTable index = new IntTable(keys.length);
+        for (int key : keys)
+          index.put(key, order[groupIdx.get(reduce(key, shift))]);
+        return new Palette(colors, numTransparent, index);
+      }
+      throw new IllegalStateException("Could not reduce palette");
+    }
+
+    private static int reduce(int argb, int shift) {
+      int mask = (0xff << shift) & 0xff;
+      mask = mask << 24 | mask << 16 | mask << 8 | mask;
+      return argb & mask;
+    }
+
+    int bitDepth() {
+      if (colors.length <= 2)
+        return 1;
+      if (colors.length <= 4)
+        return 2;
+      if (colors.length <= 16)
+        return 4;
+      return 8;
+    }
+
+    Bytes plte() {
+      Bytes plte = new Bytes(3 * colors.length);
+      for (int c : colors) {
+        plte.write(c >> 16);
+        plte.write(c >> 8);
+        plte.write(c);
+      }
+      return plte;
+    }
+
+    Bytes trns() {
+      Bytes trns = new Bytes(numTransparent);
+      for (int i = 0; i < numTransparent; i++)
+        trns.write(colors[i] >>> 24);
+      return trns;
+    }
+
+    /**
+     * Read a row of the image as packed palette indices.
+     */
+    void readRow(BufferedImage img, int y, int bitDepth, byte[] dst, int[] argb) {
+      readArgb(img, y, argb);
+      int width = img.getWidth();
+      if (bitDepth == 8) {
+        int last = argb[0] + 1, idx = 0;
+        for (int x = 0; x < width; x++) {
+          if (argb[x] != last) {
+            last = argb[x];
+            idx = index.get(last);
+          }
+          dst[x] = (byte) idx;
+        }
+      } else {
+        Arrays.fill(dst, (byte) 0);
+        int perByte = 8 / bitDepth;
+        for (int x = 0; x < width; x++) {
+          int idx = index.get(argb[x]);
+          int shift = 8 - bitDepth * (1 + x % perByte);
+          dst[x / perByte] |= (byte) (idx << shift);
+        }
+      }
+    }
+  }
+
+  /**
+   * An open addressing hash table of int keys to int values (counts or
+   * indices), avoids boxing the colour of every pixel.
+   */
+  static final class IntTable {
+    private int[]     keys;
+    private int[]     vals;
+    private boolean[] used;
+    private int       size;
+
+    IntTable(int expected) {
+      int cap = 16;
+      while (cap < 2 * expected)
+        cap <<= 1;
+      keys = new int[cap];
+      vals = new int[cap];
+      used = new boolean[cap];
+    }
+
+    private int slot(int key) {
+      int mask = keys.length - 1;
+      int i = (key * 0x9E3779B9) >>> 16 & mask;
+      while (used[i] && keys[i] != key)
+        i = (i + 1) & mask;
+      return i;
+    }
+
+    void increment(int key) {
+      add(key, 1);
+    }
+
+    void add(int key, int n) {
+      int i = slot(key);
+      if (!used[i]) {
+        if (2 * (size + 1) > keys.length) {
+          grow();
+          i = slot(key);
+        }
+        used[i] = true;
+        keys[i] = key;
+        size++;
+      }
+      vals[i] += n;
+    }
+
+    void put(int key, int val) {
+      int i = slot(key);
+      if (!used[i]) {
+        if (2 * (size + 1) > keys.length) {
+          grow();
+          i = slot(key);
+        }
+        used[i] = true;
+        keys[i] = key;
+        size++;
+      }
+      vals[i] = val;
+    }
+
+    int get(int key) {
+      int i = slot(key);
+      return used[i] ? vals[i] : 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int[] keys() {
+      int[] res = new int[size];
+      for (int i = 0, j = 0; i < keys.length; i++) {
+        if (used[i])
+          res[j++] = keys[i];
+      }
+      return res;
+    }
+
+    private void grow() {
+      int[] oldKeys = keys;
+      int[] oldVals = vals;
+      boolean[] oldUsed = used;
+      keys = new int[2 * oldKeys.length];
+      vals = new int[2 * oldKeys.length];
+      used = new boolean[2 * oldKeys.length];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i])
+          put(oldKeys[i], oldVals[i]);
+      }
+    }
+  }
+
+  /**
+   * Is every pixel of the image fully opaque, if so the alpha channel is
+   * not written.
+   */
+  private static boolean isOpaque(BufferedImage img) {
+    if (!img.getColorModel().hasAlpha())
+      return true;
+    int width = img.getWidth();
+    if (isDirect(img)) {
+      Raster raster = img.getRaster();
+      ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+      byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+      int alpha = sm.getBandOffsets()[3];
+      int pixelStride = sm.getPixelStride();
+      for (int y = 0; y < img.getHeight(); y++) {
+        int src = y * sm.getScanlineStride() + alpha;
+        for (int x = 0; x < width; x++, src += pixelStride) {
+          if (data[src] != (byte) 0xff)
+            return false;
+        }
+      }
+    } else {
+      int[] argb = new int[width];
+      for (int y = 0; y < img.getHeight(); y++) {
+        img.getRGB(0, y, width, 1, argb, 0, width);
+        for (int p : argb) {
+          if ((p >>> 24) != 0xff)
+            return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The second byte of the zlib header, the compression level hint and
+   * check bits.
+   */
+  private static int zlibFlags(int level) {
+    int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+    int flg = flevel << 6;
+    return flg + 31 - ((0x78 * 256 + flg) % 31);
+  }
+
+  /**
+   * Combine the Adler-32 checksums of two consecutive sequences, the second
+   * of the given length (as zlib's adler32_combine).
+   */
+  static long adler32Combine(long adler1, long adler2, long len2) {
+    long rem = len2 % ADLER_BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % ADLER_BASE;
+    sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+    if (sum1 >= ADLER_BASE)
+      sum1 -= ADLER_BASE;
+    if (sum1 >= ADLER_BASE)
+      sum1 -= ADLER_BASE;
+    if (sum2 >= 2L * ADLER_BASE)
+      sum2 -= 2L * ADLER_BASE;
+    if (sum2 >= ADLER_BASE)
+      sum2 -= ADLER_BASE;
+    return (sum2 << 16) | sum1;
+  }
+
+  private static void writeInt(OutputStream out, int v) throws IOException {
+    out.write(v >>> 24);
+    out.write(v >>> 16);
+    out.write(v >>> 8);
+    out.write(v);
+  }
+
+  private static void writeChunk(OutputStream out, String type, Bytes data) throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data.array(), 0, data.size());
+    writeInt(out, data.size());
+    out.write(typeBytes);
+    data.writeTo(out);
+    writeInt(out, (int) crc.getValue());
+  }
+
+  /**
+   * The deflated data of a band of rows, and the checksum and length of the
+   * (filtered) input.
+   */
+  private static final class Band {
+    private final Bytes data;
+    private final long  adler;
+    private final long  length;
+
+    Band(Bytes data, long adler, long length) {
+      this.data = data;
+      this.adler = adler;
+      this.length = length;
+    }
+  }
+
+  /**
+   * A byte array output stream that exposes its buffer.
+   */
+  private static final class Bytes extends ByteArrayOutputStream {
+
+    Bytes(int size) {
+      super(size);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+  }
+}
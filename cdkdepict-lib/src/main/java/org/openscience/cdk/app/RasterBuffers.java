@@ -0,0 +1,107 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-thread reusable buffers that raster images (PNG/JPG/GIF) are encoded
+ * into. A fresh {@link ByteArrayOutputStream} starts small and doubles as the
+ * image is written, leaving a trail of garbage several times the size of the
+ * encoded image, for large images (w=h=1000) this is megabytes per request.
+ * Reusing a buffer per thread avoids this, buffers that have grown larger
+ * than the retained limit are dropped after use so an occasional huge image
+ * does not pin memory.
+ */
+final class RasterBuffers {
+
+  private final int                 maxRetained;
+  private final ThreadLocal<Buffer> local = new ThreadLocal<>();
+
+  private final LongAdder acquired       = new LongAdder();
+  private final LongAdder reusedBytes    = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+
+  /**
+   * Create the buffers.
+   *
+   * @param maxRetained max capacity of a buffer kept for reuse (bytes)
+   */
+  RasterBuffers(int maxRetained) {
+    this.maxRetained = maxRetained;
+  }
+
+  /**
+   * Get the (empty) buffer of the current thread, it must be released
+   * before the buffer is acquired again on this thread.
+   *
+   * @return the buffer
+   */
+  Buffer acquire() {
+    acquired.increment();
+    Buffer buf = local.get();
+    if (buf == null || buf.inUse) {
+      buf = new Buffer();
+      buf.initial = 0;
+      if (local.get() == null)
+        local.set(buf);
+    } else {
+      buf.reset();
+      buf.initial = buf.capacity();
+    }
+    buf.inUse = true;
+    return buf;
+  }
+
+  /**
+   * Release a buffer back to the current thread, and account the bytes that
+   * were written into existing capacity (reused) or required the buffer to
+   * grow (allocated).
+   *
+   * @param buf the buffer
+   */
+  void release(Buffer buf) {
+    int capacity = buf.capacity();
+    reusedBytes.add(Math.min(buf.initial, buf.size()));
+    allocatedBytes.add(capacity - buf.initial);
+    buf.inUse = false;
+    if (capacity <= maxRetained)
+      local.set(buf);
+    else
+      local.remove();
+  }
+
+  long acquiredCount() {
+    return acquired.sum();
+  }
+
+  long reusedBytes() {
+    return reusedBytes.sum();
+  }
+
+  long allocatedBytes() {
+    return allocatedBytes.sum();
+  }
+
+  /**
+   * A byte array output stream that exposes its capacity.
+   */
+  static final class Buffer extends ByteArrayOutputStream {
+
+    private boolean inUse;
+    private int     initial;
+
+    Buffer() {
+      super(64 * 1024);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+}
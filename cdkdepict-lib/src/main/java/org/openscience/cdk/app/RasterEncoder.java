@@ -0,0 +1,29 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a rendered raster depiction to an image format.
+ */
+interface RasterEncoder {
+
+  /**
+   * Encode an image.
+   *
+   * @param img   the image
+   * @param fmt   the format (lower case), e.g. png
+   * @param level compression level 0 (fastest) to 9 (smallest), encoders
+   *              without a compression level ignore it
+   * @param out   the output stream
+   * @throws IOException the image could not be written
+   */
+  void write(BufferedImage img, String fmt, int level, OutputStream out) throws IOException;
+}
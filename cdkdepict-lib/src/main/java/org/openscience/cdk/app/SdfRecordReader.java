@@ -0,0 +1,193 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Iterates over the records of an SD file. Each record's molfile is
+ * returned as text (to be parsed, in parallel, as any other input) along
+ * with a title, either the molfile header line or the value of a data
+ * field. Only one record is held at a time and a record larger than the
+ * limit is returned as an error without being held, so memory use does
+ * not depend on the size of the file. A record that can not be parsed does
+ * not stop the iteration.
+ */
+final class SdfRecordReader {
+
+  /**
+   * A record of an SD file.
+   */
+  static final class Record {
+
+    private final int    number;
+    private final String molfile;
+    private final String title;
+
+    private Record(int number, String molfile, String title) {
+      this.number = number;
+      this.molfile = molfile;
+      this.title = title;
+    }
+
+    /**
+     * The position of the record in the file, the first is 1.
+     *
+     * @return the record number
+     */
+    int number() {
+      return number;
+    }
+
+    /**
+     * The molfile of the record, null if the record was too large.
+     *
+     * @return the molfile
+     */
+    String molfile() {
+      return molfile;
+    }
+
+    /**
+     * The title of the record, empty if it has none.
+     *
+     * @return the title
+     */
+    String title() {
+      return title;
+    }
+  }
+
+  private final Reader        rdr;
+  private final String        titleField;
+  private final long          maxRecordSize;
+  private final char[]        buf  = new char[8192];
+  private final StringBuilder line = new StringBuilder();
+  private       int           pos, lim;
+  private       boolean       lineTooLong;
+  private       int           count;
+
+  /**
+   * Create a reader of SD file records.
+   *
+   * @param rdr           the SD file
+   * @param titleField    data field with the title of a record, null to use
+   *                      the molfile header line
+   * @param maxRecordSize max size (in characters) of a record's molfile
+   */
+  SdfRecordReader(Reader rdr, String titleField, long maxRecordSize) {
+    this.rdr = rdr;
+    this.titleField = titleField != null && !titleField.isEmpty() ? titleField : null;
+    this.maxRecordSize = maxRecordSize;
+  }
+
+  /**
+   * Read the next record, empty records (e.g. '$$$$' on its own line) are
+   * skipped.
+   *
+   * @return the record, or null if there are no more
+   * @throws IOException the SD file could not be read
+   */
+  Record next() throws IOException {
+    while (true) {
+      StringBuilder mol      = new StringBuilder();
+      String        title    = null;
+      boolean       tooLarge = false;
+      boolean       inData   = false; // past the end of the molfile
+      boolean       inField  = false; // next line is the title field value
+      boolean       eof      = true;
+      int           numLines = 0;
+      while (readLine()) {
+        if (isLine("$$$$")) {
+          eof = false;
+          break;
+        }
+        if (!inData) {
+          if (titleField == null && numLines == 0)
+            title = line.toString().trim();
+          if (lineTooLong || mol.length() + line.length() + 1 > maxRecordSize)
+            tooLarge = true;
+          if (!tooLarge)
+            mol.append(line).append('\n');
+          if (isLine("M  END"))
+            inData = true;
+        } else if (inField) {
+          title = line.toString().trim();
+          inField = false;
+        } else if (titleField != null && title == null && line.length() > 0 && line.charAt(0) == '>') {
+          inField = titleField.equals(fieldName());
+        }
+        numLines++;
+      }
+      if (inData || tooLarge || !mol.toString().trim().isEmpty())
+        return new Record(++count, tooLarge ? null : mol.toString(), title != null ? title : "");
+      // only blank lines, the end of the file or an empty record
+      if (eof)
+        return null;
+    }
+  }
+
+  private boolean isLine(String str) {
+    int len = line.length();
+    // ignore trailing whitespace
+    while (len > str.length() && Character.isWhitespace(line.charAt(len - 1)))
+      len--;
+    if (len != str.length())
+      return false;
+    for (int i = 0; i < len; i++) {
+      if (line.charAt(i) != str.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The name of a data header line, e.g. '&gt;  &lt;ID&gt; (MD-123)'.
+   */
+  private String fieldName() {
+    int beg = line.indexOf("<");
+    int end = beg < 0 ? -1 : line.indexOf(">", beg + 1);
+    return end < 0 ? null : line.substring(beg + 1, end);
+  }
+
+  /**
+   * Read the next line into the line buffer, at most maxRecordSize
+   * characters of the line are kept.
+   *
+   * @return false if there are no more lines
+   */
+  private boolean readLine() throws IOException {
+    line.setLength(0);
+    lineTooLong = false;
+    boolean any = false;
+    while (true) {
+      if (pos == lim) {
+        lim = rdr.read(buf, 0, buf.length);
+        pos = 0;
+        if (lim <= 0) {
+          lim = 0;
+          return any;
+        }
+      }
+      any = true;
+      int beg = pos;
+      while (pos < lim && buf[pos] != '\n')
+        pos++;
+      if (line.length() + (pos - beg) <= maxRecordSize)
+        line.append(buf, beg, pos - beg);
+      else
+        lineTooLong = true;
+      if (pos < lim) {
+        pos++; // skip '\n'
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+          line.setLength(line.length() - 1);
+        return true;
+      }
+    }
+  }
+}
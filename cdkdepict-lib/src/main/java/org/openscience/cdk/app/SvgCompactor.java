@@ -0,0 +1,826 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a generated SVG into a more compact but equivalent form:
+ * <ul>
+ *   <li>coordinates are rounded to a configurable number of decimal places
+ *       and path data is minified</li>
+ *   <li>filled paths that occur more than once at different positions (the
+ *       glyphs of atom labels) are defined once in {@code <defs>} and placed
+ *       with {@code <use>}</li>
+ *   <li>runs of sibling stroked lines/paths with the same style (and no
+ *       id/class) are merged into a single path</li>
+ *   <li>fill/stroke/stroke-width are resolved and only written where they
+ *       differ from the inherited value, the most common values are set once
+ *       on the outer group</li>
+ * </ul>
+ * The input is expected to be the simple XML the CDK SVG writer produces,
+ * elements in {@code <defs>}, {@code <clipPath>} etc. and documents with CSS
+ * styling are passed through without resolving the inherited styles.
+ */
+final class SvgCompactor {
+
+  static final int DEFAULT_PRECISION = 2;
+  static final int MAX_PRECISION     = 6;
+
+  // glyph paths shorter than this are not worth a <use>
+  private static final int MIN_SHARED_LENGTH = 24;
+
+  private static final String FILL         = "fill";
+  private static final String STROKE       = "stroke";
+  private static final String STROKE_WIDTH = "stroke-width";
+  private static final String NONE         = "none";
+
+  private static final Set<String> PAINTED    = new HashSet<>(Arrays.asList("path", "line", "rect", "circle", "ellipse",
+                                                                            "polygon", "polyline", "use", "text", "tspan"));
+  private static final Set<String> REFERENCED = new HashSet<>(Arrays.asList("defs", "clipPath", "mask", "pattern",
+                                                                            "marker", "symbol", "linearGradient",
+                                                                            "radialGradient"));
+  private static final Set<String> GEOMETRY   = new HashSet<>(Arrays.asList("x", "y", "x1", "y1", "x2", "y2", "width", "height",
+                                                                            "cx", "cy", "r", "rx", "ry"));
+  // presentation attributes that are inherited (other than fill/stroke/stroke-width)
+  private static final Set<String> INHERITED  = new HashSet<>(Arrays.asList("fill-rule", "fill-opacity", "stroke-linecap",
+                                                                            "stroke-linejoin", "stroke-miterlimit",
+                                                                            "stroke-opacity", "font-family", "font-size",
+                                                                            "font-style", "font-weight"));
+
+  private final int    precision;
+  private final double scale;
+
+  /**
+   * Create a compactor.
+   *
+   * @param precision number of decimal places of coordinates (0-6)
+   */
+  SvgCompactor(int precision) {
+    if (precision < 0 || precision > MAX_PRECISION)
+      throw new IllegalArgumentException("SVG precision must be between 0 and " + MAX_PRECISION);
+    this.precision = precision;
+    this.scale = Math.pow(10, precision);
+  }
+
+  /**
+   * Compact an SVG document.
+   *
+   * @param svg the SVG
+   * @return the compacted SVG
+   * @throws IllegalArgumentException the SVG could not be parsed
+   */
+  String compact(String svg) {
+    List<Node> nodes = parse(svg);
+    boolean resolve = resolveStyles(nodes);
+    nodes = mergePaths(nodes, resolve);
+    Map<String, Glyph> glyphs = shareGlyphs(nodes, resolve);
+    if (resolve)
+      hoistStyles(nodes);
+    return write(nodes, glyphs);
+  }
+
+  /* Parsing */
+
+  private static final int RAW   = 0; // declaration, comment, text...
+  private static final int START = 1;
+  private static final int END   = 2;
+  private static final int EMPTY = 3;
+
+  private static final class Node {
+    final int                 kind;
+    String                    name;
+    final Map<String, String> attrs;
+    final String              raw;
+    // resolved paint (resolve mode only)
+    String                    fill, stroke, strokeWidth;
+    // only painted elements that are not in a <defs> etc. have resolved paint
+    boolean                   painted;
+    // the outer group that inherited styles are hoisted to, and whether a
+    // painted element is inside it (and so inherits the hoisted values)
+    boolean                   root, inRoot;
+    // the parsed path data (paths and merged lines)
+    PathData                  path;
+    Glyph                     glyph;
+
+    Node(int kind, String name, Map<String, String> attrs, String raw) {
+      this.kind = kind;
+      this.name = name;
+      this.attrs = attrs;
+      this.raw = raw;
+    }
+  }
+
+  private static List<Node> parse(String svg) {
+    List<Node> nodes = new ArrayList<>();
+    int len = svg.length();
+    int pos = 0;
+    while (pos < len) {
+      char c = svg.charAt(pos);
+      if (c != '<') {
+        int end = svg.indexOf('<', pos);
+        if (end < 0)
+          end = len;
+        String text = svg.substring(pos, end);
+        if (!text.trim().isEmpty())
+          nodes.add(new Node(RAW, null, null, text));
+        pos = end;
+      } else if (svg.startsWith("<!--", pos)) {
+        pos = skipTo(svg, pos, "-->");
+      } else if (svg.startsWith("<![CDATA[", pos)) {
+        // may contain '<' and '>'
+        int end = skipTo(svg, pos, "]]>");
+        nodes.add(new Node(RAW, null, null, svg.substring(pos, end)));
+        pos = end;
+      } else if (svg.startsWith("<?", pos) || svg.startsWith("<!", pos)) {
+        int end = skipTo(svg, pos, ">");
+        // a DOCTYPE may have an internal subset, e.g. <!DOCTYPE svg [<!ENTITY ...>]>
+        int subset = svg.indexOf('[', pos);
+        if (svg.startsWith("<!DOCTYPE", pos) && subset >= 0 && subset < end)
+          end = skipTo(svg, subset, "]>");
+        nodes.add(new Node(RAW, null, null, svg.substring(pos, end)));
+        pos = end;
+      } else if (svg.startsWith("</", pos)) {
+        int end = skipTo(svg, pos, ">");
+        nodes.add(new Node(END, svg.substring(pos + 2, end - 1).trim(), null, null));
+        pos = end;
+      } else {
+        pos = parseTag(svg, pos + 1, nodes);
+      }
+    }
+    return nodes;
+  }
+
+  private static int skipTo(String svg, int pos, String token) {
+    int end = svg.indexOf(token, pos);
+    if (end < 0)
+      throw new IllegalArgumentException("Unterminated SVG markup at " + pos);
+    return end + token.length();
+  }
+
+  private static int parseTag(String svg, int pos, List<Node> nodes) {
+    int len = svg.length();
+    int beg = pos;
+    while (pos < len && !isSpace(svg.charAt(pos)) && svg.charAt(pos) != '>' && svg.charAt(pos) != '/')
+      pos++;
+    String name = svg.substring(beg, pos);
+    Map<String, String> attrs = new LinkedHashMap<>();
+    while (pos < len) {
+      char c = svg.charAt(pos);
+      if (isSpace(c)) {
+        pos++;
+      } else if (c == '>') {
+        nodes.add(new Node(START, name, attrs, null));
+        return pos + 1;
+      } else if (c == '/' && pos + 1 < len && svg.charAt(pos + 1) == '>') {
+        nodes.add(new Node(EMPTY, name, attrs, null));
+        return pos + 2;
+      } else {
+        int eq = svg.indexOf('=', pos);
+        if (eq < 0 || eq + 1 >= len)
+          break;
+        String key = svg.substring(pos, eq).trim();
+        char quote = svg.charAt(eq + 1);
+        if (quote != '\'' && quote != '"')
+          break;
+        int end = svg.indexOf(quote, eq + 2);
+        if (end < 0)
+          break;
+        attrs.put(key, svg.substring(eq + 2, end));
+        pos = end + 1;
+      }
+    }
+    throw new IllegalArgumentException("Malformed SVG element: " + name);
+  }
+
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  /* Styles */
+
+  /**
+   * Round the coordinates, drop inherited attributes that are redundant and
+   * resolve the fill/stroke/stroke-width of each painted element. The
+   * fill/stroke/stroke-width attributes are then removed from all elements,
+   * they are written back only where needed by
+   * {@link #hoistStyles(List)}.
+   *
+   * @return the styles were resolved, false if the document uses CSS
+   */
+  private boolean resolveStyles(List<Node> nodes) {
+    boolean resolve = true;
+    for (Node node : nodes) {
+      if (node.kind == RAW || node.kind == END)
+        continue;
+      if ("style".equals(node.name) || node.attrs.containsKey("style"))
+        resolve = false;
+      if ("path".equals(node.name) && node.attrs.containsKey("d"))
+        node.path = PathData.parse(node.attrs.get("d"));
+    }
+
+    // stack of inherited values, starts with the SVG defaults
+    List<Map<String, String>> stack = new ArrayList<>();
+    Map<String, String> defaults = new HashMap<>();
+    defaults.put(FILL, "#000000");
+    defaults.put(STROKE, NONE);
+    defaults.put(STROKE_WIDTH, "1");
+    stack.add(defaults);
+    int referenced = 0;
+    boolean hasRoot = false;
+    int rootDepth = -1; // stack size outside the root, -1 if not in it
+    for (Node node : nodes) {
+      if (node.kind == RAW)
+        continue;
+      if (node.kind == END) {
+        stack.remove(stack.size() - 1);
+        if (REFERENCED.contains(node.name))
+          referenced--;
+        if (stack.size() == rootDepth)
+          rootDepth = -1;
+        continue;
+      }
+
+      for (Map.Entry<String, String> e : node.attrs.entrySet()) {
+        if (GEOMETRY.contains(e.getKey()))
+          e.setValue(formatNumbers(e.getValue()));
+      }
+
+      Map<String, String> inherited = stack.get(stack.size() - 1);
+      Map<String, String> current = new HashMap<>(inherited);
+      for (Map.Entry<String, String> e : node.attrs.entrySet()) {
+        if (e.getKey().equals(FILL) || e.getKey().equals(STROKE) || e.getKey().equals(STROKE_WIDTH) ||
+            INHERITED.contains(e.getKey()))
+          current.put(e.getKey(), normColor(e.getValue()));
+      }
+      // drop inherited values that are redundant
+      if (referenced == 0 && !"svg".equals(node.name)) {
+        node.attrs.entrySet().removeIf(e -> INHERITED.contains(e.getKey()) &&
+                                            normColor(e.getValue()).equals(inherited.get(e.getKey())));
+      }
+
+      if (REFERENCED.contains(node.name) && node.kind == START)
+        referenced++;
+      if (resolve && referenced == 0) {
+        if (!hasRoot && "g".equals(node.name) && stack.size() == 2 && node.kind == START) {
+          node.root = true;
+          hasRoot = true;
+          rootDepth = stack.size();
+        }
+        if (PAINTED.contains(node.name)) {
+          node.painted = true;
+          node.inRoot = rootDepth >= 0 && stack.size() > rootDepth;
+          node.fill = current.get(FILL);
+          node.stroke = current.get(STROKE);
+          node.strokeWidth = current.get(STROKE_WIDTH);
+        }
+        // painted elements have their resolved values written back as needed
+        node.attrs.remove(FILL);
+        node.attrs.remove(STROKE);
+        node.attrs.remove(STROKE_WIDTH);
+      }
+
+      if (node.kind == START)
+        stack.add(current);
+    }
+    return resolve;
+  }
+
+  /**
+   * Choose the most common fill/stroke/stroke-width of the painted elements
+   * in the outer group, set them on the outer group and write the values on
+   * the painted elements that differ. Painted elements outside the outer
+   * group (e.g. a background before it) inherit the SVG defaults.
+   */
+  private static void hoistStyles(List<Node> nodes) {
+    Map<String, Integer> fills = new HashMap<>();
+    Map<String, Integer> strokes = new HashMap<>();
+    Map<String, Integer> widths = new HashMap<>();
+    Node root = null;
+    for (Node node : nodes) {
+      if (node.root)
+        root = node;
+      if (!node.painted || !node.inRoot)
+        continue;
+      if (needsFill(node))
+        fills.merge(node.fill, 1, Integer::sum);
+      strokes.merge(node.stroke, 1, Integer::sum);
+      if (!NONE.equals(node.stroke))
+        widths.merge(node.strokeWidth, 1, Integer::sum);
+    }
+
+    // without an outer group the inherited values are the defaults
+    String fill = "#000000";
+    String stroke = NONE;
+    String width = "1";
+    if (root != null) {
+      fill = mostCommon(fills, fill);
+      stroke = mostCommon(strokes, stroke);
+      width = mostCommon(widths, width);
+      if (!fill.equals("#000000"))
+        root.attrs.put(FILL, shortColor(fill));
+      if (!stroke.equals(NONE))
+        root.attrs.put(STROKE, shortColor(stroke));
+      if (!width.equals("1"))
+        root.attrs.put(STROKE_WIDTH, width);
+    }
+
+    for (Node node : nodes) {
+      if (!node.painted)
+        continue;
+      String inheritedFill   = node.inRoot ? fill : "#000000";
+      String inheritedStroke = node.inRoot ? stroke : NONE;
+      String inheritedWidth  = node.inRoot ? width : "1";
+      if (needsFill(node) && !node.fill.equals(inheritedFill))
+        node.attrs.put(FILL, shortColor(node.fill));
+      if (!node.stroke.equals(inheritedStroke))
+        node.attrs.put(STROKE, shortColor(node.stroke));
+      if (!NONE.equals(node.stroke) && !node.strokeWidth.equals(inheritedWidth))
+        node.attrs.put(STROKE_WIDTH, node.strokeWidth);
+    }
+  }
+
+  private static boolean needsFill(Node node) {
+    return !"line".equals(node.name);
+  }
+
+  // ties are resolved in favour of the default which needs no attribute
+  private static String mostCommon(Map<String, Integer> counts, String def) {
+    String best = def;
+    int max = counts.getOrDefault(def, 0);
+    for (Map.Entry<String, Integer> e : counts.entrySet()) {
+      if (e.getValue() > max) {
+        best = e.getKey();
+        max = e.getValue();
+      }
+    }
+    return best;
+  }
+
+  private static String normColor(String value) {
+    if (value.length() == 4 && value.charAt(0) == '#') {
+      return ("#" + value.charAt(1) + value.charAt(1) + value.charAt(2) + value.charAt(2)
+              + value.charAt(3) + value.charAt(3)).toUpperCase(Locale.ROOT);
+    }
+    if (value.length() == 7 && value.charAt(0) == '#')
+      return value.toUpperCase(Locale.ROOT);
+    if ("black".equals(value))
+      return "#000000";
+    return value;
+  }
+
+  private static String shortColor(String value) {
+    if (value.length() == 7 && value.charAt(0) == '#' &&
+        value.charAt(1) == value.charAt(2) &&
+        value.charAt(3) == value.charAt(4) &&
+        value.charAt(5) == value.charAt(6))
+      return "#" + value.charAt(1) + value.charAt(3) + value.charAt(5);
+    return value;
+  }
+
+  /* Merging */
+
+  /**
+   * Merge runs of stroked lines/paths (not filled) with the same style into
+   * a single path, elements with an id or class are kept as they are since
+   * they may be referenced.
+   */
+  private static List<Node> mergePaths(List<Node> nodes, boolean resolve) {
+    if (!resolve)
+      return nodes;
+    List<Node> result = new ArrayList<>(nodes.size());
+    int i = 0;
+    while (i < nodes.size()) {
+      Node node = nodes.get(i);
+      if (!isMergeable(node)) {
+        result.add(node);
+        i++;
+        continue;
+      }
+      int j = i + 1;
+      while (j < nodes.size() && isMergeable(nodes.get(j)) && sameStyle(node, nodes.get(j)))
+        j++;
+      if (j - i == 1) {
+        result.add(node);
+      } else {
+        Map<String, String> attrs = new LinkedHashMap<>(node.attrs);
+        attrs.keySet().removeAll(Arrays.asList("x1", "y1", "x2", "y2"));
+        Node merged = new Node(EMPTY, "path", attrs, null);
+        merged.painted = true;
+        merged.inRoot = node.inRoot;
+        merged.fill = NONE;
+        merged.stroke = node.stroke;
+        merged.strokeWidth = node.strokeWidth;
+        merged.path = new PathData();
+        for (int k = i; k < j; k++)
+          merged.path.append(toPath(nodes.get(k)));
+        result.add(merged);
+      }
+      i = j;
+    }
+    return result;
+  }
+
+  private static boolean isMergeable(Node node) {
+    if (node.kind != EMPTY || !node.painted || NONE.equals(node.stroke))
+      return false;
+    if (node.attrs.containsKey("id") || node.attrs.containsKey("class") ||
+        node.attrs.containsKey("transform") || node.attrs.containsKey("opacity") ||
+        node.attrs.containsKey("stroke-opacity") || node.attrs.containsKey("stroke-dasharray"))
+      return false;
+    if ("line".equals(node.name))
+      return node.attrs.containsKey("x1") && node.attrs.containsKey("y1") &&
+             node.attrs.containsKey("x2") && node.attrs.containsKey("y2");
+    return "path".equals(node.name) && node.path != null && NONE.equals(node.fill);
+  }
+
+  private static boolean sameStyle(Node a, Node b) {
+    if (!a.stroke.equals(b.stroke) || !a.strokeWidth.equals(b.strokeWidth))
+      return false;
+    Map<String, String> x = new HashMap<>(a.attrs);
+    Map<String, String> y = new HashMap<>(b.attrs);
+    for (String key : Arrays.asList("x1", "y1", "x2", "y2", "d")) {
+      x.remove(key);
+      y.remove(key);
+    }
+    return x.equals(y);
+  }
+
+  private static PathData toPath(Node node) {
+    if (node.path != null)
+      return node.path;
+    PathData path = new PathData();
+    path.add('M', Double.parseDouble(node.attrs.get("x1")), Double.parseDouble(node.attrs.get("y1")));
+    path.add('L', Double.parseDouble(node.attrs.get("x2")), Double.parseDouble(node.attrs.get("y2")));
+    return path;
+  }
+
+  /* Glyphs */
+
+  private static final class Glyph {
+    String id;
+    int    count;
+    final String d;
+
+    Glyph(String d) {
+      this.d = d;
+    }
+  }
+
+  /**
+   * Find filled paths with the same shape (relative to their first point)
+   * that occur more than once, these are defined once and placed with a
+   * {@code <use>}.
+   */
+  private Map<String, Glyph> shareGlyphs(List<Node> nodes, boolean resolve) {
+    Map<String, Glyph> glyphs = new LinkedHashMap<>();
+    if (!resolve)
+      return glyphs;
+    Set<String> ids = new HashSet<>();
+    for (Node node : nodes) {
+      if (node.attrs != null && node.attrs.containsKey("id"))
+        ids.add(node.attrs.get("id"));
+      if (node.kind != EMPTY || !node.painted || !"path".equals(node.name) || node.path == null ||
+          !NONE.equals(node.stroke) || NONE.equals(node.fill) || node.attrs.containsKey("transform") ||
+          !node.path.isAbsolute())
+        continue;
+      String d = node.path.format(this, node.path.x0(), node.path.y0());
+      if (d.length() < MIN_SHARED_LENGTH)
+        continue;
+      node.glyph = glyphs.computeIfAbsent(d, Glyph::new);
+      node.glyph.count++;
+    }
+    glyphs.values().removeIf(g -> g.count < 2);
+    int num = 0;
+    for (Glyph glyph : glyphs.values()) {
+      do {
+        glyph.id = "g" + ++num;
+      } while (ids.contains(glyph.id));
+    }
+    for (Node node : nodes) {
+      if (node.glyph == null)
+        continue;
+      if (node.glyph.id == null) {
+        node.glyph = null;
+        continue;
+      }
+      Map<String, String> attrs = node.attrs;
+      attrs.remove("d");
+      attrs.put("xlink:href", "#" + node.glyph.id);
+      attrs.put("x", format(node.path.x0()));
+      attrs.put("y", format(node.path.y0()));
+      node.name = "use";
+    }
+    return glyphs;
+  }
+
+  /* Writing */
+
+  private String write(List<Node> nodes, Map<String, Glyph> glyphs) {
+    StringBuilder sb = new StringBuilder();
+    boolean defsWritten = glyphs.isEmpty();
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get(i);
+      if (node.kind == RAW) {
+        sb.append(node.raw);
+        if (node.raw.startsWith("<?") || node.raw.startsWith("<!DOCTYPE"))
+          sb.append('\n');
+        continue;
+      }
+      if (node.kind == END) {
+        sb.append("</").append(node.name).append('>');
+        continue;
+      }
+      if ("svg".equals(node.name) && !glyphs.isEmpty())
+        node.attrs.putIfAbsent("xmlns:xlink", "http://www.w3.org/1999/xlink");
+      // the defs go before the first painted element
+      if (!defsWritten && !"svg".equals(node.name) && !"desc".equals(node.name) && !"title".equals(node.name)) {
+        sb.append("<defs>");
+        for (Glyph glyph : glyphs.values())
+          sb.append("<path id='").append(glyph.id).append("' d='").append(glyph.d).append("'/>");
+        sb.append("</defs>");
+        defsWritten = true;
+      }
+      sb.append('<').append(node.name);
+      if (node.path != null && node.glyph == null)
+        node.attrs.put("d", node.path.format(this, 0, 0));
+      for (Map.Entry<String, String> e : node.attrs.entrySet()) {
+        char quote = e.getValue().indexOf('\'') >= 0 ? '"' : '\'';
+        sb.append(' ').append(e.getKey()).append('=').append(quote).append(e.getValue()).append(quote);
+      }
+      sb.append(node.kind == EMPTY ? "/>" : ">");
+    }
+    sb.append('\n');
+    return sb.toString();
+  }
+
+  /* Numbers */
+
+  String format(double value) {
+    StringBuilder sb = new StringBuilder();
+    appendNumber(sb, value);
+    return sb.toString();
+  }
+
+  void appendNumber(StringBuilder sb, double value) {
+    long scaled = Math.round(value * scale);
+    if (scaled == 0) {
+      sb.append('0');
+      return;
+    }
+    if (scaled < 0) {
+      sb.append('-');
+      scaled = -scaled;
+    }
+    long unit = (long) scale;
+    long ipart = scaled / unit;
+    long fpart = scaled % unit;
+    if (ipart != 0 || fpart == 0)
+      sb.append(ipart);
+    if (fpart != 0) {
+      sb.append('.');
+      int digits = precision;
+      while (fpart % 10 == 0) {
+        fpart /= 10;
+        digits--;
+      }
+      String frac = Long.toString(fpart);
+      for (int k = frac.length(); k < digits; k++)
+        sb.append('0');
+      sb.append(frac);
+    }
+  }
+
+  private String formatNumbers(String value) {
+    try {
+      String str = value.trim();
+      int end = str.length();
+      // keep the units, e.g. 10mm or 50%
+      while (end > 0 && (Character.isLetter(str.charAt(end - 1)) || str.charAt(end - 1) == '%'))
+        end--;
+      return format(Double.parseDouble(str.substring(0, end))) + str.substring(end);
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+  /* Path data */
+
+  /**
+   * Parsed path data, a list of commands with their (absolute or relative)
+   * coordinates.
+   */
+  static final class PathData {
+
+    private final StringBuilder  cmds = new StringBuilder();
+    private final List<double[]> args = new ArrayList<>();
+
+    void add(char cmd, double... vals) {
+      cmds.append(cmd);
+      args.add(vals);
+    }
+
+    void append(PathData other) {
+      int beg = cmds.length();
+      cmds.append(other.cmds);
+      args.addAll(other.args);
+      // a leading relative moveto is relative to the origin, it would be
+      // relative to the end of this path once appended
+      if (beg < cmds.length() && cmds.charAt(beg) == 'm')
+        cmds.setCharAt(beg, 'M');
+    }
+
+    boolean isAbsolute() {
+      if (cmds.length() == 0 || cmds.charAt(0) != 'M')
+        return false;
+      for (int i = 0; i < cmds.length(); i++) {
+        char c = cmds.charAt(i);
+        if (Character.isLowerCase(c) && c != 'z')
+          return false;
+      }
+      return true;
+    }
+
+    double x0() {
+      return args.get(0)[0];
+    }
+
+    double y0() {
+      return args.get(0)[1];
+    }
+
+    private static int numArgs(char cmd) {
+      switch (Character.toUpperCase(cmd)) {
+        case 'M':
+        case 'L':
+        case 'T':
+          return 2;
+        case 'H':
+        case 'V':
+          return 1;
+        case 'S':
+        case 'Q':
+          return 4;
+        case 'C':
+          return 6;
+        case 'A':
+          return 7;
+        case 'Z':
+          return 0;
+        default:
+          return -1;
+      }
+    }
+
+    /**
+     * Parse SVG path data.
+     *
+     * @param d the path data
+     * @return the parsed path, null if the path data was not understood
+     */
+    static PathData parse(String d) {
+      PathData path = new PathData();
+      int[] pos = new int[]{0};
+      char cmd = 0;
+      int len = d.length();
+      while (true) {
+        while (pos[0] < len && (isSpace(d.charAt(pos[0])) || d.charAt(pos[0]) == ','))
+          pos[0]++;
+        if (pos[0] >= len)
+          break;
+        char c = d.charAt(pos[0]);
+        if (Character.isLetter(c) && c != 'e' && c != 'E') {
+          cmd = c;
+          pos[0]++;
+          if (numArgs(cmd) < 0)
+            return null;
+          if (numArgs(cmd) == 0) {
+            path.add(cmd);
+            continue;
+          }
+        } else if (cmd == 0 || numArgs(cmd) == 0) {
+          return null;
+        }
+        double[] vals = new double[numArgs(cmd)];
+        for (int i = 0; i < vals.length; i++) {
+          Double val = parseNumber(d, pos);
+          if (val == null)
+            return null;
+          vals[i] = val;
+        }
+        path.add(cmd, vals);
+        // implicit repeats after a moveto are linetos
+        if (cmd == 'M')
+          cmd = 'L';
+        else if (cmd == 'm')
+          cmd = 'l';
+      }
+      return path;
+    }
+
+    private static Double parseNumber(String d, int[] pos) {
+      int len = d.length();
+      while (pos[0] < len && (isSpace(d.charAt(pos[0])) || d.charAt(pos[0]) == ','))
+        pos[0]++;
+      int beg = pos[0];
+      int i = beg;
+      if (i < len && (d.charAt(i) == '-' || d.charAt(i) == '+'))
+        i++;
+      boolean dot = false;
+      while (i < len && (Character.isDigit(d.charAt(i)) || (!dot && d.charAt(i) == '.'))) {
+        if (d.charAt(i) == '.')
+          dot = true;
+        i++;
+      }
+      if (i < len && (d.charAt(i) == 'e' || d.charAt(i) == 'E')) {
+        i++;
+        if (i < len && (d.charAt(i) == '-' || d.charAt(i) == '+'))
+          i++;
+        while (i < len && Character.isDigit(d.charAt(i)))
+          i++;
+      }
+      if (i == beg)
+        return null;
+      try {
+        double val = Double.parseDouble(d.substring(beg, i));
+        pos[0] = i;
+        return val;
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    /**
+     * Format the path data, absolute coordinates are written relative to
+     * the provided origin.
+     */
+    String format(SvgCompactor fmt, double x0, double y0) {
+      StringBuilder sb = new StringBuilder();
+      char prev = 0;
+      for (int i = 0; i < cmds.length(); i++) {
+        char cmd = cmds.charAt(i);
+        double[] vals = args.get(i);
+        // the command can be omitted if repeated (lineto after moveto)
+        boolean implicit = cmd == prev && cmd != 'M' && cmd != 'm' && vals.length > 0;
+        if (!implicit)
+          sb.append(cmd);
+        for (int j = 0; j < vals.length; j++) {
+          double val = vals[j];
+          if (Character.isUpperCase(cmd))
+            val -= offset(cmd, j, x0, y0);
+          int mark = sb.length();
+          fmt.appendNumber(sb, val);
+          if ((implicit || j > 0) && needsSeparator(sb, mark))
+            sb.insert(mark, ' ');
+          implicit = true;
+        }
+        prev = cmd == 'M' ? 'L' : cmd == 'm' ? 'l' : cmd;
+      }
+      return sb.toString();
+    }
+
+    private static double offset(char cmd, int idx, double x0, double y0) {
+      switch (cmd) {
+        case 'H':
+          return x0;
+        case 'V':
+          return y0;
+        case 'A':
+          return idx == 5 ? x0 : idx == 6 ? y0 : 0;
+        default:
+          return (idx & 1) == 0 ? x0 : y0;
+      }
+    }
+
+    // a number needs a separator unless it starts with '-' or with '.'
+    // following a number that already has a '.'
+    private static boolean needsSeparator(StringBuilder sb, int mark) {
+      char first = sb.charAt(mark);
+      if (first == '-')
+        return false;
+      if (first == '.') {
+        for (int k = mark - 1; k >= 0; k--) {
+          char c = sb.charAt(k);
+          if (c == '.')
+            return false;
+          if (!Character.isDigit(c))
+            break;
+        }
+      }
+      return true;
+    }
+
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+class AbbreviationIndexTest {
+
+  private final SmilesParser smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+
+  @Test
+  void skipGroupsThatCanNotMatch() throws Exception {
+    AbbreviationIndex index = new AbbreviationIndex();
+    index.loadFromFile("/org/openscience/cdk/app/group_abbr.smi");
+    assertThat(index.mayMatch(smipar.parseSmiles("CC(C)(C)OC(=O)NCCc1ccccc1")), is(true));
+    assertThat(index.mayMatch(smipar.parseSmiles("[Na+].[Cl-]")), is(false));
+    assertThat(index.apply(smipar.parseSmiles("[Na+].[Cl-]"), Collections.emptyMap()), is(0));
+    assertThat(index.skipped(), is(1L));
+  }
+
+  @Test
+  void ringCount() throws Exception {
+    IAtomContainer mol = smipar.parseSmiles("*[Se]1CC1");
+    AbbreviationIndex.Invariants ring = AbbreviationIndex.Invariants.of(mol);
+    AbbreviationIndex.Invariants chain = AbbreviationIndex.Invariants.of(smipar.parseSmiles("CC[Se]C"));
+    assertThat(ring.isContainedIn(chain), is(false));
+    assertThat(chain.isContainedIn(ring), is(false));
+    assertThat(ring.isContainedIn(AbbreviationIndex.Invariants.of(smipar.parseSmiles("C1C[Se]1CC"))), is(true));
+  }
+
+  @Test
+  void customDictionary(@TempDir Path tmp) throws Exception {
+    Path path = tmp.resolve("custom.smi");
+    Files.write(path, Collections.singletonList("*[Se]C\tSeMe"), StandardCharsets.UTF_8);
+    AbbreviationIndex index = new AbbreviationIndex();
+    index.loadFromFile(path.toString());
+    assertThat(index.mayMatch(smipar.parseSmiles("CCO")), is(false));
+    assertThat(index.apply(smipar.parseSmiles("c1ccccc1[Se]C"), Collections.emptyMap()), greaterThan(0));
+  }
+}
@@ -5,10 +5,59 @@
 package org.openscience.cdk.app;
 
 import org.junit.jupiter.api.Test;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.geometry.GeometryUtil;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IChemObject;
+import org.openscience.cdk.interfaces.IReaction;
+import org.openscience.cdk.interfaces.IReactionSet;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.imageio.ImageIO;
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 class DepictControllerTest {
 
@@ -39,4 +88,609 @@ class DepictControllerTest {
     assertThat(color.getAlpha(), is(255));
   }
 
-}
\ No newline at end of file
+  @Test
+  void smartsCompiledOnce() throws Exception {
+    DepictController controller = new DepictController();
+    assertThat(controller.compileSmarts("c1ccccc1"), notNullValue());
+    assertThat(controller.compileSmarts("c1ccccc1"), sameInstance(controller.compileSmarts("c1ccccc1")));
+  }
+
+  private static Map<String, String> options(String... keyValues) {
+    Map<String, String> opts = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2)
+      opts.put(keyValues[i], keyValues[i + 1]);
+    return opts;
+  }
+
+  @Test
+  void generatorReused() throws Exception {
+    DepictController controller = new DepictController();
+    DepictOptions opts = DepictOptions.of(options("zoom", "2", "annotate", "cip"));
+    Object generator = controller.configureGenerator("cow", opts, false);
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "2", "annotate", "cip")), false),
+               sameInstance(generator));
+    // options of the input (not the style) share the generator
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "2", "annotate", "cip",
+                                                                             "sma", "O", "abbr", "off", "f", "true")), false),
+               sameInstance(generator));
+    // a different style or rendering option is a different generator
+    assertThat(controller.configureGenerator("bow", opts, false), not(sameInstance(generator)));
+    assertThat(controller.configureGenerator("cow", opts, true), not(sameInstance(generator)));
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "3", "annotate", "cip")), false),
+               not(sameInstance(generator)));
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "2", "annotate", "number")), false),
+               not(sameInstance(generator)));
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "2", "annotate", "cip",
+                                                                             "bgcolor", "#ff0000")), false),
+               not(sameInstance(generator)));
+    assertThat(controller.configureGenerator("cow", DepictOptions.of(options("zoom", "2", "annotate", "cip",
+                                                                             "showtitle", "true")), false),
+               not(sameInstance(generator)));
+  }
+
+  @Test
+  void reusedGeneratorDepictsTheSame() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.cache.size", "0")));
+    DepictController controller = new DepictController(env);
+    String smi = "OC(=O)c1ccccc1O";
+    byte[] plain = (byte[]) new DepictController(env).depict(smi, "svg", "cow", new HashMap<>()).getBody();
+    byte[] highlighted = (byte[]) new DepictController(env).depict(smi, "svg", "cow", options("sma", "O")).getBody();
+    assertThat(Arrays.equals(plain, highlighted), is(false));
+    // the highlight of one request does not stay on the shared generator
+    assertThat((byte[]) controller.depict(smi, "svg", "cow", options("sma", "O")).getBody(), is(highlighted));
+    assertThat((byte[]) controller.depict(smi, "svg", "cow", new HashMap<>()).getBody(), is(plain));
+    assertThat((byte[]) controller.depict(smi, "svg", "bow", new HashMap<>()).getBody(), not(plain));
+    assertThat((byte[]) controller.depict(smi, "svg", "cow", options("sma", "O")).getBody(), is(highlighted));
+  }
+
+  @Test
+  void invalidSmartsRemembered() throws Exception {
+    DepictController controller = new DepictController();
+    assertThat(controller.compileSmarts("c1cc(cc"), nullValue());
+    assertThat(controller.compileSmarts("c1cc(cc"), nullValue());
+  }
+
+  @Test
+  void loadKekulisable() throws Exception {
+    IAtomContainer mol = new DepictController().loadMol("c1ccccc1");
+    int dbs = 0;
+    for (IBond bond : mol.bonds()) {
+      if (bond.getOrder() == IBond.Order.DOUBLE)
+        dbs++;
+    }
+    assertThat(dbs, is(3));
+  }
+
+  @Test
+  void loadNonKekulisable() throws Exception {
+    IAtomContainer mol = new DepictController().loadMol("c1cccc1");
+    assertThat(mol.getAtomCount(), is(5));
+    for (IBond bond : mol.bonds())
+      assertThat(bond.isAromatic(), is(true));
+  }
+
+  @Test
+  void parseDuration() {
+    assertThat(DepictController.parseDuration("10s"), is(Duration.ofSeconds(10)));
+    assertThat(DepictController.parseDuration("500ms"), is(Duration.ofMillis(500)));
+    assertThat(DepictController.parseDuration("2m"), is(Duration.ofMinutes(2)));
+    assertThat(DepictController.parseDuration("PT3S"), is(Duration.ofSeconds(3)));
+    assertThat(DepictController.parseDuration("250"), is(Duration.ofMillis(250)));
+  }
+
+  private static String chain(int length) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++)
+      sb.append('C');
+    return sb.toString();
+  }
+
+  @Test
+  void outOfBudget() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.budget.time", "1ms")));
+    DepictController controller = new DepictController(env);
+    String smi = chain(2000);
+    BudgetExceededException ex = assertThrows(BudgetExceededException.class,
+                                              () -> controller.depict(smi, "svg", "cow", new HashMap<>()));
+    assertThat(DepictController.handleException(ex, null).getStatusCode(), is(HttpStatus.UNPROCESSABLE_ENTITY));
+    // the entries of a batch and an SD file have the same budget
+    HttpEntity<?> batch = controller.depictBatch(smi + "\n", "svg", "cow", "json", new HashMap<>());
+    assertThat(new String((byte[]) batch.getBody(), StandardCharsets.UTF_8), containsString("\"error\":"));
+    // records are sniffed, a SMILES record saves writing a large molfile
+    String sdf = smi + "\n$$$$\n";
+    ResponseEntity<StreamingResponseBody> response = controller.depictSdf(new ByteArrayInputStream(sdf.getBytes(StandardCharsets.UTF_8)),
+                                                                          "svg", "cow", null, new HashMap<>());
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(body(response)))) {
+      assertThat(zin.getNextEntry().getName(), is("00001.error.txt"));
+    }
+  }
+
+  @Test
+  void overloaded() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    Map<String, Object> props = new HashMap<>();
+    props.put("cdkdepict.budget.threads", "1");
+    props.put("cdkdepict.budget.queue", "1");
+    props.put("cdkdepict.budget.time", "0");
+    props.put("cdkdepict.budget.cpu", "0");
+    env.getPropertySources().addFirst(new MapPropertySource("test", props));
+    DepictController controller = new DepictController(env);
+    // one depicting, one waiting and the next is rejected
+    CompletableFuture<?> running = controller.depictAsync(chain(2000), "svg", "cow", new HashMap<>(), null);
+    CompletableFuture<?> waiting = controller.depictAsync(chain(2001), "svg", "cow", new HashMap<>(), null);
+    RejectedExecutionException ex = assertThrows(RejectedExecutionException.class,
+                                                 () -> controller.depictAsync(chain(2002), "svg", "cow", new HashMap<>(), null));
+    ResponseEntity<Object> response = DepictController.handleException(ex, null);
+    assertThat(response.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+    assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), is("1"));
+    running.join();
+    waiting.join();
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    // like structure diagram generation, ignores interrupts
+    while (true) {
+      try {
+        latch.await();
+        return;
+      } catch (InterruptedException ignored) {
+      }
+    }
+  }
+
+  @Test
+  void abandonedLayoutsRejected() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    Map<String, Object> props = new HashMap<>();
+    props.put("cdkdepict.budget.time", "50ms");
+    props.put("cdkdepict.budget.cpu", "0");
+    props.put("cdkdepict.budget.layout.threads", "2");
+    env.getPropertySources().addFirst(new MapPropertySource("test", props));
+    DepictController controller = new DepictController(env);
+    CountDownLatch release = new CountDownLatch(1);
+    // more slow layouts than layout threads, the first two are abandoned
+    // but keep their threads, the third is rejected without waiting
+    for (int i = 0; i < 3; i++) {
+      controller.startBudget(System.nanoTime());
+      try {
+        if (i < 2) {
+          assertThrows(BudgetExceededException.class,
+                       () -> controller.layoutInBudget(() -> awaitUninterruptibly(release)));
+        } else {
+          assertThrows(RejectedExecutionException.class, () -> controller.layoutInBudget(() -> {
+            throw new AssertionError("should not lay out");
+          }));
+        }
+      } finally {
+        controller.endBudget();
+      }
+    }
+    // once the abandoned layouts complete the threads are free again
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (true) {
+      controller.startBudget(System.nanoTime());
+      try {
+        controller.layoutInBudget(() -> {
+        });
+        break;
+      } catch (RejectedExecutionException e) {
+        assertThat("layouts did not complete", System.currentTimeMillis() < deadline, is(true));
+        Thread.sleep(10);
+      } finally {
+        controller.endBudget();
+      }
+    }
+  }
+
+  @Test
+  void prepareMultiStepReaction() throws Exception {
+    DepictController controller = new DepictController();
+    Set<IChemObject> highlight = new HashSet<>();
+    IReactionSet rxns = controller.prepareReactions("CC>>CCO>>CCCO>>OCCCO",
+                                                    DepictOptions.of(Collections.singletonMap("sma", "[OX2H]")),
+                                                    highlight,
+                                                    new DepictMetrics.Sample());
+    assertThat(rxns.getReactionCount(), is(3));
+    for (IReaction rxn : rxns.reactions())
+      assertThat(GeometryUtil.has2DCoordinates(rxn), is(true));
+    int atoms = 0;
+    for (IChemObject obj : highlight) {
+      if (obj instanceof IAtom)
+        atoms++;
+    }
+    // hydroxy oxygens from every step are highlighted
+    assertThat(atoms, greaterThanOrEqualTo(4));
+  }
+
+  @Test
+  void prepareStepsSharingAgent() throws Exception {
+    DepictController controller = new DepictController();
+    DepictOptions opts = DepictOptions.of(Collections.singletonMap("abbr", "on"));
+    for (int i = 0; i < 20; i++) {
+      IReactionSet rxns = controller.loadRxns("CC(=O)Cl.OCC>CCN(CC)CC>CC(=O)OCC.Cl>CCN(CC)CC>CC(=O)O.OCC");
+      // the second step uses the same triethylamine as the first
+      IAtomContainer agent = rxns.getReaction(0).getAgents().getAtomContainer(0);
+      rxns.getReaction(1).getAgents().removeAllAtomContainers();
+      rxns.getReaction(1).getAgents().addAtomContainer(agent);
+      controller.prepareReactions(rxns, opts, new HashSet<>(), new DepictMetrics.Sample());
+      for (IReaction rxn : rxns.reactions())
+        assertThat(GeometryUtil.has2DCoordinates(rxn), is(true));
+      assertThat(rxns.getReaction(1).getAgents().getAtomContainer(0), sameInstance(agent));
+      assertThat(agent.getProperty(CDKConstants.CTAB_SGROUPS), notNullValue());
+    }
+  }
+
+  private static byte[] depictSvg(DepictController controller, String smi, String dat) throws Exception {
+    return (byte[]) controller.depict(smi, "svg", "cow", Collections.singletonMap("dat", dat)).getBody();
+  }
+
+  @Test
+  void cachedLayoutKeepsDativeOption() throws Exception {
+    String smi = "[NH3][Pt]([NH3])(Cl)Cl";
+    byte[] metals = depictSvg(new DepictController(), smi, "m");
+    byte[] never  = depictSvg(new DepictController(), smi, "n");
+    assertThat(Arrays.equals(metals, never), is(false));
+    // the second depiction reuses the layout of the first
+    DepictController controller = new DepictController();
+    assertThat(depictSvg(controller, smi, "m"), is(metals));
+    assertThat(depictSvg(controller, smi, "n"), is(never));
+    controller = new DepictController();
+    assertThat(depictSvg(controller, smi, "n"), is(never));
+    assertThat(depictSvg(controller, smi, "m"), is(metals));
+  }
+
+  @Test
+  void acceptsGzip() {
+    assertThat(DepictController.acceptsGzip(null), is(false));
+    assertThat(DepictController.acceptsGzip("gzip, deflate, br"), is(true));
+    assertThat(DepictController.acceptsGzip("br;q=1.0, gzip;q=0.8"), is(true));
+    assertThat(DepictController.acceptsGzip("gzip;q=0"), is(false));
+    assertThat(DepictController.acceptsGzip("identity"), is(false));
+    assertThat(DepictController.acceptsGzip("*"), is(true));
+    assertThat(DepictController.acceptsGzip("gzip;q=0, *"), is(false));
+  }
+
+  private static byte[] body(ResponseEntity<StreamingResponseBody> response) throws Exception {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    response.getBody().writeTo(bout);
+    return bout.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try (GZIPInputStream gzin = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buf = new byte[4096];
+      for (int n; (n = gzin.read(buf)) >= 0; )
+        bout.write(buf, 0, n);
+    }
+    return bout.toByteArray();
+  }
+
+  @Test
+  void gzipCachedSvg() throws Exception {
+    DepictController controller = new DepictController();
+    ResponseEntity<StreamingResponseBody> gzipped = controller.depictAsync("CCO", "svg", "cow", new HashMap<>(), "gzip")
+                                                              .get();
+    assertThat(gzipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+    assertThat(gzipped.getHeaders().getVary(), is(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING)));
+    byte[] compressed = body(gzipped);
+    assertThat(gzipped.getHeaders().getContentLength(), is((long) compressed.length));
+
+    // served from the cache without compression
+    ResponseEntity<StreamingResponseBody> identity = controller.depictAsync("CCO", "svg", "cow", new HashMap<>(), null)
+                                                               .get();
+    assertThat(identity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), nullValue());
+    assertThat(identity.getHeaders().getVary(), is(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING)));
+    byte[] bytes = body(identity);
+    assertThat(gunzip(compressed), is(bytes));
+    assertThat(compressed.length, lessThan(bytes.length));
+  }
+
+  @Test
+  void depictBodyMolfile() throws Exception {
+    DepictController controller = new DepictController();
+    byte[] molfile = DepictInputTest.ETHANOL_V3000.getBytes(StandardCharsets.UTF_8);
+    ResponseEntity<StreamingResponseBody> response = controller.depictBody(new ByteArrayInputStream(molfile),
+                                                                           "svg", "cow", new HashMap<>(),
+                                                                           (long) molfile.length, null)
+                                                               .get();
+    assertThat(response.getHeaders().getContentType().toString(), is("image/svg+xml"));
+    assertThat(new String(body(response), StandardCharsets.UTF_8), containsString("<svg"));
+  }
+
+  @Test
+  void depictBodyTooLarge() throws Exception {
+    DepictController controller = new DepictController();
+    assertThrows(InputTooLargeException.class,
+                 () -> controller.depictBody(new ByteArrayInputStream(new byte[0]), "svg", "cow", new HashMap<>(),
+                                             1L << 40, null));
+  }
+
+  @Test
+  void depictSdfToZip() throws Exception {
+    DepictController controller = new DepictController();
+    String sdf = DepictInputTest.ETHANOL_V2000 + "> <ID>\nID-1\n\n$$$$\n" +
+                 "not a molfile\n$$$$\n" +
+                 DepictInputTest.ETHANOL_V3000 + "> <ID>\nID-3\n\n$$$$\n";
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzout = new GZIPOutputStream(gzipped)) {
+      gzout.write(sdf.getBytes(StandardCharsets.UTF_8));
+    }
+    ResponseEntity<StreamingResponseBody> response = controller.depictSdf(new ByteArrayInputStream(gzipped.toByteArray()),
+                                                                          "svg", "cow", "ID", new HashMap<>());
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(body(response)))) {
+      for (ZipEntry entry; (entry = zin.getNextEntry()) != null; )
+        names.add(entry.getName());
+    }
+    assertThat(names, is(Arrays.asList("00001_ID-1.svg", "00002.error.txt", "00003_ID-3.svg")));
+  }
+
+  private static List<String> zipEntries(byte[] zip) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (ZipEntry entry; (entry = zin.getNextEntry()) != null; )
+        names.add(entry.getName());
+    }
+    return names;
+  }
+
+  @Test
+  void batchToZip() throws Exception {
+    DepictController controller = new DepictController();
+    HttpEntity<?> response = controller.depictBatch("CCO ethanol\r\nnot-a-smiles\n\n  c1ccccc1  \n", "svg", "cow", "zip",
+                                                    new HashMap<>());
+    assertThat(response.getHeaders().getContentType().toString(), is("application/zip"));
+    // blank lines are skipped, the failed entry does not fail the batch
+    assertThat(zipEntries((byte[]) response.getBody()), is(Arrays.asList("00001_ethanol.svg", "00002.error.txt", "00003.svg")));
+  }
+
+  @Test
+  void batchToJson() throws Exception {
+    DepictController controller = new DepictController();
+    HttpEntity<?> response = controller.depictBatch("CCO ethanol\nnot-a-smiles\n", "png", "cow", "json",
+                                                    new HashMap<>());
+    assertThat(response.getHeaders().getContentType().toString(), is("application/json"));
+    String json = new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+    assertThat(json.startsWith("[{\"title\":\"ethanol\",\"type\":\"image/png\",\"base64\":\"iVBORw0KGgo"), is(true));
+    assertThat(json, containsString("},{\"title\":\"\",\"error\":"));
+    assertThat(json.endsWith("}]"), is(true));
+    // SVG entries are inlined
+    response = controller.depictBatch("CCO\n", "svg", "cow", "json", new HashMap<>());
+    json = new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+    assertThat(json, containsString("\"type\":\"image/svg+xml\",\"svg\":\""));
+    assertThat(json, containsString("<svg"));
+  }
+
+  @Test
+  void batchLimits() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.batch.max", "2")));
+    DepictController controller = new DepictController(env);
+    // blank lines do not count
+    assertThat(zipEntries((byte[]) controller.depictBatch("CCO\n\n\nCC\n", "svg", "cow", "zip", new HashMap<>()).getBody()).size(),
+               is(2));
+    IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                                               () -> controller.depictBatch("CCO\nCC\nC\n", "svg", "cow", "zip", new HashMap<>()));
+    assertThat(ex.getMessage(), is("Too many entries in batch, the maximum is 2"));
+    assertThrows(IllegalArgumentException.class,
+                 () -> controller.depictBatch("CCO\n", "svg", "cow", "xml", new HashMap<>()));
+    assertThrows(IllegalArgumentException.class,
+                 () -> controller.depictBatch("CCO\n", "bmp", "cow", "zip", new HashMap<>()));
+  }
+
+  @Test
+  void zipEntryNamesTruncated() throws Exception {
+    DepictController controller = new DepictController();
+    StringBuilder title = new StringBuilder();
+    for (int i = 0; i < 70000; i++)
+      title.append('x');
+    String expected = "00001_" + title.substring(0, 64) + ".svg";
+    String sdf = DepictInputTest.ETHANOL_V2000 + "> <ID>\n" + title + "\n\n$$$$\n";
+    ResponseEntity<StreamingResponseBody> response = controller.depictSdf(new ByteArrayInputStream(sdf.getBytes(StandardCharsets.UTF_8)),
+                                                                          "svg", "cow", "ID", new HashMap<>());
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(body(response)))) {
+      assertThat(zin.getNextEntry().getName(), is(expected));
+    }
+    // titles of batch entries
+    HttpEntity<?> batch = controller.depictBatch("CCO " + title + "\n", "svg", "cow", "zip", new HashMap<>());
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream((byte[]) batch.getBody()))) {
+      assertThat(zin.getNextEntry().getName(), is(expected));
+    }
+  }
+
+  @Test
+  void sdfJob() throws Exception {
+    DepictController controller = new DepictController();
+    String sdf = DepictInputTest.ETHANOL_V2000 + "> <ID>\nID-1\n\n$$$$\n" +
+                 "not a molfile\n$$$$\n";
+    ResponseEntity<String> submitted = controller.submitJob(new ByteArrayInputStream(sdf.getBytes(StandardCharsets.UTF_8)),
+                                                            "svg", "cow", "sdf", "ID", 0, 0, new HashMap<>());
+    String id = awaitJob(controller, submitted);
+    String status = controller.jobStatus(id).getBody();
+    assertThat(status, containsString("\"done\":2"));
+    assertThat(status, containsString("\"errors\":1"));
+    assertThat(jobEntries(controller, id), is(Arrays.asList("00001_ID-1.svg", "00002.error.txt")));
+    assertThat(controller.removeJob(id).getStatusCode(), is(HttpStatus.NO_CONTENT));
+    assertThat(controller.jobStatus(id).getStatusCode(), is(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  void gridJobPaged() throws Exception {
+    DepictController controller = new DepictController();
+    String smis = "CCO\nc1ccccc1\n\nCC(=O)O\nnot-a-smiles\nC1CCCCC1\n";
+    ResponseEntity<String> submitted = controller.submitJob(new ByteArrayInputStream(smis.getBytes(StandardCharsets.UTF_8)),
+                                                            "png", "cow", "grid", null, 1, 2, new HashMap<>());
+    assertThat(submitted.getStatusCode(), is(HttpStatus.ACCEPTED));
+    String id = awaitJob(controller, submitted);
+    String status = controller.jobStatus(id).getBody();
+    assertThat(status, containsString("\"done\":5"));
+    assertThat(status, containsString("\"errors\":1"));
+    assertThat(status, containsString("\"total\":5"));
+    // a page per nrow x ncol molecules
+    assertThat(jobEntries(controller, id), is(Arrays.asList("page-00001.png", "page-00002.png", "page-00003.png")));
+    controller.destroy();
+  }
+
+  private static BufferedImage gridImage(DepictController controller, String smis, int nrow, int ncol) throws Exception {
+    HttpEntity<?> response = controller.depictGrid(smis, "png", "cow", nrow, ncol, new HashMap<>());
+    assertThat(response.getHeaders().getContentType().toString(), is("image/png"));
+    return ImageIO.read(new ByteArrayInputStream((byte[]) response.getBody()));
+  }
+
+  @Test
+  void gridRowsAndColumns() throws Exception {
+    DepictController controller = new DepictController();
+    String smis = "CCO\nCCO\nCCO\nCCO\n";
+    BufferedImage square = gridImage(controller, smis, 0, 0);
+    BufferedImage row = gridImage(controller, smis, 1, 0);
+    BufferedImage col = gridImage(controller, smis, 0, 1);
+    // 2x2 by default, 1x4 and 4x1 with the rows or columns given
+    assertThat(square.getWidth(), lessThan(row.getWidth()));
+    assertThat(row.getHeight(), lessThan(square.getHeight()));
+    assertThat(square.getHeight(), lessThan(col.getHeight()));
+    assertThat(col.getWidth(), lessThan(square.getWidth()));
+    // both given, 3x3 with empty cells
+    BufferedImage both = gridImage(controller, smis, 3, 3);
+    assertThat(square.getWidth(), lessThan(both.getWidth()));
+    assertThat(square.getHeight(), lessThan(both.getHeight()));
+    assertThat(both.getWidth(), lessThan(row.getWidth()));
+  }
+
+  @Test
+  void gridSvg() throws Exception {
+    DepictController controller = new DepictController();
+    // entries that can not be depicted (including reactions) are left empty
+    HttpEntity<?> response = controller.depictGrid("CCO ethanol\nnot-a-smiles\nCC>>CO\n\nc1ccccc1\n", "svg", "cow", 0, 0,
+                                                   new HashMap<>());
+    assertThat(response.getHeaders().getContentType().toString(), is("image/svg+xml"));
+    assertThat(new String((byte[]) response.getBody(), StandardCharsets.UTF_8), containsString("<svg"));
+  }
+
+  @Test
+  void gridLimits() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.batch.max", "3")));
+    DepictController controller = new DepictController(env);
+    assertThat(gridImage(controller, "CCO\n\nCC\nC\n", 0, 0), notNullValue());
+    IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                                               () -> controller.depictGrid("CCO\nCC\nC\nO\n", "png", "cow", 0, 0, new HashMap<>()));
+    assertThat(ex.getMessage(), is("Too many molecules in grid, the maximum is 3"));
+    ex = assertThrows(IllegalArgumentException.class,
+                      () -> controller.depictGrid("\n  \n", "png", "cow", 0, 0, new HashMap<>()));
+    assertThat(ex.getMessage(), is("No molecules provided."));
+  }
+
+  @Test
+  void rasterGridTooLarge() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.grid.raster.max", "1000000")));
+    DepictController controller = new DepictController(env);
+    StringBuilder smis = new StringBuilder();
+    for (int i = 0; i < 100; i++)
+      smis.append("c1ccccc1CCO\n");
+    assertThrows(BudgetExceededException.class,
+                 () -> controller.depictGrid(smis.toString(), "png", "cow", 0, 0, new HashMap<>()));
+    // vector formats are not limited
+    assertThat(((ResponseEntity<?>) controller.depictGrid(smis.toString(), "svg", "cow", 0, 0, new HashMap<>())).getStatusCode(),
+               is(HttpStatus.OK));
+    assertThat(((ResponseEntity<?>) controller.depictGrid("c1ccccc1CCO\nCCO\n", "png", "cow", 0, 0, new HashMap<>())).getStatusCode(),
+               is(HttpStatus.OK));
+  }
+
+  /**
+   * Wait for a submitted job to finish, it must not fail.
+   *
+   * @return the job id
+   */
+  private static String awaitJob(DepictController controller, ResponseEntity<String> submitted) throws InterruptedException {
+    Matcher m = Pattern.compile("\"id\":\"([^\"]+)\"").matcher(submitted.getBody());
+    assertThat(m.find(), is(true));
+    String id = m.group(1);
+    long deadline = System.currentTimeMillis() + 30000;
+    String status;
+    while (!(status = controller.jobStatus(id).getBody()).contains("\"state\":\"done\"")) {
+      assertThat(status, not(containsString("\"state\":\"failed\"")));
+      assertThat(System.currentTimeMillis() < deadline, is(true));
+      Thread.sleep(10);
+    }
+    return id;
+  }
+
+  private static List<String> jobEntries(DepictController controller, String id) throws IOException {
+    ResponseEntity<?> result = controller.jobResult(id);
+    assertThat(result.getStatusCode(), is(HttpStatus.OK));
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream zin = new ZipInputStream(((Resource) result.getBody()).getInputStream())) {
+      for (ZipEntry entry; (entry = zin.getNextEntry()) != null; )
+        names.add(entry.getName());
+    }
+    return names;
+  }
+
+  @Test
+  void readyAfterWarmup() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    Map<String, Object> props = new HashMap<>();
+    props.put("cdkdepict.warmup.rounds", "1");
+    props.put("cdkdepict.warmup.time", "1s");
+    env.getPropertySources().addFirst(new MapPropertySource("test", props));
+    DepictController controller = new DepictController(env);
+    assertThat(controller.ready().getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+    controller.startWarmup();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (controller.ready().getStatusCode() != HttpStatus.OK && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertThat(controller.ready().getStatusCode(), is(HttpStatus.OK));
+    assertThat(controller.ready().getBody(), containsString("\"ready\":true"));
+  }
+
+  @Test
+  void streamedWithCacheDisabled() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.cache.size", "0")));
+    DepictController controller = new DepictController(env);
+    byte[] expected = (byte[]) new DepictController().depict("CCO", "svg", "cow", new HashMap<>()).getBody();
+    // encoded as the response is written, so the length is not known (chunked)
+    ResponseEntity<StreamingResponseBody> gzipped = controller.depictAsync("CCO", "svg", "cow", new HashMap<>(), "gzip")
+                                                              .get();
+    assertThat(gzipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+    assertThat(gzipped.getHeaders().getContentLength(), is(-1L));
+    assertThat(gunzip(body(gzipped)), is(expected));
+    ResponseEntity<StreamingResponseBody> png = controller.depictAsync("CCO", "png", "cow", new HashMap<>(), null)
+                                                          .get();
+    assertThat(png.getHeaders().getContentLength(), is(-1L));
+    byte[] bytes = body(png);
+    assertThat(bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G', is(true));
+  }
+
+  @Test
+  void uncachedSameAsCached() throws Exception {
+    StandardEnvironment env = new StandardEnvironment();
+    env.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("cdkdepict.cache.size", "0")));
+    DepictController uncached = new DepictController(env);
+    DepictController cached = new DepictController();
+    for (String fmt : new String[]{"svg", "png", "png8", "gif"}) {
+      byte[] expected = body(cached.depictAsync("c1ccccc1O", fmt, "cow", new HashMap<>(), null).get());
+      ResponseEntity<StreamingResponseBody> response = uncached.depictAsync("c1ccccc1O", fmt, "cow", new HashMap<>(), null)
+                                                               .get();
+      assertThat(fmt, body(response), is(expected));
+      // the programmatic overload always returns the bytes
+      HttpEntity<?> entity = uncached.depict("c1ccccc1O", fmt, "cow", new HashMap<>());
+      assertThat(fmt, (byte[]) entity.getBody(), is(expected));
+      assertThat(entity.getHeaders().getContentLength(), is((long) expected.length));
+    }
+  }
+
+  @Test
+  void pngNotGzipped() throws Exception {
+    DepictController controller = new DepictController();
+    ResponseEntity<StreamingResponseBody> response = controller.depictAsync("CCO", "png", "cow", new HashMap<>(), "gzip")
+                                                               .get();
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), nullValue());
+    assertThat(response.getHeaders().getVary().isEmpty(), is(true));
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DepictInputTest {
+
+  static final String ETHANOL_V2000 = "ethanol\n" +
+                                      "  test\n" +
+                                      "\n" +
+                                      "  3  2  0  0  0  0  0  0  0  0999 V2000\n" +
+                                      "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n" +
+                                      "    1.2990    0.7500    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n" +
+                                      "    2.5981    0.0000    0.0000 O   0  0  0  0  0  0  0  0  0  0  0  0\n" +
+                                      "  1  2  1  0  0  0  0\n" +
+                                      "  2  3  1  0  0  0  0\n" +
+                                      "M  END\n";
+
+  static final String ETHANOL_V3000 = "ethanol\n" +
+                                      "  test\n" +
+                                      "\n" +
+                                      "  0  0  0     0  0            999 V3000\n" +
+                                      "M  V30 BEGIN CTAB\n" +
+                                      "M  V30 COUNTS 3 2 0 0 0\n" +
+                                      "M  V30 BEGIN ATOM\n" +
+                                      "M  V30 1 C 0 0 0 0\n" +
+                                      "M  V30 2 C 1.299 0.75 0 0\n" +
+                                      "M  V30 3 O 2.5981 0 0 0\n" +
+                                      "M  V30 END ATOM\n" +
+                                      "M  V30 BEGIN BOND\n" +
+                                      "M  V30 1 1 1 2\n" +
+                                      "M  V30 2 1 2 3\n" +
+                                      "M  V30 END BOND\n" +
+                                      "M  V30 END CTAB\n" +
+                                      "M  END\n";
+
+  private static InputStream stream(String str) {
+    return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void sniffSmiles() {
+    assertThat(DepictInput.sniff("CCO"), is(DepictInput.Format.SMILES));
+    assertThat(DepictInput.sniff("CCO ethanol >99%"), is(DepictInput.Format.SMILES));
+    assertThat(DepictInput.sniff("CC>>CCO"), is(DepictInput.Format.REACTION_SMILES));
+    assertThat(DepictInput.sniff("CC>>CCO |f:0| oxidation"), is(DepictInput.Format.REACTION_SMILES));
+  }
+
+  @Test
+  void sniffMolfile() {
+    assertThat(DepictInput.sniff(ETHANOL_V2000), is(DepictInput.Format.MDL_V2000));
+    assertThat(DepictInput.sniff(ETHANOL_V3000), is(DepictInput.Format.MDL_V3000));
+    assertThat(DepictInput.sniff(ETHANOL_V2000.replace('\n', '\r').replace("\r", "\r\n")),
+               is(DepictInput.Format.MDL_V2000));
+  }
+
+  @Test
+  void sniffMolfileAfterBlankLines() {
+    assertThat(DepictInput.sniff("\n" + ETHANOL_V2000), is(DepictInput.Format.MDL_V2000));
+    assertThat(DepictInput.sniff("\r\n \n" + ETHANOL_V3000), is(DepictInput.Format.MDL_V3000));
+    // blank title line
+    assertThat(DepictInput.sniff(ETHANOL_V2000.replace("ethanol", "")), is(DepictInput.Format.MDL_V2000));
+    assertThat(DepictInput.sniff("\nCC>>CCO"), is(DepictInput.Format.REACTION_SMILES));
+  }
+
+  @Test
+  void readMolfileAfterBlankLines() throws Exception {
+    DepictInput input = DepictInput.read(stream("\n" + ETHANOL_V2000), 1024);
+    assertThat(input.format(), is(DepictInput.Format.MDL_V2000));
+    assertThat(input.molecule().getAtomCount(), is(3));
+    input = DepictInput.of("\n\n" + ETHANOL_V3000);
+    assertThat(input.format(), is(DepictInput.Format.MDL_V3000));
+    assertThat(DepictInput.readMolfile(input.format(), new StringReader(input.text())).getAtomCount(), is(3));
+    // a blank title line is kept
+    input = DepictInput.of(ETHANOL_V2000.replace("ethanol", ""));
+    assertThat(DepictInput.readMolfile(input.format(), new StringReader(input.text())).getBondCount(), is(2));
+  }
+
+  @Test
+  void readMolfile() throws Exception {
+    DepictInput input = DepictInput.read(stream(ETHANOL_V3000), 1024);
+    assertThat(input.format(), is(DepictInput.Format.MDL_V3000));
+    assertThat(input.text(), nullValue());
+    assertThat(input.molecule().getAtomCount(), is(3));
+    assertThat(input.molecule().getBondCount(), is(2));
+  }
+
+  @Test
+  void readMolfileWithData() throws Exception {
+    String sdf = ETHANOL_V2000 + "> <ID>\n1\n\n$$$$\n";
+    DepictInput input = DepictInput.read(stream(sdf), 1024);
+    assertThat(input.format(), is(DepictInput.Format.MDL_V2000));
+    assertThat(input.molecule().getAtomCount(), is(3));
+    // the digest is of the whole input
+    assertThat(input.digest(), is(DepictInput.read(stream(sdf), 1024).digest()));
+    assertThat(input.digest(), not(DepictInput.read(stream(ETHANOL_V2000), 1024).digest()));
+  }
+
+  @Test
+  void readSmiles() throws Exception {
+    DepictInput input = DepictInput.read(stream("CC>>CCO\n"), 1024);
+    assertThat(input.format(), is(DepictInput.Format.REACTION_SMILES));
+    assertThat(input.text(), is("CC>>CCO"));
+    assertThat(input.digest(), is(DepictInput.of("CC>>CCO").digest()));
+  }
+
+  @Test
+  void inputTooLarge() {
+    assertThrows(InputTooLargeException.class, () -> DepictInput.read(stream(ETHANOL_V2000), 100));
+    assertThrows(InputTooLargeException.class, () -> DepictInput.read(stream(ETHANOL_V3000), 100));
+    assertThrows(InputTooLargeException.class, () -> DepictInput.read(stream("CCCCCCCCCC"), 5));
+  }
+}
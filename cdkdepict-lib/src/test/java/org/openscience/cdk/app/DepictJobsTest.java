@@ -0,0 +1,224 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DepictJobsTest {
+
+  @TempDir
+  Path dir;
+
+  private static InputStream input(String str) {
+    return new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void await(DepictJobs.Job job) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (job.state() == DepictJobs.State.QUEUED || job.state() == DepictJobs.State.RUNNING) {
+      assertThat("job did not finish", System.currentTimeMillis() < deadline, is(true));
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void runJob() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1));
+    DepictJobs.Job job = jobs.create(input("a\nb\nc\n"), "text/plain", "txt");
+    assertThat(job.fileName(), is(job.id() + ".txt"));
+    jobs.submit(job, (j, out) -> {
+      try (BufferedReader rdr = Files.newBufferedReader(j.input(), StandardCharsets.UTF_8)) {
+        j.setTotal(3);
+        for (String line; (line = rdr.readLine()) != null; ) {
+          out.write(line.toUpperCase().getBytes(StandardCharsets.UTF_8));
+          j.completed(!line.equals("b"));
+        }
+      }
+    });
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.DONE));
+    assertThat(jobs.get(job.id()), is(job));
+    assertThat(new String(Files.readAllBytes(job.result()), StandardCharsets.UTF_8), is("ABC"));
+    assertThat(Files.exists(job.input()), is(false));
+    String json = job.toJson();
+    assertThat(json, containsString("\"state\":\"done\""));
+    assertThat(json, containsString("\"done\":3"));
+    assertThat(json, containsString("\"errors\":1"));
+    assertThat(json, containsString("\"total\":3"));
+  }
+
+  @Test
+  void failedJob() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1));
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> {
+      out.write('a');
+      throw new IOException("Could not read input");
+    });
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.FAILED));
+    assertThat(job.toJson(), containsString("\"error\":\"Could not read input\""));
+    assertThat(Files.exists(job.result()), is(false));
+  }
+
+  @Test
+  void inputTooLarge() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 4, Duration.ofMinutes(1));
+    assertThrows(InputTooLargeException.class,
+                 () -> jobs.create(input("too large"), "text/plain", "txt"));
+    try (Stream<Path> files = Files.list(dir)) {
+      assertThat(files.count(), is(0L));
+    }
+  }
+
+  @Test
+  void queueFull() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 1, 1024, Duration.ofMinutes(1));
+    CountDownLatch latch = new CountDownLatch(1);
+    DepictJobs.Task task = (j, out) -> latch.await();
+    DepictJobs.Job running = jobs.create(input("a"), "text/plain", "txt");
+    DepictJobs.Job queued = jobs.create(input("b"), "text/plain", "txt");
+    jobs.submit(running, task);
+    jobs.submit(queued, task);
+    // rejected before the input is read
+    InputStream rejected = input("c");
+    assertThrows(RejectedExecutionException.class, () -> jobs.create(rejected, "text/plain", "txt"));
+    assertThat(rejected.available(), is(1));
+    assertThat(jobs.activeCount(), is(2));
+    latch.countDown();
+    await(running);
+    await(queued);
+    assertThat(queued.state(), is(DepictJobs.State.DONE));
+    // the slots are free again
+    DepictJobs.Job next = jobs.create(input("d"), "text/plain", "txt");
+    jobs.submit(next, task);
+    await(next);
+    assertThat(next.state(), is(DepictJobs.State.DONE));
+  }
+
+  @Test
+  void removedBeforeSubmitFreesSlot() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 1, 1024, Duration.ofMinutes(1));
+    jobs.create(input("a"), "text/plain", "txt");
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    assertThrows(RejectedExecutionException.class, () -> jobs.create(input("b"), "text/plain", "txt"));
+    assertThat(jobs.remove(job.id()), is(true));
+    jobs.create(input("b"), "text/plain", "txt");
+  }
+
+  @Test
+  void errorNotSwallowed() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1));
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> {
+      throw new StackOverflowError();
+    });
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.FAILED));
+    assertThat(job.toJson(), containsString("\"error\":\"Job did not complete\""));
+    // the runner carries on
+    DepictJobs.Job next = jobs.create(input("b"), "text/plain", "txt");
+    jobs.submit(next, (j, out) -> out.write('b'));
+    await(next);
+    assertThat(next.state(), is(DepictJobs.State.DONE));
+  }
+
+  @Test
+  void removeCancels() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1));
+    CountDownLatch started = new CountDownLatch(1);
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> {
+      started.countDown();
+      new CountDownLatch(1).await();
+    });
+    started.await();
+    assertThat(jobs.remove(job.id()), is(true));
+    // the files are deleted once the task has stopped
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.FAILED));
+    assertThat(jobs.get(job.id()), nullValue());
+    assertThat(jobs.remove(job.id()), is(false));
+    assertThat(Files.exists(job.input()), is(false));
+  }
+
+  @Test
+  void orphansRemoved() throws Exception {
+    Path stale = Files.createDirectories(dir.resolve("stale"));
+    Files.write(stale.resolve("input"), new byte[]{1});
+    Files.setLastModifiedTime(stale.resolve("input"), FileTime.fromMillis(System.currentTimeMillis() - 120000));
+    Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+    Path recent = Files.createDirectories(dir.resolve("recent"));
+    Files.write(recent.resolve("input"), new byte[]{1});
+    new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1)).shutdown();
+    assertThat(Files.exists(stale), is(false));
+    assertThat(Files.exists(recent), is(true));
+  }
+
+  @Test
+  void shutdownStopsJobs() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMinutes(1));
+    CountDownLatch started = new CountDownLatch(1);
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> {
+      started.countDown();
+      new CountDownLatch(1).await();
+    });
+    started.await();
+    jobs.shutdown();
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.FAILED));
+    assertThrows(RejectedExecutionException.class,
+                 () -> jobs.submit(jobs.create(input("b"), "text/plain", "txt"), (j, out) -> out.write('b')));
+  }
+
+  @Test
+  void sweepExpired() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMillis(1));
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> out.write('a'));
+    await(job);
+    Thread.sleep(20);
+    jobs.sweep();
+    assertThat(jobs.get(job.id()), nullValue());
+    assertThat(Files.exists(job.result()), is(false));
+  }
+
+  @Test
+  void sweepKeepsUnfinished() throws Exception {
+    DepictJobs jobs = new DepictJobs(dir, 1, 4, 1024, Duration.ofMillis(1));
+    CountDownLatch latch = new CountDownLatch(1);
+    DepictJobs.Job job = jobs.create(input("a"), "text/plain", "txt");
+    jobs.submit(job, (j, out) -> latch.await());
+    Thread.sleep(20);
+    jobs.sweep();
+    assertThat(jobs.get(job.id()), is(job));
+    latch.countDown();
+    await(job);
+    assertThat(job.state(), is(DepictJobs.State.DONE));
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+
+class DepictMetricsTest {
+
+  @Test
+  void recordStages() {
+    DepictMetrics metrics = new DepictMetrics();
+    DepictMetrics.Sample sample = new DepictMetrics.Sample();
+    sample.stop(DepictMetrics.Stage.PARSE, sample.start());
+    sample.stop(DepictMetrics.Stage.LAYOUT, sample.start());
+    sample.numAtoms = 20;
+    metrics.record(sample, "SVG", "bow", 2000);
+    String text = metrics.write(new StringBuilder()).toString();
+    assertThat(text, containsString("cdkdepict_stage_seconds_count{stage=\"parse\",fmt=\"svg\",style=\"bow\",kind=\"mol\"} 1"));
+    assertThat(text, containsString("cdkdepict_stage_seconds_count{stage=\"layout\",fmt=\"svg\",style=\"bow\",kind=\"mol\"} 1"));
+    assertThat(text, not(containsString("stage=\"cip\"")));
+    assertThat(text, containsString("cdkdepict_input_atoms_bucket{fmt=\"svg\",style=\"bow\",kind=\"mol\",le=\"25.0\"} 1"));
+    assertThat(text, containsString("cdkdepict_output_bytes_bucket{fmt=\"svg\",style=\"bow\",kind=\"mol\",le=\"1024.0\"} 0"));
+  }
+
+  @Test
+  void unknownStyleIsOther() {
+    DepictMetrics metrics = new DepictMetrics();
+    metrics.record(new DepictMetrics.Sample(), "png", "xyz", 10);
+    String text = metrics.write(new StringBuilder()).toString();
+    assertThat(text, containsString("style=\"other\""));
+    assertThat(text, not(containsString("xyz")));
+  }
+}
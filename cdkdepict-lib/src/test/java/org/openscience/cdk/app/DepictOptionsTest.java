@@ -0,0 +1,92 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.app.DepictOptions.Param;
+import org.openscience.cdk.interfaces.IReaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DepictOptionsTest {
+
+  private static DepictOptions options(String... kvs) {
+    Map<String, String> params = new HashMap<>();
+    for (int i = 0; i < kvs.length; i += 2)
+      params.put(kvs[i], kvs[i + 1]);
+    return DepictOptions.of(params);
+  }
+
+  @Test
+  void defaults() {
+    DepictOptions opts = options("smi", "CCO");
+    assertThat(opts.getDouble(Param.ZOOM), is(1.3));
+    assertThat(opts.getDouble(Param.WIDTH), is(-1.0));
+    assertThat(opts.getBoolean(Param.SUPRESSH), is(true));
+    assertThat(opts.getInt(Param.SMARTSHITLIM), is(100));
+    assertThat(opts.getString(Param.ABBREVIATE), is("reagents"));
+    assertThat(opts.getEnum(Param.ARROW, IReaction.Direction.class), is(IReaction.Direction.FORWARD));
+    assertThat(opts.canonical(), is(""));
+    assertThat(opts, is(DepictOptions.DEFAULTS));
+  }
+
+  @Test
+  void canonicalValues() {
+    DepictOptions a = options("zoom", "1.50", "anon", "on", "r", "90");
+    DepictOptions b = options("r", "90", "anon", "TRUE", "zoom", "1.5", "unknown", "x");
+    assertThat(a, is(b));
+    assertThat(a.hash(), is(b.hash()));
+    assertThat(a.canonical(), is("anon=true&zoom=1.5&r=90"));
+    assertThat(a, not(options("zoom", "1.5")));
+  }
+
+  @Test
+  void canonicalValuesEscaped() {
+    DepictOptions a = options("sma", "x&abbr=off");
+    DepictOptions b = options("sma", "x", "abbr", "off");
+    assertThat(b.canonical(), is("sma=x&abbr=off"));
+    assertThat(a.canonical(), is("sma=x%26abbr%3doff"));
+    assertThat(a.hash(), not(b.hash()));
+    assertThat(a, not(b));
+    // an already escaped value is escaped again
+    DepictOptions c = options("sma", "x%26abbr%3doff");
+    assertThat(c.canonical(), is("sma=x%2526abbr%253doff"));
+    assertThat(c.hash(), not(a.hash()));
+  }
+
+  @Test
+  void defaultValuesDropped() {
+    DepictOptions opts = options("zoom", "1.3", "f", "false", "abbr", "", "dat", "m");
+    assertThat(opts.canonical(), is(""));
+    assertThat(opts.hash(), is(DepictOptions.DEFAULTS.hash()));
+  }
+
+  @Test
+  void enumParams() {
+    DepictOptions opts = options("arw", "equ", "dat", "N", "mc", "hn", "hdisp", "bridgehead");
+    assertThat(opts.getEnum(Param.ARROW, IReaction.Direction.class), is(IReaction.Direction.BIDIRECTIONAL));
+    assertThat(opts.getEnum(Param.DATIVE, MolOp.DativeBond.class), is(MolOp.DativeBond.Never));
+    assertThat(opts.getEnum(Param.MULTICENTER, MolOp.MulticenterStyle.class), is(MolOp.MulticenterStyle.HiddenNeutral));
+    assertThat(opts.getEnum(Param.HDISPLAY, HydrogenDisplayType.class), is(HydrogenDisplayType.Smart));
+    // unrecognised
+    assertThat(options("arw", "xyz").getEnum(Param.ARROW, IReaction.Direction.class), nullValue());
+  }
+
+  @Test
+  void invalidValues() {
+    assertThrows(IllegalArgumentException.class, () -> options("zoom", "big"));
+    assertThrows(IllegalArgumentException.class, () -> options("smalim", "1.5"));
+    assertThrows(IllegalArgumentException.class, () -> options("anon", "maybe"));
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+class DepictWarmupTest {
+
+  @Test
+  void everyStyleAndFormat() {
+    Set<String> seen = new HashSet<>();
+    AtomicInteger count = new AtomicInteger();
+    DepictWarmup warmup = new DepictWarmup((smi, fmt, style, extra) -> {
+      seen.add(style + "/" + fmt);
+      count.incrementAndGet();
+    }, Arrays.asList("CCO", "c1ccccc1"), 2, Duration.ZERO);
+    assertThat(warmup.isReady(), is(false));
+    warmup.run();
+    assertThat(warmup.isReady(), is(true));
+    assertThat(seen.size(), is(36));
+    assertThat(count.get(), is(2 * 2 * 36));
+    assertThat(warmup.toJson(), containsString("\"depictions\":144"));
+  }
+
+  @Test
+  void errorsCounted() {
+    DepictWarmup warmup = new DepictWarmup((smi, fmt, style, extra) -> {
+      if (smi.equals("bad"))
+        throw new IllegalArgumentException(smi);
+    }, Arrays.asList("CCO", "bad"), 1, Duration.ZERO);
+    warmup.run();
+    assertThat(warmup.isReady(), is(true));
+    assertThat(warmup.toJson(), containsString("\"errors\":36"));
+  }
+
+  @Test
+  void disabled() {
+    DepictWarmup warmup = new DepictWarmup((smi, fmt, style, extra) -> {
+      throw new AssertionError("should not depict");
+    }, Arrays.asList("CCO"), 0, Duration.ZERO);
+    assertThat(warmup.isReady(), is(true));
+    warmup.start();
+    warmup = new DepictWarmup((smi, fmt, style, extra) -> {
+      throw new AssertionError("should not depict");
+    }, Collections.emptyList(), 3, Duration.ZERO);
+    assertThat(warmup.isReady(), is(true));
+  }
+
+  @Test
+  void stopsAfterMaxTime() {
+    AtomicInteger count = new AtomicInteger();
+    DepictWarmup warmup = new DepictWarmup((smi, fmt, style, extra) -> {
+      count.incrementAndGet();
+      Thread.sleep(20);
+    }, Arrays.asList("CCO"), 100, Duration.ofMillis(50));
+    warmup.run();
+    assertThat(warmup.isReady(), is(true));
+    assertThat(count.get() < 100, is(true));
+  }
+
+  @Test
+  void startsInBackground() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    DepictWarmup warmup = new DepictWarmup((smi, fmt, style, extra) -> latch.await(),
+                                           Arrays.asList("CCO"), 1, Duration.ZERO);
+    warmup.start();
+    warmup.start();
+    assertThat(warmup.isReady(), is(false));
+    latch.countDown();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!warmup.isReady() && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertThat(warmup.isReady(), is(true));
+    assertThat(warmup.toJson(), containsString("\"depictions\":36"));
+  }
+
+  @Test
+  void bundledCorpus() throws IOException {
+    List<String> corpus = DepictWarmup.loadCorpus(DepictWarmup.DEFAULT_CORPUS);
+    assertThat(corpus.isEmpty(), is(false));
+    for (String line : corpus)
+      assertThat(line.startsWith("#"), is(false));
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.layout.StructureDiagramGenerator;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+class LayoutTest {
+
+  @Test
+  void applyToDifferentInputOrder() throws Exception {
+    SmilesParser    smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    SmilesGenerator smigen = new SmilesGenerator(SmiFlavor.Absolute);
+
+    IAtomContainer mol1 = smipar.parseSmiles("C[C@H](N)C(=O)O");
+    new StructureDiagramGenerator().generateCoordinates(mol1);
+    int[] order1 = new int[mol1.getAtomCount()];
+    String key1 = smigen.create(mol1, order1);
+
+    IAtomContainer mol2 = smipar.parseSmiles("OC(=O)[C@@H](N)C");
+    int[] order2 = new int[mol2.getAtomCount()];
+    String key2 = smigen.create(mol2, order2);
+    assertThat(key2, is(key1));
+
+    Layout.of(mol1, order1).apply(mol2, order2);
+
+    int wedges = 0;
+    for (int i = 0; i < mol1.getAtomCount(); i++) {
+      for (int j = 0; j < mol2.getAtomCount(); j++) {
+        if (order1[i] == order2[j]) {
+          assertThat(mol2.getAtom(j).getPoint2d().x, closeTo(mol1.getAtom(i).getPoint2d().x, 1e-9));
+          assertThat(mol2.getAtom(j).getPoint2d().y, closeTo(mol1.getAtom(i).getPoint2d().y, 1e-9));
+        }
+      }
+    }
+    for (IBond bond : mol2.bonds()) {
+      if (bond.getDisplay() != IBond.Display.Solid)
+        wedges++;
+    }
+    assertThat(wedges, is(1));
+  }
+
+  @Test
+  void dativeDisplayNotStored() throws Exception {
+    SmilesParser    smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    SmilesGenerator smigen = new SmilesGenerator(SmiFlavor.Absolute);
+
+    IAtomContainer mol1 = smipar.parseSmiles("[NH3][Pt]([NH3])(Cl)Cl");
+    MolOp.perceiveDativeBonds(mol1, MolOp.DativeBond.Metals);
+    new StructureDiagramGenerator().generateCoordinates(mol1);
+    int[] order1 = new int[mol1.getAtomCount()];
+    smigen.create(mol1, order1);
+    assertThat(arrows(mol1), is(2));
+
+    // laid out with dative bonds, applied without
+    IAtomContainer mol2 = smipar.parseSmiles("[NH3][Pt]([NH3])(Cl)Cl");
+    int[] order2 = new int[mol2.getAtomCount()];
+    smigen.create(mol2, order2);
+    Layout.of(mol1, order1).apply(mol2, order2);
+    assertThat(arrows(mol2), is(0));
+
+    // laid out without dative bonds, applied with
+    IAtomContainer mol3 = smipar.parseSmiles("[NH3][Pt]([NH3])(Cl)Cl");
+    MolOp.perceiveDativeBonds(mol3, MolOp.DativeBond.Metals);
+    int[] order3 = new int[mol3.getAtomCount()];
+    smigen.create(mol3, order3);
+    Layout.of(mol2, order2).apply(mol3, order3);
+    assertThat(arrows(mol3), is(2));
+  }
+
+  private static int arrows(IAtomContainer mol) {
+    int count = 0;
+    for (IBond bond : mol.bonds()) {
+      if (bond.getDisplay() == IBond.Display.ArrowBeg || bond.getDisplay() == IBond.Display.ArrowEnd)
+        count++;
+    }
+    return count;
+  }
+}
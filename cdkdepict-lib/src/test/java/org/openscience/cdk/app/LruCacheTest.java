@@ -0,0 +1,60 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class LruCacheTest {
+
+  @Test
+  void evictLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(6, String::length);
+    cache.put("a", "aa");
+    cache.put("b", "bb");
+    cache.put("c", "cc");
+    assertThat(cache.get("a"), is("aa"));
+    cache.put("d", "dd");
+    assertThat(cache.get("b"), nullValue());
+    assertThat(cache.get("a"), is("aa"));
+    assertThat(cache.get("c"), is("cc"));
+    assertThat(cache.get("d"), is("dd"));
+    assertThat(cache.evictionCount(), is(1L));
+    assertThat(cache.weight(), is(6L));
+  }
+
+  @Test
+  void hitsAndMisses() {
+    LruCache<String, String> cache = new LruCache<>(10);
+    cache.get("a");
+    cache.put("a", "aa");
+    cache.get("a");
+    cache.get("a");
+    assertThat(cache.hitCount(), is(2L));
+    assertThat(cache.missCount(), is(1L));
+  }
+
+  @Test
+  void replaceUpdatesWeight() {
+    LruCache<String, String> cache = new LruCache<>(10, String::length);
+    cache.put("a", "aaaa");
+    cache.put("a", "aa");
+    assertThat(cache.weight(), is(2L));
+    assertThat(cache.size(), is(1L));
+  }
+
+  @Test
+  void tooHeavyNotStored() {
+    LruCache<String, String> cache = new LruCache<>(3, String::length);
+    cache.put("a", "aaaa");
+    assertThat(cache.get("a"), nullValue());
+    assertThat(cache.size(), is(0L));
+  }
+}
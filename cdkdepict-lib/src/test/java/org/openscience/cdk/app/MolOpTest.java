@@ -43,4 +43,40 @@ class MolOpTest {
     assertThat(count, is(1));
   }
 
-}
\ No newline at end of file
+  @Test
+  void radicals() throws InvalidSmilesException {
+    SmilesParser   smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    IAtomContainer mol    = smipar.parseSmiles("[CH3].[CH2].[NH].[O]");
+    MolOp.perceiveRadicals(mol);
+    assertThat(mol.getSingleElectronCount(), is(6));
+    assertThat(mol.getConnectedSingleElectronsCount(mol.getAtom(0)), is(1));
+    assertThat(mol.getConnectedSingleElectronsCount(mol.getAtom(1)), is(2));
+    assertThat(mol.getConnectedSingleElectronsCount(mol.getAtom(2)), is(1));
+    assertThat(mol.getConnectedSingleElectronsCount(mol.getAtom(3)), is(2));
+  }
+
+  /**
+   * A 15k atom polymer with a radical and a dative bond in every repeat
+   * unit, the passes are linear so this is quick.
+   */
+  @Test
+  void largePolymer() throws InvalidSmilesException {
+    StringBuilder sb = new StringBuilder();
+    int n = 2500;
+    for (int i = 0; i < n; i++)
+      sb.append("[CH]C[N+]([O-])(C)C");
+    SmilesParser   smipar = new SmilesParser(SilentChemObjectBuilder.getInstance());
+    IAtomContainer mol    = smipar.parseSmiles(sb.toString());
+    assertThat(mol.getAtomCount(), is(6 * n));
+    MolOp.perceiveRadicals(mol);
+    MolOp.perceiveDativeBonds(mol, MolOp.DativeBond.Always);
+    // internal [CH] have 3 bonds (1 radical), the first has 2 (2 radicals)
+    assertThat(mol.getSingleElectronCount(), is(n + 1));
+    int arrows = 0;
+    for (IBond bond : mol.bonds()) {
+      if (bond.getDisplay() == IBond.Display.ArrowEnd || bond.getDisplay() == IBond.Display.ArrowBeg)
+        arrows++;
+    }
+    assertThat(arrows, is(n));
+  }
+}
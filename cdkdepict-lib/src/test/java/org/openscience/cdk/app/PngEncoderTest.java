@@ -0,0 +1,219 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class PngEncoderTest {
+
+  private static BufferedImage image(int w, int h, Color bg) {
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+    Graphics2D g2 = img.createGraphics();
+    if (bg != null) {
+      g2.setColor(bg);
+      g2.fillRect(0, 0, w, h);
+    }
+    Random rand = new Random(42);
+    g2.setStroke(new BasicStroke(3f));
+    for (int i = 0; i < 200; i++) {
+      g2.setColor(new Color(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256)));
+      g2.drawLine(rand.nextInt(w), rand.nextInt(h), rand.nextInt(w), rand.nextInt(h));
+    }
+    g2.dispose();
+    return img;
+  }
+
+  /**
+   * An image with far more than 256 colours and varying alpha (including
+   * fully transparent pixels) so it is written as RGBA, with smooth regions
+   * and noise so every row filter is useful.
+   */
+  private static BufferedImage truecolor(int w, int h) {
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+    Random rand = new Random(42);
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        int alpha = x < w / 8 ? 0 : (x * 255) / (w - 1);
+        int red   = (x * 255) / (w - 1);
+        int green = (y * 255) / (h - 1);
+        int blue  = (x + y) % 64 < 32 ? rand.nextInt(256) : 128;
+        img.setRGB(x, y, alpha << 24 | red << 16 | green << 8 | blue);
+      }
+    }
+    return img;
+  }
+
+  private static byte[] encode(PngEncoder encoder, BufferedImage img, int level) throws IOException {
+    return encode(encoder, img, "png", level);
+  }
+
+  private static byte[] encode(PngEncoder encoder, BufferedImage img, String fmt, int level) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    encoder.write(img, fmt, level, bout);
+    return bout.toByteArray();
+  }
+
+  private static void assertSamePixels(BufferedImage expected, byte[] png) throws IOException {
+    BufferedImage actual = ImageIO.read(new ByteArrayInputStream(png));
+    assertThat(actual.getWidth(), is(expected.getWidth()));
+    assertThat(actual.getHeight(), is(expected.getHeight()));
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        int p = expected.getRGB(x, y);
+        int q = actual.getRGB(x, y);
+        // fully transparent pixels may differ in colour
+        if ((p >>> 24) == 0)
+          assertThat(q >>> 24, is(0));
+        else
+          assertThat(q, is(p));
+      }
+    }
+  }
+
+  @Test
+  void roundTripLevels() throws IOException {
+    PngEncoder encoder = new PngEncoder(null);
+    BufferedImage img = image(120, 80, null);
+    for (int level = 0; level <= 9; level++)
+      assertSamePixels(img, encode(encoder, img, level));
+  }
+
+  @Test
+  void roundTripTruecolorLevels() throws IOException {
+    PngEncoder encoder = new PngEncoder(null);
+    BufferedImage img = truecolor(120, 80);
+    for (int level = 0; level <= 9; level++) {
+      byte[] png = encode(encoder, img, level);
+      // colour type in the IHDR
+      assertThat(png[25], is((byte) 6));
+      assertSamePixels(img, png);
+    }
+  }
+
+  @Test
+  void opaqueIsRgb() throws IOException {
+    // more colours than fit in a palette
+    BufferedImage img = new BufferedImage(120, 80, BufferedImage.TYPE_INT_RGB);
+    Random rand = new Random(42);
+    for (int y = 0; y < img.getHeight(); y++)
+      for (int x = 0; x < img.getWidth(); x++)
+        img.setRGB(x, y, rand.nextInt());
+    byte[] png = encode(new PngEncoder(null), img, 4);
+    // colour type in the IHDR
+    assertThat(png[25], is((byte) 2));
+    assertSamePixels(img, png);
+  }
+
+  @Test
+  void higherLevelIsSmaller() throws IOException {
+    PngEncoder encoder = new PngEncoder(null);
+    BufferedImage img = image(300, 300, Color.WHITE);
+    assertThat(encode(encoder, img, 9).length, lessThan(encode(encoder, img, 0).length));
+  }
+
+  @Test
+  void parallelDeflate() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      BufferedImage img = image(1200, 900, null);
+      byte[] png = encode(new PngEncoder(pool), img, 4);
+      assertSamePixels(img, png);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void parallelDeflateTruecolor() throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      // 4 bytes a pixel, well over the threshold and split into many bands
+      BufferedImage img = truecolor(1000, 800);
+      for (int level : new int[]{1, 4, 9}) {
+        byte[] png = encode(new PngEncoder(pool), img, level);
+        assertThat(png[25], is((byte) 6));
+        assertSamePixels(img, png);
+        // the bands are deflated independently, the combined checksum of the
+        // zlib stream must match for the image to be read
+        assertSamePixels(img, encode(new PngEncoder(null), img, level));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void fewColorsArePalette() throws IOException {
+    BufferedImage img = new BufferedImage(50, 20, BufferedImage.TYPE_4BYTE_ABGR);
+    Graphics2D g2 = img.createGraphics();
+    g2.setColor(Color.RED);
+    g2.fillRect(3, 3, 20, 10);
+    g2.setColor(Color.BLACK);
+    g2.fillRect(30, 5, 10, 10);
+    g2.dispose();
+    byte[] png = encode(new PngEncoder(null), img, 4);
+    // colour type and bit depth in the IHDR
+    assertThat(png[25], is((byte) 3));
+    assertThat(png[24], is((byte) 2));
+    assertSamePixels(img, png);
+  }
+
+  @Test
+  void png8IsQuantized() throws IOException {
+    BufferedImage img = image(300, 300, null);
+    byte[] png = encode(new PngEncoder(null), img, PngEncoder.PNG8_FMT, 4);
+    assertThat(png[25], is((byte) 3));
+    BufferedImage actual = ImageIO.read(new ByteArrayInputStream(png));
+    Set<Integer> colors = new HashSet<>();
+    for (int y = 0; y < img.getHeight(); y++) {
+      for (int x = 0; x < img.getWidth(); x++) {
+        int p = img.getRGB(x, y);
+        int q = actual.getRGB(x, y);
+        colors.add(q);
+        if ((p >>> 24) == 0 && (q >>> 24) == 0)
+          continue;
+        for (int shift = 0; shift < 32; shift += 8)
+          assertThat(Math.abs(((p >> shift) & 0xff) - ((q >> shift) & 0xff)), lessThanOrEqualTo(64));
+      }
+    }
+    assertThat(colors.size(), lessThanOrEqualTo(256));
+  }
+
+  @Test
+  void adlerCombine() {
+    byte[] data = new byte[100000];
+    new Random(1).nextBytes(data);
+    Adler32 all = new Adler32();
+    all.update(data, 0, data.length);
+    Adler32 first = new Adler32();
+    first.update(data, 0, 30000);
+    Adler32 second = new Adler32();
+    second.update(data, 30000, 70000);
+    long combined = PngEncoder.adler32Combine(PngEncoder.adler32Combine(1, first.getValue(), 30000),
+                                              second.getValue(), 70000);
+    assertThat(combined, is(all.getValue()));
+  }
+}
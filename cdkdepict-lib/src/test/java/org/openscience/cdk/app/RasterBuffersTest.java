@@ -0,0 +1,49 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+class RasterBuffersTest {
+
+  @Test
+  void reusedOnSameThread() {
+    RasterBuffers buffers = new RasterBuffers(1024 * 1024);
+    RasterBuffers.Buffer buf1 = buffers.acquire();
+    buf1.write(new byte[1000], 0, 1000);
+    buffers.release(buf1);
+    RasterBuffers.Buffer buf2 = buffers.acquire();
+    assertThat(buf2, sameInstance(buf1));
+    assertThat(buf2.size(), is(0));
+    buf2.write(new byte[500], 0, 500);
+    buffers.release(buf2);
+    assertThat(buffers.reusedBytes(), is(500L));
+    assertThat(buffers.allocatedBytes(), is((long) buf1.capacity()));
+  }
+
+  @Test
+  void largeBuffersNotRetained() {
+    RasterBuffers buffers = new RasterBuffers(128 * 1024);
+    RasterBuffers.Buffer buf1 = buffers.acquire();
+    buf1.write(new byte[256 * 1024], 0, 256 * 1024);
+    buffers.release(buf1);
+    assertThat(buffers.acquire(), not(sameInstance(buf1)));
+  }
+
+  @Test
+  void nestedAcquire() {
+    RasterBuffers buffers = new RasterBuffers(1024 * 1024);
+    RasterBuffers.Buffer buf1 = buffers.acquire();
+    RasterBuffers.Buffer buf2 = buffers.acquire();
+    assertThat(buf2, not(sameInstance(buf1)));
+  }
+}
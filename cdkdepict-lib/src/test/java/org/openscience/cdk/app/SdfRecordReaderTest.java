@@ -0,0 +1,110 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class SdfRecordReaderTest {
+
+  private static String record(String title, String id) {
+    return title + "\n" +
+           "  test\n" +
+           "\n" +
+           "  1  0  0  0  0  0  0  0  0  0999 V2000\n" +
+           "    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n" +
+           "M  END\n" +
+           "> <NAME>\n" +
+           "methane\n" +
+           "\n" +
+           ">  <ID>  (MD-1)\n" +
+           id + "\n" +
+           "\n" +
+           "$$$$\n";
+  }
+
+  @Test
+  void records() throws IOException {
+    String sdf = record("first", "ID-1") + record("second", "ID-2");
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf), null, 1024);
+    SdfRecordReader.Record record = sdfr.next();
+    assertThat(record.number(), is(1));
+    assertThat(record.title(), is("first"));
+    assertThat(record.molfile().endsWith("M  END\n"), is(true));
+    assertThat(DepictInput.sniff(record.molfile()), is(DepictInput.Format.MDL_V2000));
+    record = sdfr.next();
+    assertThat(record.number(), is(2));
+    assertThat(record.title(), is("second"));
+    assertThat(sdfr.next(), nullValue());
+  }
+
+  @Test
+  void titleField() throws IOException {
+    String sdf = record("first", "ID-1") + record("second", "ID-2");
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf), "ID", 1024);
+    assertThat(sdfr.next().title(), is("ID-1"));
+    assertThat(sdfr.next().title(), is("ID-2"));
+    sdfr = new SdfRecordReader(new StringReader(sdf), "MISSING", 1024);
+    assertThat(sdfr.next().title(), is(""));
+  }
+
+  @Test
+  void windowsLineEndings() throws IOException {
+    String sdf = (record("first", "ID-1") + record("second", "ID-2")).replace("\n", "\r\n");
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf), "ID", 1024);
+    SdfRecordReader.Record record = sdfr.next();
+    assertThat(record.title(), is("ID-1"));
+    assertThat(record.molfile().indexOf('\r'), is(-1));
+    assertThat(sdfr.next().title(), is("ID-2"));
+    assertThat(sdfr.next(), nullValue());
+  }
+
+  @Test
+  void lastRecordUnterminated() throws IOException {
+    String sdf = record("first", "ID-1") + "second\n  test\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END";
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf + "\n\n"), null, 1024);
+    assertThat(sdfr.next().title(), is("first"));
+    assertThat(sdfr.next().title(), is("second"));
+    assertThat(sdfr.next(), nullValue());
+  }
+
+  @Test
+  void emptyRecordsSkipped() throws IOException {
+    String sdf = record("first", "ID-1") + "$$$$\n$$$$\n" + record("second", "ID-2") + "\n  \n$$$$\n";
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf), null, 1024);
+    assertThat(sdfr.next().title(), is("first"));
+    SdfRecordReader.Record record = sdfr.next();
+    assertThat(record.number(), is(2));
+    assertThat(record.title(), is("second"));
+    assertThat(sdfr.next(), nullValue());
+  }
+
+  @Test
+  void recordTooLarge() throws IOException {
+    StringBuilder large = new StringBuilder("large\n  test\n\n");
+    for (int i = 0; i < 100; i++)
+      large.append("    0.0000    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\n");
+    large.append("M  END\n$$$$\n");
+    String sdf = record("first", "ID-1") + large + record("third", "ID-3");
+    SdfRecordReader sdfr = new SdfRecordReader(new StringReader(sdf), null, 1024);
+    assertThat(sdfr.next().molfile() != null, is(true));
+    SdfRecordReader.Record record = sdfr.next();
+    assertThat(record.title(), is("large"));
+    assertThat(record.molfile(), nullValue());
+    // carries on after the large record
+    record = sdfr.next();
+    assertThat(record.number(), is(3));
+    assertThat(record.title(), is("third"));
+    assertThat(record.molfile() != null, is(true));
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * ======================================================
+ *  Copyright (c) 2026 NextMove Software
+ * ======================================================
+ */
+
+package org.openscience.cdk.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SvgCompactorTest {
+
+  private static final String HEADER = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+                                       "<svg version='1.2' xmlns='http://www.w3.org/2000/svg' width='40.0mm' height='20.0mm' viewBox='0 0 40.0 20.0'>\n" +
+                                       "  <desc>Generated by the Chemistry Development Kit (http://github.com/cdk)</desc>\n" +
+                                       "  <g stroke-linecap='round' stroke-linejoin='round'>\n" +
+                                       "    <rect x='.0' y='.0' width='40.0' height='20.0' fill='#FFFFFF' stroke='none'/>\n";
+  private static final String FOOTER = "  </g>\n</svg>\n";
+
+  private static int count(String str, String sub) {
+    int count = 0;
+    for (int i = str.indexOf(sub); i >= 0; i = str.indexOf(sub, i + 1))
+      count++;
+    return count;
+  }
+
+  @Test
+  void roundedCoordinates() {
+    String svg = HEADER +
+                 "    <line x1='1.23456' y1='-0.004' x2='10.5' y2='3.00001' stroke='#000000' stroke-width='.46' class='bond' id='mol1bnd1'/>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, containsString("<line x1='1.23' y1='0' x2='10.5' y2='3' class='bond' id='mol1bnd1'"));
+    out = new SvgCompactor(0).compact(svg);
+    assertThat(out, containsString("<line x1='1' y1='0' x2='11' y2='3' class='bond' id='mol1bnd1'"));
+  }
+
+  @Test
+  void sharedGlyphs() {
+    String glyph1 = "M6.1234567 2.7654321C6.6234567 2.8654321 7.3234567 3.0954321 8.0234567 3.5654321" +
+                    "C8.5234567 4.2654321 8.5234567 5.6654321 8.0234567 6.3654321Z";
+    String glyph2 = "M16.1234567 12.7654321C16.6234567 12.8654321 17.3234567 13.0954321 18.0234567 13.5654321" +
+                    "C18.5234567 14.2654321 18.5234567 15.6654321 18.0234567 16.3654321Z";
+    String svg = HEADER +
+                 "    <g class='atom' id='mol1atm1'>\n" +
+                 "      <path d='" + glyph1 + "' stroke='none' fill='#FF0D0D'/>\n" +
+                 "    </g>\n" +
+                 "    <g class='atom' id='mol1atm2'>\n" +
+                 "      <path d='" + glyph2 + "' stroke='none' fill='#FF0D0D'/>\n" +
+                 "    </g>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, containsString("<defs><path id='g1' d='M0 0C.5.1 1.2.33 1.9.8 2.4 1.5 2.4 2.9 1.9 3.6Z'/></defs>"));
+    assertThat(out, containsString("<use xlink:href='#g1' x='6.12' y='2.77'/>"));
+    assertThat(out, containsString("<use xlink:href='#g1' x='16.12' y='12.77'/>"));
+    assertThat(out, containsString("xmlns:xlink='http://www.w3.org/1999/xlink'"));
+    assertThat(out, not(containsString("<path d=")));
+  }
+
+  @Test
+  void singleGlyphNotShared() {
+    String svg = HEADER +
+                 "    <path d='M6 2C6.5 2.8 7.3 3 8 3.5C8.5 4.2 8.5 5.6 8 6.3Z' stroke='none' fill='#FF0D0D'/>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, not(containsString("<use")));
+    assertThat(out, containsString("d='M6 2C6.5 2.8 7.3 3 8 3.5 8.5 4.2 8.5 5.6 8 6.3Z'"));
+  }
+
+  @Test
+  void mergedStrokes() {
+    String svg = HEADER +
+                 "    <g class='bond' id='mol1bnd1'>\n" +
+                 "      <line x1='1' y1='2' x2='3' y2='4' stroke='#000000' stroke-width='.46'/>\n" +
+                 "      <line x1='1.5' y1='2.5' x2='3.5' y2='4.5' stroke='#000000' stroke-width='.46'/>\n" +
+                 "    </g>\n" +
+                 "    <g class='bond' id='mol1bnd2'>\n" +
+                 "      <line x1='5' y1='5' x2='6' y2='6' stroke='#000000' stroke-width='.46'/>\n" +
+                 "      <line x1='5' y1='6' x2='6' y2='7' stroke='#FF0000' stroke-width='.46'/>\n" +
+                 "    </g>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, containsString("<g class='bond' id='mol1bnd1'><path "));
+    assertThat(out, containsString("d='M1 2 3 4M1.5 2.5 3.5 4.5'/></g>"));
+    // different colours are not merged
+    assertThat(count(out, "<line"), is(2));
+  }
+
+  @Test
+  void relativeMoveMerged() {
+    String svg = HEADER +
+                 "    <g class='bond' id='mol1bnd1'>\n" +
+                 "      <path d='m10 10l5 0' stroke='#000000' stroke-width='.46' fill='none'/>\n" +
+                 "      <path d='m20 20l5 0' stroke='#000000' stroke-width='.46' fill='none'/>\n" +
+                 "    </g>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    // the second moveto is not relative to the end of the first path
+    assertThat(out, containsString("M20 20l5 0"));
+    assertThat(out, not(containsString("m20 20")));
+  }
+
+  @Test
+  void cdataKept() {
+    String svg = HEADER +
+                 "    <desc><![CDATA[a > b <c>]]></desc>\n" +
+                 "    <line x1='1' y1='2' x2='3' y2='4' stroke='#000000' stroke-width='.46'/>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, containsString("<desc><![CDATA[a > b <c>]]></desc><line x1='1' y1='2' x2='3' y2='4'"));
+  }
+
+  @Test
+  void stylesOutsideOuterGroup() {
+    String svg = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+                 "<svg version='1.2' xmlns='http://www.w3.org/2000/svg' width='40.0mm' height='20.0mm' viewBox='0 0 40.0 20.0'>\n" +
+                 "  <rect x='.0' y='.0' width='40.0' height='20.0' fill='#FFFFFF' stroke='#FF0000'/>\n" +
+                 "  <g stroke-linecap='round' stroke-linejoin='round'>\n" +
+                 "    <line x1='1' y1='2' x2='3' y2='4' stroke='#FF0000' stroke-width='.46'/>\n" +
+                 "    <line x1='5' y1='6' x2='7' y2='8' stroke='#FF0000' stroke-width='.46'/>\n" +
+                 "    <rect x='1' y='1' width='2' height='2' fill='#FFFFFF' stroke='none'/>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    // the background does not inherit the values set on the outer group
+    assertThat(out, containsString("<rect x='0' y='0' width='40' height='20' fill='#FFF' stroke='#F00'/>"));
+  }
+
+  @Test
+  void commonStylesOnOuterGroup() {
+    String svg = HEADER +
+                 "    <line x1='1' y1='2' x2='3' y2='4' stroke='#000000' stroke-width='.46' id='a'/>\n" +
+                 "    <line x1='2' y1='2' x2='3' y2='4' stroke='#000000' stroke-width='.46' id='b'/>\n" +
+                 "    <line x1='3' y1='2' x2='3' y2='4' stroke='#0000FF' stroke-width='.46' id='c'/>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(out, containsString("<g stroke-linecap='round' stroke-linejoin='round' fill='#FFF' stroke='#000' stroke-width='.46'>"));
+    assertThat(out, containsString("<rect x='0' y='0' width='40' height='20' stroke='none'/>"));
+    assertThat(out, containsString("<line x1='1' y1='2' x2='3' y2='4' id='a'/>"));
+    assertThat(out, containsString("<line x1='3' y1='2' x2='3' y2='4' id='c' stroke='#00F'/>"));
+  }
+
+  @Test
+  void redundantAttributesRemoved() {
+    String svg = HEADER +
+                 "    <g stroke-linecap='round'>\n" +
+                 "      <path d='M1 2L3 4' stroke='#000000' stroke-linecap='round' fill='none' id='a'/>\n" +
+                 "    </g>\n" +
+                 FOOTER;
+    String out = new SvgCompactor(2).compact(svg);
+    assertThat(count(out, "stroke-linecap"), is(1));
+  }
+
+  @Test
+  void invalidPrecision() {
+    assertThrows(IllegalArgumentException.class, () -> new SvgCompactor(SvgCompactor.MAX_PRECISION + 1));
+  }
+}
@@ -3,6 +3,9 @@ package org.openscience.cdk.app;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
@@ -13,6 +16,47 @@ import org.springframework.web.servlet.view.InternalResourceViewResolver;
 @ComponentScan
 public class Context {
 
+  /**
+   * Async request handling, the depictions are created on a pool owned by the
+   * DepictController and the responses are written by this executor. It uses
+   * virtual threads (when available, Spring 6.1+ on Java 21+) unless
+   * cdkdepict.async.virtual=false, cdkdepict.async.timeout sets the time
+   * before an async request times out (default: 60s).
+   */
+  @Configuration
+  static class AsyncConfig implements WebMvcConfigurer {
+
+    private final Environment env;
+
+    AsyncConfig(Environment env) {
+      this.env = env;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+      SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("cdkdepict-io-");
+      if (env.getProperty("cdkdepict.async.virtual", Boolean.class, true))
+        useVirtualThreads(executor);
+      configurer.setTaskExecutor(executor);
+      configurer.setDefaultTimeout(DepictController.parseDuration(env.getProperty("cdkdepict.async.timeout", "60s"))
+                                                   .toMillis());
+    }
+
+    /**
+     * Use virtual threads if supported. This is looked up by reflection as
+     * the javaee build (Spring 5.3, Java 8) does not have it, Spring 6.1+
+     * throws if the JVM does not have virtual threads (before Java 21).
+     */
+    private static void useVirtualThreads(SimpleAsyncTaskExecutor executor) {
+      try {
+        SimpleAsyncTaskExecutor.class.getMethod("setVirtualThreads", boolean.class)
+                                     .invoke(executor, true);
+      } catch (ReflectiveOperationException e) {
+        // platform threads
+      }
+    }
+  }
+
   @EnableWebMvc
   static class MvConfig implements WebMvcConfigurer {
     @Bean
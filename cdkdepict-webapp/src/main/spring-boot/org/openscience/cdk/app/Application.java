@@ -9,9 +9,19 @@ package org.openscience.cdk.app;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.util.Collections;
+
+/**
+ * Bootable application. Requests are accepted on virtual threads (Java 21+),
+ * this can be turned off with --spring.threads.virtual.enabled=false, the
+ * CPU bound depiction work runs on a pool sized to the available cores (see
+ * DepictController).
+ */
 @SpringBootApplication
 public class Application {
     public static void main(String[] args) {
-        SpringApplication.run(Application.class, args);
+        SpringApplication app = new SpringApplication(Application.class);
+        app.setDefaultProperties(Collections.singletonMap("spring.threads.virtual.enabled", "true"));
+        app.run(args);
     }
 }
\ No newline at end of file